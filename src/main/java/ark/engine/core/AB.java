@@ -38,6 +38,7 @@ public class AB {
     public static AIMLSet passed = new AIMLSet("passed");
     public static AIMLSet testSet = new AIMLSet("1000");
     public static int runCompletedCnt;
+    public static int unwrittenCnt;     // categories saved since the AIMLIF files were last written
     /**
      * Calculates the botmaster's productivity rate in
      * categories/sec when using Pattern Suggestor to create content.
@@ -51,7 +52,9 @@ public class AB {
         System.out.println("Completed "+runCompletedCnt+" in "+time+" min. Productivity "+(float)runCompletedCnt/time+" cat/min");
     }
 
-       /** saves a new AIML category and increments runCompletedCnt
+       /** saves a new AIML category and increments runCompletedCnt.
+        * The AIMLIF files are written once every MagicNumbers.aimlif_write_batch categories;
+        * call flushCategories to write the rest.
         *
         * @param bot   the bot the category belongs to
         * @param pattern    the category's pattern (that and topic = *)
@@ -63,14 +66,23 @@ public class AB {
         String topic = "*";
         Category c = new Category(0, pattern,  that, topic, template, filename);
         if (c.validate()) {
-            bot.brain.addCategory(c);
+            bot.addToBrain(c);
            // bot.categories.add(c);
-            bot.writeAIMLIFFiles();
             runCompletedCnt++;
+            if (++unwrittenCnt >= MagicNumbers.aimlif_write_batch) flushCategories(bot);
         }
         else System.out.println("Invalid Category "+c.validationMessage);
     }
 
+       /** write the AIMLIF files changed by categories saved since the last write
+        *
+        * @param bot   the bot the categories belong to
+        */
+    public static void flushCategories(Bot bot) {
+        unwrittenCnt = 0;
+        bot.writeAIMLIFFiles();
+    }
+
        /** mark a category as deleted
         *
         * @param bot     the bot the category belogs to
@@ -92,10 +104,11 @@ public class AB {
         c.setFilename(MagicStrings.unfinished_aiml_file);
         c.setTemplate(MagicStrings.unfinished_template);
         bot.unfinishedGraph.addCategory(c);
-        System.out.println(bot.unfinishedGraph.getCategories().size() + " unfinished categories");
+        System.out.println(bot.unfinishedGraph.categoryCnt + " unfinished categories");
         bot.writeUnfinishedIFCategories();
     }
     public static void abwq(Bot bot) {
+        MagicBooleans.record_matches = true;
         Timer timer = new Timer();
         timer.start();
         bot.classifyInputs(logfile);
@@ -115,6 +128,7 @@ public class AB {
         String logFile = logfile;
         MagicBooleans.trace_mode = false;
         MagicBooleans.enable_external_sets = false;
+        MagicBooleans.record_matches = true;
         Timer timer = new Timer();
         bot.brain.nodeStats();
         timer.start();
@@ -178,6 +192,7 @@ public class AB {
                 System.out.println("Returning to Category Browser");
             }
         }
+        flushCategories(bot);
     }
 
        /** process one step of the terminal interaction
@@ -208,7 +223,10 @@ public class AB {
                botThinks = "<think><set name=\""+p+"\"><set name=\"topic\"><star/></set></set></think>";
            }
        }
-       if (textLine.equals("q")) System.exit(0);       // Quit program
+       if (textLine.equals("q")) {       // Quit program
+           flushCategories(bot);
+           System.exit(0);
+       }
        else if (textLine.equals("wq")) {   // Write AIML Files and quit program
            bot.writeQuit();
          /*  Nodemapper udcNode = bot.brain.findNode("*", "*", "*");
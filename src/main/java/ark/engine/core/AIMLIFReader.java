@@ -0,0 +1,180 @@
+package ark.engine.core;
+/* Program AB Reference AIML 2.0 implementation
+        Copyright (C) 2013 ALICE A.I. Foundation
+        Contact: info@alicebot.org
+
+        This library is free software; you can redistribute it and/or
+        modify it under the terms of the GNU Library General Public
+        License as published by the Free Software Foundation; either
+        version 2 of the License, or (at your option) any later version.
+
+        This library is distributed in the hope that it will be useful,
+        but WITHOUT ANY WARRANTY; without even the implied warranty of
+        MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+        Library General Public License for more details.
+
+        You should have received a copy of the GNU Library General Public
+        License along with this library; if not, write to the
+        Free Software Foundation, Inc., 51 Franklin St, Fifth Floor,
+        Boston, MA  02110-1301, USA.
+*/
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+
+/**
+ * AIMLIF file reader.
+ *
+ * The file is memory mapped and scanned byte by byte for line breaks, the split character and the
+ * #Newline and #Comma escapes.  These are all ASCII, so they can never occur inside a multi-byte
+ * UTF-8 sequence.  Each field is decoded as UTF-8 exactly once, straight into its final String.
+ * The fields are the same as Category.IFToCategory gets from String.split and lineToTemplate.
+ */
+class AIMLIFReader {
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+    private static final byte[] newlineEscape = "#Newline".getBytes(UTF8);
+    private static final byte[] commaEscape = "#Comma".getBytes(UTF8);
+
+    private final MappedByteBuffer in;
+    private final byte split;
+    private byte[] scratch = new byte[1024];
+    private final int[] fieldStart = new int[6];
+    private final int[] fieldEnd = new int[6];
+
+    private AIMLIFReader(MappedByteBuffer in) {
+        this.in = in;
+        this.split = (byte)MagicStrings.aimlif_split_char.charAt(0);
+    }
+
+    /**
+     * read all categories from an AIMLIF file.  Invalid lines are reported and skipped.
+     *
+     * @param filename    name of AIMLIF file
+     * @return            list of categories
+     * @throws IOException    if the file cannot be mapped
+     */
+    static ArrayList<Category> readCategories(String filename) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(filename, "r");
+        MappedByteBuffer in;
+        try {
+            in = raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, raf.length());
+        } finally {
+            raf.close();
+        }
+        AIMLIFReader reader = new AIMLIFReader(in);
+        ArrayList<Category> categories = new ArrayList<Category>();
+        int limit = in.limit();
+        int pos = 0;
+        while (pos < limit) {
+            int lineStart = pos;
+            int lineEnd = pos;
+            byte b;
+            while (lineEnd < limit && (b = in.get(lineEnd)) != '\n' && b != '\r') lineEnd++;
+            pos = lineEnd;
+            if (pos < limit) {
+                if (in.get(pos) == '\r' && pos + 1 < limit && in.get(pos+1) == '\n') pos += 2;
+                else pos++;
+            }
+            Category c = null;
+            try {
+                c = reader.lineToCategory(lineStart, lineEnd);
+            } catch (Exception ex) {
+                // reported below
+            }
+            if (c != null) categories.add(c);
+            else System.out.println("Invalid AIMLIF in "+filename+" line "+reader.decode(lineStart, lineEnd, false));
+        }
+        return categories;
+    }
+
+    /**
+     * convert one line to a Category
+     *
+     * @param start     index of the first byte of the line
+     * @param end       index after the last byte of the line
+     * @return          Category object, or null if the line does not have six fields
+     */
+    private Category lineToCategory(int start, int end) {
+        int fields = 0;
+        boolean lastFieldUsed = false;    // String.split drops trailing empty fields
+        int fieldBegin = start;
+        for (int i = start; i <= end; i++) {
+            if (i == end || in.get(i) == split) {
+                if (fields < 6) {
+                    fieldStart[fields] = fieldBegin;
+                    fieldEnd[fields] = i;
+                }
+                if (fields >= 5 && i > fieldBegin) lastFieldUsed = true;
+                fields++;
+                fieldBegin = i + 1;
+            }
+        }
+        if (fields < 6 || !lastFieldUsed) return null;
+        return new Category(activationCnt(fieldStart[0], fieldEnd[0]),
+                decode(fieldStart[1], fieldEnd[1], false),
+                decode(fieldStart[2], fieldEnd[2], false),
+                decode(fieldStart[3], fieldEnd[3], false),
+                decode(fieldStart[4], fieldEnd[4], true),
+                decode(fieldStart[5], fieldEnd[5], false));
+    }
+
+    /**
+     * parse the activation count field like Integer.parseInt, without creating a String for plain ASCII numbers
+     */
+    private int activationCnt(int start, int end) {
+        int i = start;
+        boolean negative = false;
+        if (i < end && (in.get(i) == '-' || in.get(i) == '+')) negative = (in.get(i++) == '-');
+        long value = 0;
+        boolean plain = (i < end && end - i <= 10);
+        for (; plain && i < end; i++) {
+            byte b = in.get(i);
+            if (b < '0' || b > '9') plain = false;
+            else value = 10*value + (b - '0');
+        }
+        if (negative) value = -value;
+        if (plain && value >= Integer.MIN_VALUE && value <= Integer.MAX_VALUE) return (int)value;
+        return Integer.parseInt(decode(start, end, false));
+    }
+
+    /**
+     * decode a field as UTF-8
+     *
+     * @param start       index of the first byte
+     * @param end         index after the last byte
+     * @param template    true to replace #Newline with a newline and #Comma with the split character
+     * @return            field value
+     */
+    private String decode(int start, int end, boolean template) {
+        if (scratch.length < end - start) scratch = new byte[2*(end - start)];
+        int n = 0;
+        for (int i = start; i < end; i++) {
+            byte b = in.get(i);
+            if (template && b == '#') {
+                if (matches(i, end, newlineEscape)) {
+                    scratch[n++] = '\n';
+                    i += newlineEscape.length - 1;
+                    continue;
+                }
+                if (matches(i, end, commaEscape)) {
+                    scratch[n++] = split;
+                    i += commaEscape.length - 1;
+                    continue;
+                }
+            }
+            scratch[n++] = b;
+        }
+        return new String(scratch, 0, n, UTF8);
+    }
+
+    private boolean matches(int i, int end, byte[] escape) {
+        if (end - i < escape.length) return false;
+        for (int k = 0; k < escape.length; k++) {
+            if (in.get(i + k) != escape[k]) return false;
+        }
+        return true;
+    }
+}
@@ -71,7 +71,7 @@ public class AIMLMap extends HashMap<String, String> {
         else if (isExternal && MagicBooleans.enable_external_sets) {
             //String[] split = key.split(" ");
             String query = mapName.toUpperCase()+" "+key;
-            String response = Sraix.sraix(null, query, MagicStrings.unknown_map_value, null, host, botid, null, "0");
+            String response = ExternalLookupCache.shared.lookup(host, botid, query, MagicStrings.unknown_map_value);
             System.out.println("External "+mapName+"("+key+")="+response);
             value = response;
         }
@@ -21,9 +21,6 @@ package ark.engine.core;
 import ark.engine.utils.CalendarUtils;
 import ark.engine.utils.DomUtils;
 import ark.engine.utils.IOUtils;
-import org.w3c.dom.NamedNodeMap;
-import org.w3c.dom.Node;
-import org.w3c.dom.NodeList;
 
 import java.util.ArrayList;
 import java.util.HashSet;
@@ -39,29 +36,16 @@ public class AIMLProcessor {
     /**
      * when parsing an AIML file, process a category element.
      *
-     * @param n        current XML parse node.
+     * @param pattern                         pattern element as XML text, or "*"
+     * @param that                            that element as XML text, or "*"
+     * @param topic                           topic element as XML text, or the value of topic in case this category is wrapped in a <topic> tag
+     * @param template                        template element as XML text
      * @param categories                      list of categories found so far.
-     * @param topic                           value of topic in case this category is wrapped in a <topic> tag
      * @param aimlFile                        name of AIML file being parsed.
+     * @param language                        language attribute of the aiml tag
      */
     public static AIMLProcessorExtension extension;
-    private static void categoryProcessor(Node n, ArrayList<Category> categories, String topic, String aimlFile, String language) {
-        String pattern, that, template;
-
-        NodeList children = n.getChildNodes();
-        pattern = "*"; that = "*";  template="";
-        for (int j = 0; j < children.getLength(); j++) {
-            //System.out.println("CHILD: "+children.item(j).getNodeName());
-            Node m = children.item(j);
-			String mName = m.getNodeName();
-            if (mName.equals("#text")) {/*skip*/}
-            else if (mName.equals("pattern")) pattern = DomUtils.nodeToString(m);
-            else if (mName.equals("that")) that = DomUtils.nodeToString(m);
-            else if (mName.equals("topic")) topic = DomUtils.nodeToString(m);
-            else if (mName.equals("template")) template = DomUtils.nodeToString(m);
-            else System.out.println("categoryProcessor: unexpected "+mName);
-        }
-
+    static void categoryProcessor(String pattern, String that, String topic, String template, ArrayList<Category> categories, String aimlFile, String language) {
         pattern = trimTag(pattern, "pattern");
         that = trimTag(that, "that");
         topic = trimTag(topic, "topic");
@@ -98,37 +82,7 @@ public class AIMLProcessor {
      */
     public static ArrayList<Category> AIMLToCategories (String directory, String aimlFile) {
         try {
-            ArrayList categories = new ArrayList<Category>();
-            Node root = DomUtils.parseFile(directory+"/"+aimlFile);      // <aiml> tag
-            String language = MagicStrings.default_language;
-            if (root.hasAttributes()) {
-                NamedNodeMap XMLAttributes = root.getAttributes();
-                for(int i=0; i < XMLAttributes.getLength(); i++)
-
-                {
-                    if (XMLAttributes.item(i).getNodeName().equals("language")) language = XMLAttributes.item(i).getNodeValue();
-                }
-            }
-            NodeList nodelist = root.getChildNodes();
-            for (int i = 0; i < nodelist.getLength(); i++)   {
-                Node n = nodelist.item(i);
-                //System.out.println("AIML child: "+n.getNodeName());
-                if (n.getNodeName().equals("category")) {
-                    categoryProcessor(n, categories, "*", aimlFile, language);
-                }
-                else if (n.getNodeName().equals("topic")) {
-                    String topic = n.getAttributes().getNamedItem("name").getTextContent();
-                    NodeList children = n.getChildNodes();
-                    for (int j = 0; j < children.getLength(); j++) {
-                        Node m = children.item(j);
-                        //System.out.println("Topic child: "+m.getNodeName());
-                        if (m.getNodeName().equals("category")) {
-                            categoryProcessor(m, categories, topic, aimlFile, language);
-                        }
-                    }
-                }
-            }
-            return categories;
+            return AIMLReader.readCategories(directory+"/"+aimlFile, aimlFile);
         }
         catch (Exception ex) {
             System.out.println("AIMLToCategories: "+ex);
@@ -137,8 +91,6 @@ public class AIMLProcessor {
         }
     }
 
-    public static int sraiCount = 0;
-    public static int repeatCount = 0;
     // Helper functions:
     public static int checkForRepeat(String input, Chat chatSession) {
         if (input.equals(chatSession.inputHistory.get(1))) {
@@ -174,17 +126,33 @@ public class AIMLProcessor {
      * @return              bot's reply.
      */
  public static String respond(String input, String that, String topic, Chat chatSession, int srCnt) {
+        RequestContext context = new RequestContext(chatSession.bot.brain);
+        context.sraiCount = srCnt;
+        return respond(input, that, topic, chatSession, context);
+    }
+
+    /**
+     * generate a bot response to a single sentence input.
+     *
+     * @param input      input statement.
+     * @param that       bot's last reply.
+     * @param topic      current topic.
+     * @param chatSession   current client chat session.
+     * @param context       evaluation state of the request, including its brain and srai count
+     * @return              bot's reply.
+     */
+    public static String respond(String input, String that, String topic, Chat chatSession, RequestContext context) {
         String response;
         if (input == null || input.length()==0) input = MagicStrings.null_input;
-        sraiCount = srCnt;
         response = MagicStrings.default_bot_response;
          try {
-            Nodemapper leaf = chatSession.bot.brain.match(input, that, topic);
-            if (leaf == null) {return(response);}
-            //System.out.println("Template="+leaf.category.getTemplate());
-            ParseState ps = new ParseState(0, chatSession, input, that, topic, leaf);
-            //chatSession.matchTrace += leaf.category.getTemplate()+"\n";
-            response = evalTemplate(leaf.category.getTemplate(), ps);
+            MatchResult match = context.brain.match(input, that, topic);
+            context.traceMatch(match);
+            if (match == null) {return(response);}
+            //System.out.println("Template="+match.category.getTemplate());
+            ParseState ps = new ParseState(0, chatSession, context, input, that, topic, match);
+            //chatSession.matchTrace += match.category.getTemplate()+"\n";
+            response = evalTemplate(match.category, ps);
             //System.out.println("That="+that);
         } catch (Exception ex) {
             ex.printStackTrace();
@@ -236,12 +204,11 @@ public class AIMLProcessor {
      * @param ignoreAttributes   tag names to ignore when evaluating the tag.
      * @return            the result of evaluating the tag contents.
      */
-    public static String evalTagContent(Node node, ParseState ps, Set<String> ignoreAttributes) {
+    public static String evalTagContent(TemplateNode node, ParseState ps, Set<String> ignoreAttributes) {
         String result = "";
         try {
-        NodeList childList = node.getChildNodes();
-        for (int i = 0; i < childList.getLength(); i++) {
-            Node child = childList.item(i);
+        for (int i = 0; i < node.getChildCount(); i++) {
+            TemplateNode child = node.getChild(i);
             if (ignoreAttributes == null || !ignoreAttributes.contains(child.getNodeName()))
               result += recursEval(child, ps);
         }
@@ -259,7 +226,7 @@ public class AIMLProcessor {
      * @param ps         current parse state
      * @return           unevaluated generic XML string
      */
-    public static String genericXML(Node node, ParseState ps) {
+    public static String genericXML(TemplateNode node, ParseState ps) {
         String result = evalTagContent(node, ps, null);
         return unevaluatedXML(result, node, ps);
     }
@@ -277,22 +244,20 @@ public class AIMLProcessor {
      * @param ps             current parse state.
      * @return               the unevaluated XML string
      */
-    private static String unevaluatedXML(String result, Node node, ParseState ps) {
+    private static String unevaluatedXML(String result, TemplateNode node, ParseState ps) {
         String nodeName = node.getNodeName();
         String attributes = "";
         if (node.hasAttributes()) {
-            NamedNodeMap XMLAttributes = node.getAttributes();
-            for(int i=0; i < XMLAttributes.getLength(); i++)
+            for(int i=0; i < node.getAttributeCount(); i++)
 
             {
-                attributes += " "+XMLAttributes.item(i).getNodeName()+"=\""+XMLAttributes.item(i).getNodeValue()+"\"";
+                attributes += " "+node.getAttributeName(i)+"=\""+node.getAttributeValue(i)+"\"";
             }
         }
         if (result.equals(""))
             return "<"+nodeName+attributes+"/>";
         else return "<"+nodeName+attributes+">"+result+"</"+nodeName+">";
     }
-    public static int trace_count = 0;
 
     /**
      * implements AIML <srai> tag
@@ -302,9 +267,9 @@ public class AIMLProcessor {
      * @return           the result of processing the <srai>
      *
      */
-    private static String srai(Node node, ParseState ps) {
-        sraiCount++;
-        if (sraiCount > MagicNumbers.max_recursion) {
+    private static String srai(TemplateNode node, ParseState ps) {
+        ps.context.sraiCount++;
+        if (ps.context.sraiCount > MagicNumbers.max_recursion) {
             return MagicStrings.too_much_recursion;
         }
         String response = MagicStrings.default_bot_response;
@@ -315,13 +280,14 @@ public class AIMLProcessor {
             result = ps.chatSession.bot.preProcessor.normalize(result);
             String topic = ps.chatSession.predicates.get("topic");     // the that stays the same, but the topic may have changed
             if (MagicBooleans.trace_mode) {
-                System.out.println(trace_count+". <srai>"+result+"</srai> from "+ps.leaf.category.inputThatTopic()+" topic="+topic+") ");
-                trace_count++;
+                System.out.println(ps.context.traceCount+". <srai>"+result+"</srai> from "+ps.category.inputThatTopic()+" topic="+topic+") ");
+                ps.context.traceCount++;
             }
-            Nodemapper leaf = ps.chatSession.bot.brain.match(result, ps.that, topic);
-            if (leaf == null) {return(response);}
-            //System.out.println("Srai returned "+leaf.category.inputThatTopic()+":"+leaf.category.getTemplate());
-            response = evalTemplate(leaf.category.getTemplate(), new ParseState(ps.depth+1, ps.chatSession, ps.input, ps.that, topic, leaf));
+            MatchResult match = ps.context.brain.match(result, ps.that, topic);
+            ps.context.traceMatch(match);
+            if (match == null) {return(response);}
+            //System.out.println("Srai returned "+match.category.inputThatTopic()+":"+match.category.getTemplate());
+            response = evalTemplate(match.category, new ParseState(ps.depth+1, ps.chatSession, ps.context, ps.input, ps.that, topic, match));
             //System.out.println("That="+that);
         } catch (Exception ex) {
             ex.printStackTrace();
@@ -341,15 +307,14 @@ public class AIMLProcessor {
      * @return             the attribute value.
      */
     // value can be specified by either attribute or tag
-    private static String getAttributeOrTagValue (Node node, ParseState ps, String attributeName) {        // AIML 2.0
+    private static String getAttributeOrTagValue (TemplateNode node, ParseState ps, String attributeName) {        // AIML 2.0
         //System.out.println("getAttributeOrTagValue "+attributeName);
         String result = "";
-        Node m = node.getAttributes().getNamedItem(attributeName);
+        String m = node.getAttribute(attributeName);
         if (m == null) {
-            NodeList childList = node.getChildNodes();
             result = null;         // no attribute or tag named attributeName
-            for (int i = 0; i < childList.getLength(); i++)   {
-                Node child = childList.item(i);
+            for (int i = 0; i < node.getChildCount(); i++)   {
+                TemplateNode child = node.getChild(i);
                 //System.out.println("getAttributeOrTagValue child = "+child.getNodeName());
                 if (child.getNodeName().equals(attributeName)) {
                     result = evalTagContent(child, ps, null);
@@ -358,7 +323,7 @@ public class AIMLProcessor {
             }
         }
         else {
-            result = m.getNodeValue();
+            result = m;
         }
         //System.out.println("getAttributeOrTagValue "+attributeName+" = "+result);
         return result;
@@ -373,7 +338,7 @@ public class AIMLProcessor {
      * @param ps     AIML parse state
      * @return       response from remote service or string indicating failure.
      */
-    private static String sraix(Node node, ParseState ps) {
+    private static String sraix(TemplateNode node, ParseState ps) {
         HashSet<String> attributeNames = Utilities.stringSet("botid", "host");
         String host = getAttributeOrTagValue(node, ps, "host");
         String botid = getAttributeOrTagValue(node, ps, "botid");
@@ -394,7 +359,7 @@ public class AIMLProcessor {
      * @param ps         current AIML parse state
      * @return           the map result or a string indicating the key was not found
      */
-    private static String map(Node node, ParseState ps) {
+    private static String map(TemplateNode node, ParseState ps) {
         String result = MagicStrings.unknown_map_value;
         HashSet<String> attributeNames = Utilities.stringSet("name");
         String mapName = getAttributeOrTagValue(node, ps, "name");
@@ -418,7 +383,7 @@ public class AIMLProcessor {
      * @param ps       AIML parse state
      * @return         the result of the <set> operation
      */
-    private static String set(Node node, ParseState ps) {                    // add pronoun check
+    private static String set(TemplateNode node, ParseState ps) {                    // add pronoun check
         HashSet<String> attributeNames = Utilities.stringSet("name", "var");
         String predicateName = getAttributeOrTagValue(node, ps, "name");
         String varName = getAttributeOrTagValue(node, ps, "var");
@@ -436,7 +401,7 @@ public class AIMLProcessor {
      * @param ps       AIML parse state
      * @return         the result of the <get> operation
      */
-    private static String get(Node node, ParseState ps) {
+    private static String get(TemplateNode node, ParseState ps) {
         String result = MagicStrings.unknown_predicate_value;
         String predicateName = getAttributeOrTagValue(node, ps, "name");
         String varName = getAttributeOrTagValue(node, ps, "var");
@@ -455,7 +420,7 @@ public class AIMLProcessor {
      * @param ps       AIML parse state
      * @return         the bot property or a string indicating the property was not found.
      */
-    private static String bot(Node node, ParseState ps) {
+    private static String bot(TemplateNode node, ParseState ps) {
         String result = MagicStrings.unknown_property_value;
         //HashSet<String> attributeNames = Utilities.stringSet("name");
         String propertyName = getAttributeOrTagValue(node, ps, "name");
@@ -472,7 +437,7 @@ public class AIMLProcessor {
      * @param ps       AIML parse state
      * @return         the formatted date
      */
-    private static String date(Node node, ParseState ps)  {
+    private static String date(TemplateNode node, ParseState ps)  {
         //HashSet<String> attributeNames = Utilities.stringSet("jformat","format","locale","timezone");
         String jformat = getAttributeOrTagValue(node, ps, "jformat");      // AIML 2.0
         String locale = getAttributeOrTagValue(node, ps, "locale");
@@ -487,7 +452,7 @@ public class AIMLProcessor {
      *    <interval><style>years</style></style><jformat>MMMMMMMMM dd, yyyy</jformat><from>August 2, 1960</from><to><date><jformat>MMMMMMMMM dd, yyyy</jformat></date></to></interval>
      */
 
-    private static String interval(Node node, ParseState ps)  {
+    private static String interval(TemplateNode node, ParseState ps)  {
         HashSet<String> attributeNames = Utilities.stringSet("style","jformat","from","to");
         String style = getAttributeOrTagValue(node, ps, "style");      // AIML 2.0
         String jformat = getAttributeOrTagValue(node, ps, "jformat");      // AIML 2.0
@@ -515,7 +480,7 @@ public class AIMLProcessor {
      * @param ps       AIML parse state
      * @return         the the integer intex value
      */
-    private static int getIndexValue(Node node, ParseState ps) {
+    private static int getIndexValue(TemplateNode node, ParseState ps) {
         int index=0;
         String value = getAttributeOrTagValue(node, ps, "index");
         if (value != null) try {index = Integer.parseInt(value)-1;} catch (Exception ex) {ex.printStackTrace();}
@@ -530,10 +495,10 @@ public class AIMLProcessor {
      * @param ps       AIML parse state
      * @return         the word sequence matching a wildcard
      */
-    private static String inputStar(Node node, ParseState ps) {
+    private static String inputStar(TemplateNode node, ParseState ps) {
         int index=getIndexValue(node, ps);
-        if (ps.leaf.starBindings.inputStars.star(index)==null) return "";
-        else return ps.leaf.starBindings.inputStars.star(index).trim();
+        if (ps.starBindings.inputStars.star(index)==null) return "";
+        else return ps.starBindings.inputStars.star(index).trim();
     }
     /**
      * implements {@code <thatstar index="N"/>}
@@ -543,10 +508,10 @@ public class AIMLProcessor {
      * @param ps       AIML parse state
      * @return         the word sequence matching a wildcard
      */
-    private static String thatStar(Node node, ParseState ps) {
+    private static String thatStar(TemplateNode node, ParseState ps) {
         int index=getIndexValue(node, ps);
-        if (ps.leaf.starBindings.thatStars.star(index)==null) return "";
-        else return ps.leaf.starBindings.thatStars.star(index).trim();
+        if (ps.starBindings.thatStars.star(index)==null) return "";
+        else return ps.starBindings.thatStars.star(index).trim();
     }
     /**
      * implements <topicstar/> and <topicstar index="N"/>
@@ -556,10 +521,10 @@ public class AIMLProcessor {
      * @param ps       AIML parse state
      * @return         the word sequence matching a wildcard
      */
-    private static String topicStar(Node node, ParseState ps) {
+    private static String topicStar(TemplateNode node, ParseState ps) {
         int index=getIndexValue(node, ps);
-        if (ps.leaf.starBindings.topicStars.star(index)==null) return "";
-        else return ps.leaf.starBindings.topicStars.star(index).trim();
+        if (ps.starBindings.topicStars.star(index)==null) return "";
+        else return ps.starBindings.topicStars.star(index).trim();
     }
 
     /**
@@ -572,7 +537,7 @@ public class AIMLProcessor {
      * @return         client ID
      */
 
-    private static String id(Node node, ParseState ps) {
+    private static String id(TemplateNode node, ParseState ps) {
         return ps.chatSession.customerId;
     }
     /**
@@ -584,8 +549,8 @@ public class AIMLProcessor {
      * @param ps       AIML parse state
      * @return         bot brain size
      */
-    private static String size(Node node, ParseState ps) {
-        int size = ps.chatSession.bot.brain.getCategories().size();
+    private static String size(TemplateNode node, ParseState ps) {
+        int size = ps.context.brain.categoryCnt;
         return String.valueOf(size);
     }
     /**
@@ -597,8 +562,8 @@ public class AIMLProcessor {
      * @param ps       AIML parse state
      * @return         bot vocabulary size
      */
-    private static String vocabulary(Node node, ParseState ps) {
-        int size = ps.chatSession.bot.brain.getVocabulary().size();
+    private static String vocabulary(TemplateNode node, ParseState ps) {
+        int size = ps.context.brain.vocabularyCnt;
         return String.valueOf(size);
     }
     /**
@@ -610,7 +575,7 @@ public class AIMLProcessor {
      * @param ps       AIML parse state
      * @return         AIML program name and version.
      */
-    private static String program(Node node, ParseState ps) {
+    private static String program(TemplateNode node, ParseState ps) {
         return MagicStrings.programNameVersion;
     }
 
@@ -622,7 +587,7 @@ public class AIMLProcessor {
      * @param ps       AIML parse state
      * @return         the nth last sentence of the bot's mth last reply.
      */
-    private static String that(Node node, ParseState ps) {
+    private static String that(TemplateNode node, ParseState ps) {
         int index=0;
         int jndex=0;
         String value = getAttributeOrTagValue(node, ps, "index");
@@ -634,10 +599,7 @@ public class AIMLProcessor {
                 jndex = Integer.parseInt(spair[1])-1;
                 System.out.println("That index="+index+","+jndex);
             } catch (Exception ex) { ex.printStackTrace(); }
-        String that = MagicStrings.unknown_history_item;
-        History hist = ps.chatSession.thatHistory.get(index);
-        if (hist != null) that = (String)hist.get(jndex);
-        return that.trim();
+        return ps.chatSession.thatHistory.getString(index, jndex).trim();
     }
 
     /**
@@ -648,7 +610,7 @@ public class AIMLProcessor {
      * @return         the nth last sentence input to the bot
      */
 
-    private static String input(Node node, ParseState ps) {
+    private static String input(TemplateNode node, ParseState ps) {
         int index=getIndexValue(node, ps);
         return ps.chatSession.inputHistory.getString(index);
     }
@@ -659,7 +621,7 @@ public class AIMLProcessor {
      * @param ps       AIML parse state
      * @return         the nth last multi-sentence request to the bot.
      */
-    private static String request(Node node, ParseState ps) {             // AIML 2.0
+    private static String request(TemplateNode node, ParseState ps) {             // AIML 2.0
         int index=getIndexValue(node, ps);
         return ps.chatSession.requestHistory.getString(index).trim();
     }
@@ -670,7 +632,7 @@ public class AIMLProcessor {
      * @param ps       AIML parse state
      * @return         the bot's Nth last multi-sentence response.
      */
-    private static String response(Node node, ParseState ps) {            // AIML 2.0
+    private static String response(TemplateNode node, ParseState ps) {            // AIML 2.0
         int index=getIndexValue(node, ps);
         return ps.chatSession.responseHistory.getString(index).trim();
     }
@@ -687,7 +649,7 @@ public class AIMLProcessor {
      * @param ps       AIML parse state
      * @return         the result of executing the system command or a string indicating the command failed.
      */
-    private static String system(Node node, ParseState ps) {
+    private static String system(TemplateNode node, ParseState ps) {
         HashSet<String> attributeNames = Utilities.stringSet("timeout");
         //String stimeout = getAttributeOrTagValue(node, ps, "timeout");
         String evaluatedContents = evalTagContent(node, ps, attributeNames);
@@ -704,7 +666,7 @@ public class AIMLProcessor {
      * @param ps       AIML parse state
      * @return        a blank empty string
      */
-    private static String think(Node node, ParseState ps) {
+    private static String think(TemplateNode node, ParseState ps) {
         evalTagContent(node, ps, null);
         return "";
     }
@@ -718,7 +680,7 @@ public class AIMLProcessor {
      * @param ps       AIML parse state
      * @return         exploded string
      */
-    private static String explode(Node node, ParseState ps) {              // AIML 2.0
+    private static String explode(TemplateNode node, ParseState ps) {              // AIML 2.0
         String result = evalTagContent(node, ps, null);
         return explode(result);
     }
@@ -730,7 +692,7 @@ public class AIMLProcessor {
      * @param ps       AIML parse state
      * @return         normalized string
      */
-    private static String normalize(Node node, ParseState ps) {            // AIML 2.0
+    private static String normalize(TemplateNode node, ParseState ps) {            // AIML 2.0
         String result = evalTagContent(node, ps, null);
         return ps.chatSession.bot.preProcessor.normalize(result);
     }
@@ -742,7 +704,7 @@ public class AIMLProcessor {
      * @param ps       AIML parse state
      * @return         denormalized string
      */
-    private static String denormalize(Node node, ParseState ps) {            // AIML 2.0
+    private static String denormalize(TemplateNode node, ParseState ps) {            // AIML 2.0
         String result = evalTagContent(node, ps, null);
         return ps.chatSession.bot.preProcessor.denormalize(result);
     }
@@ -754,7 +716,7 @@ public class AIMLProcessor {
      * @param ps       AIML parse state
      * @return         uppercase string
      */
-    private static String uppercase(Node node, ParseState ps) {
+    private static String uppercase(TemplateNode node, ParseState ps) {
         String result = evalTagContent(node, ps, null);
         return result.toUpperCase();
     }
@@ -766,7 +728,7 @@ public class AIMLProcessor {
      * @param ps       AIML parse state
      * @return         lowercase string
      */
-    private static String lowercase(Node node, ParseState ps) {
+    private static String lowercase(TemplateNode node, ParseState ps) {
         String result = evalTagContent(node, ps, null);
         return result.toLowerCase();
     }
@@ -778,7 +740,7 @@ public class AIMLProcessor {
      * @param ps       AIML parse state
      * @return         capitalized string
      */
-     private static String formal(Node node, ParseState ps) {
+     private static String formal(TemplateNode node, ParseState ps) {
         String result = evalTagContent(node, ps, null);
         return capitalizeString(result);
     }
@@ -790,7 +752,7 @@ public class AIMLProcessor {
      * @param ps       AIML parse state
      * @return         string with first word capitalized
      */
-    private static String sentence(Node node, ParseState ps) {
+    private static String sentence(TemplateNode node, ParseState ps) {
         String result = evalTagContent(node, ps, null);
         if (result.length() > 1) return result.substring(0, 1).toUpperCase()+result.substring(1, result.length());
         else return "";
@@ -803,11 +765,11 @@ public class AIMLProcessor {
      * @param ps       AIML parse state
      * @return         sentence with pronouns swapped
      */
-    private static String person(Node node, ParseState ps) {
+    private static String person(TemplateNode node, ParseState ps) {
         String result;
         if (node.hasChildNodes())
           result = evalTagContent(node, ps, null);
-        else result = ps.leaf.starBindings.inputStars.star(0);   // for <person/>
+        else result = ps.starBindings.inputStars.star(0);   // for <person/>
         result = " "+result+" ";
         result = ps.chatSession.bot.preProcessor.person(result);
         return result.trim();
@@ -820,11 +782,11 @@ public class AIMLProcessor {
      * @param ps       AIML parse state
      * @return         sentence with pronouns swapped
      */
-    private static String person2(Node node, ParseState ps) {
+    private static String person2(TemplateNode node, ParseState ps) {
         String result;
         if (node.hasChildNodes())
             result = evalTagContent(node, ps, null);
-        else result = ps.leaf.starBindings.inputStars.star(0);   // for <person2/>
+        else result = ps.starBindings.inputStars.star(0);   // for <person2/>
         result = " "+result+" ";
         result = ps.chatSession.bot.preProcessor.person2(result);
         return result.trim();
@@ -837,7 +799,7 @@ public class AIMLProcessor {
      * @param ps       AIML parse state
      * @return         sentence with gender ronouns swapped
      */
-    private static String gender(Node node, ParseState ps) {
+    private static String gender(TemplateNode node, ParseState ps) {
         String result = evalTagContent(node, ps, null);
         result = " "+result+" ";
         result = ps.chatSession.bot.preProcessor.gender(result);
@@ -850,51 +812,48 @@ public class AIMLProcessor {
      * @param ps       AIML parse state
      * @return         response randomly selected from the list
      */
-    private static String random(Node node, ParseState ps) {
-        NodeList childList = node.getChildNodes();
-        ArrayList<Node> liList = new ArrayList<Node>();
-        for (int i = 0; i < childList.getLength(); i++)
-            if (childList.item(i).getNodeName().equals("li")) liList.add(childList.item(i));
+    private static String random(TemplateNode node, ParseState ps) {
+        ArrayList<TemplateNode> liList = new ArrayList<TemplateNode>();
+        for (int i = 0; i < node.getChildCount(); i++)
+            if (node.getChild(i).getNodeName().equals("li")) liList.add(node.getChild(i));
         return evalTagContent(liList.get((int) (Math.random() * liList.size())), ps, null);
     }
-    private static String unevaluatedAIML(Node node, ParseState ps) {
+    private static String unevaluatedAIML(TemplateNode node, ParseState ps) {
         String result = learnEvalTagContent(node, ps);
         return unevaluatedXML(result, node, ps);
     }
 
-    private static String recursLearn(Node node, ParseState ps) {
+    private static String recursLearn(TemplateNode node, ParseState ps) {
         String nodeName = node.getNodeName();
         if (nodeName.equals("#text")) return node.getNodeValue();
         else if (nodeName.equals("eval")) return evalTagContent(node, ps, null);                // AIML 2.0
         else return unevaluatedAIML(node, ps);
     }
-    private static String learnEvalTagContent(Node node, ParseState ps) {
+    private static String learnEvalTagContent(TemplateNode node, ParseState ps) {
         String result = "";
-        NodeList childList = node.getChildNodes();
-        for (int i = 0; i < childList.getLength(); i++) {
-            Node child = childList.item(i);
+        for (int i = 0; i < node.getChildCount(); i++) {
+            TemplateNode child = node.getChild(i);
             result += recursLearn(child, ps);
         }
         return result;
     }
 
-    private static String learn(Node node, ParseState ps)   {                 // learn, learnf AIML 2.0
-        NodeList childList = node.getChildNodes();
+    private static String learn(TemplateNode node, ParseState ps)   {                 // learn, learnf AIML 2.0
         String pattern = "";
         String that="*";
         String template = "";
-        for (int i = 0; i < childList.getLength(); i++) {
-            if (childList.item(i).getNodeName().equals("category")) {
-                NodeList grandChildList = childList.item(i).getChildNodes();
-                for (int j = 0; j < grandChildList.getLength(); j++)  {
-                    if (grandChildList.item(j).getNodeName().equals("pattern")) {
-                        pattern = recursLearn(grandChildList.item(j), ps);
+        for (int i = 0; i < node.getChildCount(); i++) {
+            if (node.getChild(i).getNodeName().equals("category")) {
+                TemplateNode categoryNode = node.getChild(i);
+                for (int j = 0; j < categoryNode.getChildCount(); j++)  {
+                    if (categoryNode.getChild(j).getNodeName().equals("pattern")) {
+                        pattern = recursLearn(categoryNode.getChild(j), ps);
                     }
-                    else if (grandChildList.item(j).getNodeName().equals("that")) {
-                        that = recursLearn(grandChildList.item(j), ps);
+                    else if (categoryNode.getChild(j).getNodeName().equals("that")) {
+                        that = recursLearn(categoryNode.getChild(j), ps);
                     }
-                    else if (grandChildList.item(j).getNodeName().equals("template")) {
-                        template = recursLearn(grandChildList.item(j), ps);
+                    else if (categoryNode.getChild(j).getNodeName().equals("template")) {
+                        template = recursLearn(categoryNode.getChild(j), ps);
                     }
                 }
                 pattern = pattern.substring("<pattern>".length(),pattern.length()-"</pattern>".length());
@@ -915,9 +874,10 @@ public class AIMLProcessor {
                     c = new Category(0, pattern, that, "*", template, MagicStrings.learnf_aiml_file);
                     //ps.chatSession.bot.learnfCategories.add(c);
                     ps.chatSession.bot.learnfGraph.addCategory(c);
+                    ps.chatSession.bot.learnfJournal.append(c);
                     //ps.chatSession.bot.categories.add(c);
                 }
-                ps.chatSession.bot.brain.addCategory(c);
+                ps.chatSession.bot.addToBrain(c);
                   //ps.chatSession.bot.brain.printgraph();
             }
         }
@@ -932,7 +892,7 @@ public class AIMLProcessor {
      * @param ps       AIML parse state
      * @return         result of conditional expression
      */
-    private static String loopCondition(Node node, ParseState ps) {
+    private static String loopCondition(TemplateNode node, ParseState ps) {
         boolean loop = true;
         String result="";
         int loopCnt = 0;
@@ -958,19 +918,18 @@ public class AIMLProcessor {
      * @param ps       AIML parse state
      * @return         result of conditional expression
      */
-    private static String condition(Node node, ParseState ps) {
+    private static String condition(TemplateNode node, ParseState ps) {
         String result="";
         //boolean loop = true;
-        NodeList childList = node.getChildNodes();
-        ArrayList<Node> liList = new ArrayList<Node>();
+        ArrayList<TemplateNode> liList = new ArrayList<TemplateNode>();
         String predicate=null, varName=null, value=null; //Node p=null, v=null;
         HashSet<String> attributeNames = Utilities.stringSet("name", "var", "value");
         // First check if the <condition> has an attribute "name".  If so, get the predicate name.
         predicate = getAttributeOrTagValue(node, ps, "name");
         varName = getAttributeOrTagValue(node, ps, "var");
         // Make a list of all the <li> child nodes:
-        for (int i = 0; i < childList.getLength(); i++)
-            if (childList.item(i).getNodeName().equals("li")) liList.add(childList.item(i));
+        for (int i = 0; i < node.getChildCount(); i++)
+            if (node.getChild(i).getNodeName().equals("li")) liList.add(node.getChild(i));
         // if there are no <li> nodes, this is a one-shot condition.
         if (liList.size() == 0 && (value = getAttributeOrTagValue(node, ps, "value")) != null   &&
                    predicate != null  &&
@@ -984,7 +943,7 @@ public class AIMLProcessor {
         }
         // otherwise this is a <condition> with <li> items:
         else for (int i = 0; i < liList.size() && result.equals(""); i++) {
-            Node n = liList.get(i);
+            TemplateNode n = liList.get(i);
             String liPredicate = predicate;
             String liVarName = varName;
             if (liPredicate == null) liPredicate = getAttributeOrTagValue(n, ps, "name");
@@ -1013,10 +972,9 @@ public class AIMLProcessor {
      * @param node     current XML parse node
      * @return         true or false
      */
-    public static boolean evalTagForLoop(Node node) {
-        NodeList childList = node.getChildNodes();
-        for (int i = 0; i < childList.getLength(); i++)
-            if (childList.item(i).getNodeName().equals("loop")) return true;
+    public static boolean evalTagForLoop(TemplateNode node) {
+        for (int i = 0; i < node.getChildCount(); i++)
+            if (node.getChild(i).getNodeName().equals("loop")) return true;
         return false;
     }
 
@@ -1028,7 +986,7 @@ public class AIMLProcessor {
      */
 
 
-    private static String recursEval(Node node, ParseState ps) {
+    private static String recursEval(TemplateNode node, ParseState ps) {
         try {
         String nodeName = node.getNodeName();
         if (nodeName.equals("#text")) return node.getNodeValue();
@@ -1045,7 +1003,7 @@ public class AIMLProcessor {
         else if (nodeName.equals("srai"))
             return srai(node, ps);
         else if (nodeName.equals("sr"))
-              return respond(ps.leaf.starBindings.inputStars.star(0), ps.that, ps.topic, ps.chatSession, sraiCount);
+              return respond(ps.starBindings.inputStars.star(0), ps.that, ps.topic, ps.chatSession, ps.context);
         else if (nodeName.equals("sraix"))
             return sraix(node, ps);
         else if (nodeName.equals("set"))
@@ -1119,17 +1077,17 @@ public class AIMLProcessor {
     }
 
     /**
-     * evaluate an AIML template expression
+     * evaluate the template of a matched category.
+     * The template is compiled on first use and the compiled tree is cached on the category.
      *
-     * @param template      AIML template contents
+     * @param category      matched AIML category
      * @param ps            AIML Parse state
      * @return              result of evaluating template.
      */
-    private static String evalTemplate(String template, ParseState ps) {
+    private static String evalTemplate(Category category, ParseState ps) {
         String response = MagicStrings.template_failed;
         try {
-            template = "<template>"+template+"</template>";
-            Node root = DomUtils.parseString(template);
+            TemplateNode root = category.getCompiledTemplate();
             response = recursEval(root, ps);
         } catch (Exception e) {
             e.printStackTrace();
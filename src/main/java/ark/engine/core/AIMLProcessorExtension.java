@@ -19,8 +19,6 @@ package ark.engine.core;
         Boston, MA  02110-1301, USA.
 */
 
-import org.w3c.dom.Node;
-
 import java.util.Set;
 
 /**
@@ -45,5 +43,5 @@ public interface AIMLProcessorExtension {
      * @param ps                  current parse state
      * @return                    result of evaluating AIML
      */
-   public String recursEval(Node node, ParseState ps);
+   public String recursEval(TemplateNode node, ParseState ps);
 }
@@ -0,0 +1,284 @@
+package ark.engine.core;
+/* Program AB Reference AIML 2.0 implementation
+        Copyright (C) 2013 ALICE A.I. Foundation
+        Contact: info@alicebot.org
+
+        This library is free software; you can redistribute it and/or
+        modify it under the terms of the GNU Library General Public
+        License as published by the Free Software Foundation; either
+        version 2 of the License, or (at your option) any later version.
+
+        This library is distributed in the hope that it will be useful,
+        but WITHOUT ANY WARRANTY; without even the implied warranty of
+        MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+        Library General Public License for more details.
+
+        You should have received a copy of the GNU Library General Public
+        License along with this library; if not, write to the
+        Free Software Foundation, Inc., 51 Franklin St, Fifth Floor,
+        Boston, MA  02110-1301, USA.
+*/
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * Streaming AIML file reader.
+ *
+ * Categories are read with a StAX pull parser, one at a time, so a file is never held in memory
+ * as a whole.  The pattern, that, topic and template elements are written back to text exactly as
+ * the DOM loader did with DomUtils.nodeToString: attributes sorted by name, elements without
+ * children closed with "/&gt;", and the serializer's character escapes and line separator.
+ */
+class AIMLReader {
+    private static final String lineSeparator = System.getProperty("line.separator");
+
+    /**
+     * read all categories from an AIML file
+     *
+     * @param path        path of the AIML file
+     * @param aimlFile    AIML file name recorded in each category
+     * @return            list of categories
+     * @throws Exception  if the file cannot be read or is not well formed
+     */
+    static ArrayList<Category> readCategories(String path, String aimlFile) throws Exception {
+        ArrayList<Category> categories = new ArrayList<Category>();
+        InputStream in = new BufferedInputStream(new FileInputStream(path));
+        XMLStreamReader reader = null;
+        try {
+            reader = newFactory().createXMLStreamReader(new File(path).toURI().toString(), in);
+            while (reader.next() != XMLStreamConstants.START_ELEMENT);     // <aiml> tag
+            String language = MagicStrings.default_language;
+            for (int i = 0; i < reader.getAttributeCount(); i++) {
+                if (attributeName(reader, i).equals("language")) language = reader.getAttributeValue(i);
+            }
+            int event;
+            while ((event = reader.next()) != XMLStreamConstants.END_ELEMENT) {
+                if (event != XMLStreamConstants.START_ELEMENT) continue;
+                String name = elementName(reader);
+                //System.out.println("AIML child: "+name);
+                if (name.equals("category")) {
+                    readCategory(reader, "*", aimlFile, language, categories);
+                }
+                else if (name.equals("topic")) {
+                    String topic = null;
+                    for (int i = 0; i < reader.getAttributeCount(); i++) {
+                        if (attributeName(reader, i).equals("name")) topic = reader.getAttributeValue(i);
+                    }
+                    if (topic == null) throw new XMLStreamException("topic without name in "+aimlFile, reader.getLocation());
+                    while ((event = reader.next()) != XMLStreamConstants.END_ELEMENT) {
+                        if (event != XMLStreamConstants.START_ELEMENT) continue;
+                        //System.out.println("Topic child: "+elementName(reader));
+                        if (elementName(reader).equals("category")) readCategory(reader, topic, aimlFile, language, categories);
+                        else skipElement(reader);
+                    }
+                }
+                else skipElement(reader);
+            }
+        } finally {
+            if (reader != null) reader.close();
+            in.close();
+        }
+        return categories;
+    }
+
+    /**
+     * a factory configured like the DOM parser: no namespace processing, and CDATA sections reported as such
+     */
+    private static XMLInputFactory newFactory() {
+        XMLInputFactory factory = XMLInputFactory.newInstance();
+        factory.setProperty(XMLInputFactory.IS_NAMESPACE_AWARE, Boolean.FALSE);
+        factory.setProperty(XMLInputFactory.IS_COALESCING, Boolean.FALSE);
+        try {
+            factory.setProperty("http://java.sun.com/xml/stream/properties/report-cdata-event", Boolean.TRUE);
+        } catch (IllegalArgumentException ex) {
+            // CDATA sections are read as text
+        }
+        return factory;
+    }
+
+    /**
+     * read one category element.  The reader is left on the category's end tag.
+     *
+     * @param reader        reader positioned on the category start tag
+     * @param topic         value of topic in case this category is wrapped in a topic tag
+     * @param aimlFile      name of AIML file being parsed
+     * @param language      language attribute of the aiml tag
+     * @param categories    list of categories found so far
+     */
+    private static void readCategory(XMLStreamReader reader, String topic, String aimlFile, String language, ArrayList<Category> categories) throws XMLStreamException {
+        String pattern = "*", that = "*", template = "";
+        int event;
+        while ((event = reader.next()) != XMLStreamConstants.END_ELEMENT) {
+            if (event == XMLStreamConstants.START_ELEMENT) {
+                String mName = elementName(reader);
+                String xml = elementToString(reader);
+                if (mName.equals("pattern")) pattern = xml;
+                else if (mName.equals("that")) that = xml;
+                else if (mName.equals("topic")) topic = xml;
+                else if (mName.equals("template")) template = xml;
+                else System.out.println("categoryProcessor: unexpected "+mName);
+            }
+            else if (event == XMLStreamConstants.CDATA) System.out.println("categoryProcessor: unexpected #cdata-section");
+            else if (event == XMLStreamConstants.COMMENT) System.out.println("categoryProcessor: unexpected #comment");
+            else if (event == XMLStreamConstants.PROCESSING_INSTRUCTION) System.out.println("categoryProcessor: unexpected "+reader.getPITarget());
+        }
+        AIMLProcessor.categoryProcessor(pattern, that, topic, template, categories, aimlFile, language);
+    }
+
+    /**
+     * write an element and its content back to XML text.  The reader is left on the element's end tag.
+     *
+     * @param reader     reader positioned on a start tag
+     * @return           XML string
+     */
+    static String elementToString(XMLStreamReader reader) throws XMLStreamException {
+        StringBuilder sb = new StringBuilder();
+        boolean startTagOpen = false;
+        int depth = 0;
+        int event = reader.getEventType();
+        while (true) {
+            if (startTagOpen && event != XMLStreamConstants.END_ELEMENT && !(isText(event) && reader.getTextLength() == 0)) {
+                sb.append('>');
+                startTagOpen = false;
+            }
+            switch (event) {
+                case XMLStreamConstants.START_ELEMENT:
+                    sb.append('<').append(elementName(reader));
+                    appendAttributes(reader, sb);
+                    startTagOpen = true;
+                    depth++;
+                    break;
+                case XMLStreamConstants.END_ELEMENT:
+                    if (startTagOpen) sb.append("/>");
+                    else sb.append("</").append(elementName(reader)).append('>');
+                    startTagOpen = false;
+                    depth--;
+                    break;
+                case XMLStreamConstants.CHARACTERS:
+                case XMLStreamConstants.SPACE:
+                    appendEscaped(sb, reader.getTextCharacters(), reader.getTextStart(), reader.getTextLength(), false);
+                    break;
+                case XMLStreamConstants.CDATA:
+                    sb.append("<![CDATA[").append(reader.getText()).append("]]>");
+                    break;
+                case XMLStreamConstants.COMMENT:
+                    sb.append("<!--").append(reader.getText()).append("-->");
+                    break;
+                case XMLStreamConstants.PROCESSING_INSTRUCTION:
+                    String data = reader.getPIData();
+                    sb.append("<?").append(reader.getPITarget());
+                    if (data != null && data.length() > 0) sb.append(' ').append(data);
+                    sb.append("?>");
+                    break;
+                default:
+                    break;
+            }
+            if (depth == 0) return sb.toString();
+            event = reader.next();
+        }
+    }
+
+    private static boolean isText(int event) {
+        return event == XMLStreamConstants.CHARACTERS || event == XMLStreamConstants.SPACE;
+    }
+
+    /**
+     * skip an element and its content.  The reader is left on the element's end tag.
+     *
+     * @param reader     reader positioned on a start tag
+     */
+    private static void skipElement(XMLStreamReader reader) throws XMLStreamException {
+        int depth = 1;
+        while (depth > 0) {
+            int event = reader.next();
+            if (event == XMLStreamConstants.START_ELEMENT) depth++;
+            else if (event == XMLStreamConstants.END_ELEMENT) depth--;
+        }
+    }
+
+    private static String elementName(XMLStreamReader reader) {
+        String prefix = reader.getPrefix();
+        if (prefix == null || prefix.length() == 0) return reader.getLocalName();
+        else return prefix+":"+reader.getLocalName();
+    }
+
+    private static String attributeName(XMLStreamReader reader, int i) {
+        String prefix = reader.getAttributePrefix(i);
+        if (prefix == null || prefix.length() == 0) return reader.getAttributeLocalName(i);
+        else return prefix+":"+reader.getAttributeLocalName(i);
+    }
+
+    /**
+     * append the attributes of the current start tag, in the name order a DOM attribute map keeps them in
+     */
+    private static void appendAttributes(XMLStreamReader reader, StringBuilder sb) {
+        int count = reader.getAttributeCount();
+        if (count == 0) return;
+        String[] names = new String[count];
+        Integer[] order = new Integer[count];
+        for (int i = 0; i < count; i++) {
+            names[i] = attributeName(reader, i);
+            order[i] = i;
+        }
+        final String[] keys = names;
+        Arrays.sort(order, new java.util.Comparator<Integer>() {
+            public int compare(Integer a, Integer b) {
+                return keys[a].compareTo(keys[b]);
+            }
+        });
+        for (int i : order) {
+            String value = reader.getAttributeValue(i);
+            sb.append(' ').append(names[i]).append("=\"");
+            appendEscaped(sb, value.toCharArray(), 0, value.length(), true);
+            sb.append('"');
+        }
+    }
+
+    /**
+     * append text with the escapes the XML serializer uses
+     *
+     * @param sb          output
+     * @param ch          characters
+     * @param start       first character
+     * @param length      number of characters
+     * @param attribute   true for an attribute value, false for element content
+     */
+    private static void appendEscaped(StringBuilder sb, char[] ch, int start, int length, boolean attribute) {
+        for (int i = start; i < start + length; i++) {
+            char c = ch[i];
+            switch (c) {
+                case '&': sb.append("&amp;"); break;
+                case '<': sb.append("&lt;"); break;
+                case '>': sb.append("&gt;"); break;
+                case '"':
+                    if (attribute) sb.append("&quot;");
+                    else sb.append(c);
+                    break;
+                case '\n':
+                    if (attribute) sb.append("&#10;");
+                    else sb.append(lineSeparator);
+                    break;
+                case '\r': sb.append("&#13;"); break;
+                case '\t':
+                    if (attribute) sb.append("&#9;");
+                    else sb.append(c);
+                    break;
+                default:
+                    if (c < 0x20 || (c >= 0x7F && c <= 0x9F)) sb.append("&#").append((int)c).append(';');
+                    else if (Character.isHighSurrogate(c) && i + 1 < start + length && Character.isLowSurrogate(ch[i+1])) {
+                        sb.append("&#").append(Character.toCodePoint(c, ch[i+1])).append(';');
+                        i++;
+                    }
+                    else sb.append(c);
+            }
+        }
+    }
+}
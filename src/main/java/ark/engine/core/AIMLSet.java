@@ -20,6 +20,9 @@ package ark.engine.core;
 */
 
 import java.io.*;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
@@ -33,6 +36,35 @@ public class AIMLSet extends HashSet<String> {
     String host; // for external sets
     String botid; // for external sets
     boolean isExternal = false;
+    private volatile TokenNode tokens = null;   // members as a trie of words, built on first use, dropped on change
+    private static final int[] noLengths = new int[0];
+
+    /**
+     * node of the word trie of a set.  member is true if the words on the path to
+     * this node, joined by spaces, are a member of the set.
+     */
+    static final class TokenNode {
+        private HashMap<String, TokenNode> next = null;
+        boolean member = false;
+
+        /**
+         * @param word     the next word of a phrase
+         * @return         the node after word, or null if no member continues with word
+         */
+        TokenNode next(String word) {
+            return next == null ? null : next.get(word);
+        }
+
+        private TokenNode add(String word) {
+            if (next == null) next = new HashMap<String, TokenNode>(4);
+            TokenNode node = next.get(word);
+            if (node == null) {
+                node = new TokenNode();
+                next.put(word, node);
+            }
+            return node;
+        }
+    }
 
 
     /**
@@ -51,7 +83,7 @@ public class AIMLSet extends HashSet<String> {
             String[] split = s.split(" ");
             if (split.length > maxLength) return false;
             String query = MagicStrings.set_member_string+setName.toUpperCase()+" "+s;
-            String response = Sraix.sraix(null, query, "false", null, host, botid, null, "0");
+            String response = ExternalLookupCache.shared.lookup(host, botid, query, "false");
             System.out.println("External "+setName+" contains "+s+"? "+response);
             if (response.equals("true")) return true;
             else return false;
@@ -64,6 +96,89 @@ public class AIMLSet extends HashSet<String> {
         }
         else return super.contains(s);
     }
+
+    /**
+     * true if membership can be decided by words(), i.e. the set is neither
+     * an external set nor the natural number set.
+     */
+    boolean hasTokens() {
+        return !(isExternal && MagicBooleans.enable_external_sets) && !setName.equals(MagicStrings.natural_number_set_name);
+    }
+
+    /**
+     * the members as a trie of words, so a phrase can be matched one word at a time
+     * and the search stops as soon as no member starts with the words seen so far.
+     *
+     * @return    root of the trie
+     */
+    TokenNode words() {
+        TokenNode root = tokens;
+        if (root != null) return root;
+        synchronized (this) {
+            if (tokens == null) {
+                root = new TokenNode();
+                for (String member : this) {
+                    TokenNode node = root;
+                    for (String word : member.split(" ")) node = node.add(word);
+                    node.member = true;
+                }
+                tokens = root;
+            }
+            return tokens;
+        }
+    }
+
+    /**
+     * find all members that are a phrase of words starting at words[start], in one walk of the trie.
+     *
+     * @param words     upper case words
+     * @param start     index of the first word of the phrase
+     * @param end       index after the last word a phrase may use
+     * @return          the number of words of each member found, shortest first, at most maxLength
+     */
+    int[] memberLengths(String[] words, int start, int end) {
+        TokenNode node = words();
+        int[] lengths = noLengths;
+        int found = 0;
+        for (int k = start; k < end && k - start < maxLength; k++) {
+            node = node.next(words[k]);
+            if (node == null) break;
+            if (node.member) {
+                if (found == lengths.length) lengths = Arrays.copyOf(lengths, Math.max(4, found*2));
+                lengths[found++] = k - start + 1;
+            }
+        }
+        return found == lengths.length ? lengths : Arrays.copyOf(lengths, found);
+    }
+
+    public boolean add(String s) {
+        boolean added = super.add(s);
+        tokens = null;
+        return added;
+    }
+
+    public boolean remove(Object o) {
+        boolean removed = super.remove(o);
+        tokens = null;
+        return removed;
+    }
+
+    public boolean removeAll(Collection<?> c) {
+        boolean removed = super.removeAll(c);
+        tokens = null;
+        return removed;
+    }
+
+    public boolean retainAll(Collection<?> c) {
+        boolean removed = super.retainAll(c);
+        tokens = null;
+        return removed;
+    }
+
+    public void clear() {
+        super.clear();
+        tokens = null;
+    }
     public  void writeAIMLSet () {
         System.out.println("Writing AIML Set "+setName);
         try{
@@ -0,0 +1,227 @@
+package ark.engine.core;
+/* Program AB Reference AIML 2.0 implementation
+        Copyright (C) 2013 ALICE A.I. Foundation
+        Contact: info@alicebot.org
+
+        This library is free software; you can redistribute it and/or
+        modify it under the terms of the GNU Library General Public
+        License as published by the Free Software Foundation; either
+        version 2 of the License, or (at your option) any later version.
+
+        This library is distributed in the hope that it will be useful,
+        but WITHOUT ANY WARRANTY; without even the implied warranty of
+        MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+        Library General Public License for more details.
+
+        You should have received a copy of the GNU Library General Public
+        License along with this library; if not, write to the
+        Free Software Foundation, Inc., 51 Franklin St, Fifth Floor,
+        Boston, MA  02110-1301, USA.
+*/
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Reloads AIML files, sets and maps while the bot is running.
+ *
+ * A background thread watches the bot's aiml, sets and maps directories.  Once the
+ * directories have been quiet for MagicNumbers.reload_settle_ms, the changed files are
+ * reloaded: a new Graphmaster is built from the old brain's categories, minus those of the
+ * changed AIML files, plus the files' new contents, against copies of the sets and maps.  It is
+ * frozen and then swapped into Bot.brain together with the new sets and maps.  Requests already running keep the graph they started with (see RequestContext.brain).
+ *
+ * The files the bot manages itself (deleted, unfinished and learnf) are not reloaded.
+ */
+public class AIMLWatcher {
+    private final Bot bot;
+    private final String aimlPath;
+    private final String setsPath;
+    private final String mapsPath;
+    private Thread watcher = null;
+    private WatchService watchService = null;
+    private final HashMap<WatchKey, String> keyPaths = new HashMap<WatchKey, String>();
+    public volatile int reloadCnt = 0;
+
+    /**
+     * Constructor
+     *
+     * @param bot      the bot whose files are watched
+     */
+    public AIMLWatcher(Bot bot) {
+        this.bot = bot;
+        this.aimlPath = MagicStrings.aiml_path;
+        this.setsPath = MagicStrings.sets_path;
+        this.mapsPath = MagicStrings.maps_path;
+    }
+
+    /**
+     * start watching the bot's directories
+     */
+    public synchronized void start() {
+        if (watcher != null) return;
+        try {
+            watchService = FileSystems.getDefault().newWatchService();
+            for (String path : new String[] {aimlPath, setsPath, mapsPath}) {
+                File dir = new File(path);
+                if (dir.isDirectory()) {
+                    WatchKey key = dir.toPath().register(watchService, StandardWatchEventKinds.ENTRY_CREATE,
+                            StandardWatchEventKinds.ENTRY_MODIFY, StandardWatchEventKinds.ENTRY_DELETE);
+                    keyPaths.put(key, path);
+                }
+            }
+        } catch (IOException ex) {
+            System.out.println("Cannot watch "+MagicStrings.bot_name_path+": "+ex);
+            return;
+        }
+        watcher = new Thread(new Runnable() {
+            public void run() {
+                watchLoop();
+            }
+        }, "aiml-watcher");
+        watcher.setDaemon(true);
+        watcher.start();
+        System.out.println("Watching "+keyPaths.values()+" for changes");
+    }
+
+    /**
+     * stop watching
+     */
+    public synchronized void stop() {
+        if (watcher == null) return;
+        watcher.interrupt();
+        try {
+            watchService.close();
+        } catch (IOException ex) {
+            ex.printStackTrace();
+        }
+        watcher = null;
+        keyPaths.clear();
+    }
+
+    private void watchLoop() {
+        try {
+            while (true) {
+                HashSet<String> aimlFiles = new HashSet<String>();
+                HashSet<String> setFiles = new HashSet<String>();
+                HashSet<String> mapFiles = new HashSet<String>();
+                WatchKey key = watchService.take();
+                do {
+                    collect(key, aimlFiles, setFiles, mapFiles);
+                    key = watchService.poll(MagicNumbers.reload_settle_ms, TimeUnit.MILLISECONDS);
+                } while (key != null);
+                if (aimlFiles.size() + setFiles.size() + mapFiles.size() > 0) {
+                    try {
+                        reload(aimlFiles, setFiles, mapFiles);
+                    } catch (Exception ex) {
+                        ex.printStackTrace();
+                    }
+                }
+            }
+        } catch (InterruptedException ex) {
+            // stopped
+        } catch (ClosedWatchServiceException ex) {
+            // stopped
+        }
+    }
+
+    private void collect(WatchKey key, Set<String> aimlFiles, Set<String> setFiles, Set<String> mapFiles) {
+        String path = keyPaths.get(key);
+        for (WatchEvent<?> event : key.pollEvents()) {
+            if (path == null) continue;
+            ArrayList<String> names = new ArrayList<String>();
+            if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                String[] list = new File(path).list();
+                if (list != null) names.addAll(Arrays.asList(list));
+            }
+            else names.add(event.context().toString());
+            for (String name : names) {
+                if (path.equals(aimlPath)) {
+                    if (isReloadable(name)) aimlFiles.add(name);
+                }
+                else if (name.endsWith(".txt") || name.endsWith(".TXT")) {
+                    if (path.equals(setsPath)) setFiles.add(name);
+                    else mapFiles.add(name);
+                }
+            }
+        }
+        key.reset();
+    }
+
+    private static boolean isReloadable(String file) {
+        return (file.endsWith(".aiml") || file.endsWith(".AIML")) &&
+                !file.contains(MagicStrings.deleted_aiml_file) &&
+                !file.contains(MagicStrings.unfinished_aiml_file) &&
+                !file.contains(MagicStrings.learnf_aiml_file);
+    }
+
+    /**
+     * reload files and swap in a new brain.  A file that no longer exists is removed from the bot.
+     *
+     * @param aimlFiles     changed AIML file names
+     * @param setFiles      changed set file names
+     * @param mapFiles      changed map file names
+     */
+    public synchronized void reload(Set<String> aimlFiles, Set<String> setFiles, Set<String> mapFiles) {
+        Timer timer = new Timer();
+        HashMap<String, AIMLSet> sets = bot.setMap;
+        if (!setFiles.isEmpty()) {
+            sets = new HashMap<String, AIMLSet>(sets);
+            for (String file : setFiles) {
+                String setName = file.substring(0, file.length()-".txt".length());
+                if (new File(setsPath, file).exists()) {
+                    AIMLSet aimlSet = new AIMLSet(setName);
+                    aimlSet.readAIMLSet(bot);
+                    sets.put(setName, aimlSet);
+                }
+                else sets.remove(setName);
+            }
+        }
+        HashMap<String, AIMLMap> maps = bot.mapMap;
+        if (!mapFiles.isEmpty()) {
+            maps = new HashMap<String, AIMLMap>(maps);
+            for (String file : mapFiles) {
+                String mapName = file.substring(0, file.length()-".txt".length());
+                if (new File(mapsPath, file).exists()) {
+                    AIMLMap aimlMap = new AIMLMap(mapName);
+                    aimlMap.readAIMLMap(bot);
+                    maps.put(mapName, aimlMap);
+                }
+                else maps.remove(mapName);
+            }
+        }
+        ArrayList<String> files = new ArrayList<String>(aimlFiles);
+        Collections.sort(files);
+        ArrayList<Category> loaded = new ArrayList<Category>();
+        for (String file : files) {
+            if (new File(aimlPath, file).exists()) {
+                ArrayList<Category> categories = AIMLProcessor.AIMLToCategories(aimlPath, file);
+                if (categories != null) loaded.addAll(categories);
+            }
+        }
+        Graphmaster old = bot.brain;
+        ArrayList<Category> kept = old.getCategories();
+        Collections.sort(kept, Category.CATEGORY_NUMBER_COMPARATOR);
+        Graphmaster fresh = new Graphmaster(bot, sets);
+        for (Category c : kept) if (!aimlFiles.contains(c.getFilename())) fresh.addCategory(c);
+        for (Category c : loaded) fresh.addCategory(c);
+        fresh.freeze();
+        HashSet<Category> seen = new HashSet<Category>(kept);
+        synchronized (old) {
+            // categories learned while the new graph was being built
+            for (Category c : old.getAddedCategories()) if (!seen.contains(c)) fresh.addCategory(c);
+            bot.collectChangedFiles();
+            // requests that started on the old brain keep matching with the old brain's sets
+            bot.setMap = sets;
+            bot.mapMap = maps;
+            bot.brain = fresh;
+        }
+        bot.markAIMLIFDirty(aimlFiles);
+        reloadCnt++;
+        int delta = fresh.categoryCnt - old.categoryCnt;
+        System.out.println("Reloaded "+files.size()+" AIML files, "+setFiles.size()+" sets, "+mapFiles.size()+" maps in "+
+                timer.elapsedTimeMillis()+" ms: "+old.categoryCnt+" -> "+fresh.categoryCnt+" categories ("+(delta >= 0 ? "+" : "")+delta+")");
+    }
+}
@@ -20,24 +20,33 @@ package ark.engine.core;
 */
 import java.io.*;
 import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
 
 /**
  * Class representing the AIML bot
  */
 public class Bot {
+    public final SymbolTable symbols = new SymbolTable();
     public final Properties properties = new Properties();
     public final PreProcessor preProcessor;
-    public final Graphmaster brain;
+    public volatile Graphmaster brain;        // replaced as a whole when AIMLWatcher reloads changed files
     public final Graphmaster inputGraph;
     public final Graphmaster learnfGraph;
+    public final LearnfJournal learnfJournal;
+    public final AIMLWatcher aimlWatcher;
+    public final ChatManager chatManager;
     public final Graphmaster patternGraph;
     public final Graphmaster deletedGraph;
     public Graphmaster unfinishedGraph;
   //  public final ArrayList<Category> categories;
     public ArrayList<Category> suggestedCategories;
     public String name=MagicStrings.unknown_bot_name;
-    public HashMap<String, AIMLSet> setMap = new HashMap<String, AIMLSet>();
-    public HashMap<String, AIMLMap> mapMap = new HashMap<String, AIMLMap>();
+    public volatile HashMap<String, AIMLSet> setMap = new HashMap<String, AIMLSet>();   // copied, not changed, after loading
+    public volatile HashMap<String, AIMLMap> mapMap = new HashMap<String, AIMLMap>();
+    private final HashSet<String> dirtyAIMLIFFiles = new HashSet<String>();   // changed since the AIMLIF files were written
+    private final HashSet<String> dirtyAIMLFiles = new HashSet<String>();     // changed since the AIML files were written
 
     /**
      * Set all directory path variables for this bot
@@ -55,6 +64,7 @@ public class Bot {
         MagicStrings.log_path = MagicStrings.bot_name_path+"/logs";
         MagicStrings.sets_path = MagicStrings.bot_name_path+"/sets";
         MagicStrings.maps_path = MagicStrings.bot_name_path+"/maps";
+        MagicStrings.snapshot_path = MagicStrings.bot_name_path+"/brain.snapshot";
         System.out.println(MagicStrings.root_path);
         System.out.println(MagicStrings.bot_path);
         System.out.println(MagicStrings.bot_name_path);
@@ -104,6 +114,8 @@ public class Bot {
         this.brain = new Graphmaster(this);
         this.inputGraph = new Graphmaster(this);
         this.learnfGraph = new Graphmaster(this);
+        this.learnfJournal = new LearnfJournal(this);
+        this.aimlWatcher = new AIMLWatcher(this);
         this.deletedGraph = new Graphmaster(this);
         this.patternGraph = new Graphmaster(this);
         this.unfinishedGraph = new Graphmaster(this);
@@ -111,8 +123,14 @@ public class Bot {
         this.suggestedCategories = new ArrayList<Category>();
         preProcessor = new PreProcessor(this);
         addProperties();
-        addAIMLSets();
-        addAIMLMaps();
+        chatManager = new ChatManager(this, new MemorySessionStore());
+        boolean snapshot = action.equals("auto");
+        long sourceChecksum = snapshot ? BrainSnapshot.sourceChecksum() : 0;
+        boolean fromSnapshot = snapshot && BrainSnapshot.read(this, sourceChecksum);
+        if (!fromSnapshot) {
+            addAIMLSets();
+            addAIMLMaps();
+        }
         AIMLSet number = new AIMLSet(MagicStrings.natural_number_set_name);
         setMap.put(MagicStrings.natural_number_set_name, number);
         AIMLMap successor = new AIMLMap(MagicStrings.map_successor);
@@ -120,28 +138,54 @@ public class Bot {
         AIMLMap predecessor = new AIMLMap(MagicStrings.map_predecessor);
         mapMap.put(MagicStrings.map_predecessor, predecessor);
         //System.out.println("setMap = "+setMap);
-        Date aimlDate = new Date(new File(MagicStrings.aiml_path).lastModified());
-        Date aimlIFDate = new Date(new File(MagicStrings.aimlif_path).lastModified());
-        System.out.println("AIML modified "+aimlDate+" AIMLIF modified "+aimlIFDate);
-        readDeletedIFCategories();
-        readUnfinishedIFCategories();
         MagicStrings.pannous_api_key = Utilities.getPannousAPIKey();
         MagicStrings.pannous_login = Utilities.getPannousLogin();
-        if (action.equals("aiml2csv")) addCategoriesFromAIML();
-        else if (action.equals("csv2aiml")) addCategoriesFromAIMLIF();
-        else if (aimlDate.after(aimlIFDate)) {
-            System.out.println("AIML modified after AIMLIF");
-            addCategoriesFromAIML();
-            writeAIMLIFFiles();
-        }
-        else {
-            addCategoriesFromAIMLIF();
-            if (brain.getCategories().size()==0) {
-                System.out.println("No AIMLIF Files found.  Looking for AIML");
+        if (!fromSnapshot) {
+            Date aimlDate = new Date(new File(MagicStrings.aiml_path).lastModified());
+            Date aimlIFDate = new Date(new File(MagicStrings.aimlif_path).lastModified());
+            System.out.println("AIML modified "+aimlDate+" AIMLIF modified "+aimlIFDate);
+            boolean wroteAIMLIF = false;
+            readDeletedIFCategories();
+            readUnfinishedIFCategories();
+            if (action.equals("aiml2csv")) addCategoriesFromAIML();
+            else if (action.equals("csv2aiml")) addCategoriesFromAIMLIF();
+            else if (aimlDate.after(aimlIFDate)) {
+                System.out.println("AIML modified after AIMLIF");
                 addCategoriesFromAIML();
+                writeAllAIMLIFFiles();
+                wroteAIMLIF = true;
+            }
+            else {
+                addCategoriesFromAIMLIF();
+                if (brain.categoryCnt==0) {
+                    System.out.println("No AIMLIF Files found.  Looking for AIML");
+                    addCategoriesFromAIML();
+                }
             }
+            brain.freeze();
+            learnfGraph.freeze();
+            patternGraph.freeze();
+            deletedGraph.freeze();
+            unfinishedGraph.freeze();
+            // if the AIMLIF files were just rewritten, the checksum is taken again
+            if (snapshot) BrainSnapshot.write(this, wroteAIMLIF ? BrainSnapshot.sourceChecksum() : sourceChecksum);
         }
-        System.out.println("--> Bot "+name+" "+brain.getCategories().size()+" completed "+deletedGraph.getCategories().size()+" deleted "+unfinishedGraph.getCategories().size()+" unfinished");
+        System.out.println("--> Bot "+name+" "+brain.categoryCnt+" completed "+deletedGraph.categoryCnt+" deleted "+unfinishedGraph.categoryCnt+" unfinished");
+        if (MagicBooleans.enable_hot_reload) aimlWatcher.start();
+    }
+
+    /**
+     * add a category to the running bot's brain.  If AIMLWatcher swaps in a new brain while the
+     * category is being added to the old one, the category is added to the new brain too.
+     *
+     * @param c     the category
+     */
+    public void addToBrain (Category c) {
+        Graphmaster g;
+        do {
+            g = brain;
+            g.addCategory(c);
+        } while (g != brain);
     }
 
     /**
@@ -159,7 +203,7 @@ public class Bot {
         } else if (file.contains(MagicStrings.unfinished_aiml_file)) {
             for (Category c : moreCategories) {
                 //System.out.println("Delete "+c.getPattern());
-                if (brain.findNode(c) == null)
+                if (brain.findCategory(c) == null)
                 unfinishedGraph.addCategory(c);
                 else System.out.println("unfinished "+c.inputThatTopic()+" found in brain");
             }
@@ -184,39 +228,60 @@ public class Bot {
     }
 
     /**
-     * Load all brain categories from AIML directory
+     * Load all brain categories from AIML directory.
+     * The files are parsed in parallel, then added to the graphs one file at a time in directory order,
+     * so category numbers and shadowing are the same as for a sequential load.
      */
     void addCategoriesFromAIML() {
         Timer timer = new Timer();
         timer.start();
         try {
             // Directory path here
-            String file;
             File folder = new File(MagicStrings.aiml_path);
             if (folder.exists()) {
                 File[] listOfFiles = folder.listFiles();
                 System.out.println("Loading AIML files from "+MagicStrings.aiml_path);
+                ArrayList<String> files = new ArrayList<String>();
                 for (File listOfFile : listOfFiles) {
                     if (listOfFile.isFile()) {
-                        file = listOfFile.getName();
-                        if (file.endsWith(".aiml") || file.endsWith(".AIML")) {
-                            System.out.println(file);
-                            try {
-                                ArrayList<Category> moreCategories = AIMLProcessor.AIMLToCategories(MagicStrings.aiml_path, file);
-                                addMoreCategories(file, moreCategories);
-                            } catch (Exception iex) {
-                                System.out.println("Problem loading " + file);
-                                iex.printStackTrace();
-                            }
+                        String file = listOfFile.getName();
+                        if (file.endsWith(".aiml") || file.endsWith(".AIML")) files.add(file);
+                    }
+                }
+                final long[] parseMs = new long[files.size()];
+                ArrayList<ForkJoinTask<ArrayList<Category>>> parses = new ArrayList<ForkJoinTask<ArrayList<Category>>>();
+                ForkJoinPool pool = new ForkJoinPool();
+                for (int i = 0; i < files.size(); i++) {
+                    final int index = i;
+                    final String file = files.get(i);
+                    parses.add(pool.submit(new Callable<ArrayList<Category>>() {
+                        public ArrayList<Category> call() {
+                            Timer parseTimer = new Timer();
+                            ArrayList<Category> categories = AIMLProcessor.AIMLToCategories(MagicStrings.aiml_path, file);
+                            parseMs[index] = parseTimer.elapsedTimeMillis();
+                            return categories;
                         }
+                    }));
+                }
+                for (int i = 0; i < files.size(); i++) {
+                    String file = files.get(i);
+                    try {
+                        ArrayList<Category> moreCategories = parses.get(i).get();
+                        System.out.println(file+" parsed in "+parseMs[i]+" ms");
+                        for (Category c : moreCategories) c.renumber();
+                        addMoreCategories(file, moreCategories);
+                    } catch (Exception iex) {
+                        System.out.println("Problem loading " + file);
+                        iex.printStackTrace();
                     }
                 }
+                pool.shutdown();
             }
             else System.out.println("addCategories: "+MagicStrings.aiml_path+" does not exist.");
         } catch (Exception ex)  {
             ex.printStackTrace();
         }
-        System.out.println("Loaded " + brain.getCategories().size() + " categories in " + timer.elapsedTimeSecs() + " sec");
+        System.out.println("Loaded " + brain.categoryCnt + " categories in " + timer.elapsedTimeSecs() + " sec");
     }
 
     /**
@@ -225,6 +290,7 @@ public class Bot {
     void addCategoriesFromAIMLIF() {
         Timer timer = new Timer();
         timer.start();
+        int readCnt = 0;
         try {
             // Directory path here
             String file;
@@ -239,6 +305,7 @@ public class Bot {
                             //System.out.println(file);
                             try {
                                 ArrayList<Category> moreCategories = readIFCategories(MagicStrings.aimlif_path + "/" + file);
+                                readCnt += moreCategories.size();
                                 addMoreCategories(file, moreCategories);
                              //   MemStats.memStats();
                             } catch (Exception iex) {
@@ -253,7 +320,8 @@ public class Bot {
         } catch (Exception ex)  {
             ex.printStackTrace();
         }
-        System.out.println("Loaded " + brain.getCategories().size() + " categories in " + timer.elapsedTimeSecs() + " sec");
+        float secs = timer.elapsedTimeSecs();
+        System.out.println("Loaded " + brain.categoryCnt + " categories in " + secs + " sec ("+Math.round(readCnt/secs)+" AIMLIF categories/sec)");
     }
 
     /**
@@ -281,10 +349,24 @@ public class Bot {
         }
     }
 
+    /**
+     * stop the bot's background threads, writing out what they hold
+     */
+    public void close() {
+        aimlWatcher.stop();
+        learnfJournal.close();
+        try {
+            chatManager.close();
+        } catch (IOException ex) {
+            System.out.println("Cannot close sessions: "+ex);
+        }
+    }
+
     /**
      * write all AIML and AIMLIF categories
      */
     public void writeQuit() {
+        learnfJournal.compact();
         writeAIMLIFFiles();
         System.out.println("Wrote AIMLIF Files");
         writeAIMLFiles();
@@ -307,7 +389,7 @@ public class Bot {
             try {
                 ArrayList<Category> deletedCategories = readIFCategories(MagicStrings.aimlif_path+"/"+fileName+MagicStrings.aimlif_file_suffix);
                 for (Category d : deletedCategories) graph.addCategory(d);
-                System.out.println("readCertainIFCategories "+graph.getCategories().size()+" categories from "+fileName+MagicStrings.aimlif_file_suffix);
+                System.out.println("readCertainIFCategories "+graph.categoryCnt+" categories from "+fileName+MagicStrings.aimlif_file_suffix);
             } catch (Exception iex) {
                 System.out.println("Problem loading " + fileName);
                 iex.printStackTrace();
@@ -323,7 +405,7 @@ public class Bot {
      * @param file        the destination AIMLIF file
      */
     public void writeCertainIFCategories(Graphmaster graph, String file) {
-        if (MagicBooleans.trace_mode) System.out.println("writeCertainIFCaegories "+file+" size= "+graph.getCategories().size());
+        if (MagicBooleans.trace_mode) System.out.println("writeCertainIFCaegories "+file+" size= "+graph.categoryCnt);
         writeIFCategories(graph.getCategories(), file+MagicStrings.aimlif_file_suffix);
         File dir = new File(MagicStrings.aimlif_path);
         dir.setLastModified(new Date().getTime());
@@ -358,127 +440,150 @@ public class Bot {
      */
     public void writeIFCategories (ArrayList<Category> cats, String filename)  {
         //System.out.println("writeIFCategories "+filename);
-        BufferedWriter bw = null;
         File existsPath = new File(MagicStrings.aimlif_path);
         if (existsPath.exists())
         try {
-            //Construct the bw object
-            bw = new BufferedWriter(new FileWriter(MagicStrings.aimlif_path+"/"+filename)) ;
-            for (Category category : cats) {
-                bw.write(Category.categoryToIF(category));
-                bw.newLine();
-            }
-        } catch (FileNotFoundException ex) {
-            ex.printStackTrace();
+            String newLine = System.getProperty("line.separator");
+            StringBuilder sb = new StringBuilder();
+            for (Category category : cats) sb.append(Category.categoryToIF(category)).append(newLine);
+            Utilities.writeFileAtomically(MagicStrings.aimlif_path+"/"+filename, sb.toString());
         } catch (IOException ex) {
             ex.printStackTrace();
-        } finally {
-            //Close the bw
-            try {
-                if (bw != null) {
-                    bw.flush();
-                    bw.close();
-                }
-            } catch (IOException ex) {
-                ex.printStackTrace();
-            }
         }
     }
 
     /**
-     * Write all AIMLIF files from bot brain
+     * move the files changed in the brain since the last call into the dirty sets
      */
-    public void writeAIMLIFFiles () {
-        System.out.println("writeAIMLIFFiles");
-        HashMap<String, BufferedWriter> fileMap = new HashMap<String, BufferedWriter>();
-        if (deletedGraph.getCategories().size() > 0) writeDeletedIFCategories();
-        ArrayList<Category> brainCategories = brain.getCategories();
-        Collections.sort(brainCategories, Category.CATEGORY_NUMBER_COMPARATOR);
-        for (Category c : brainCategories) {
-            try {
-                BufferedWriter bw;
-                String fileName = c.getFilename();
-                if (fileMap.containsKey(fileName)) bw = fileMap.get(fileName);
-                else {
-                    bw = new BufferedWriter(new FileWriter(MagicStrings.aimlif_path+"/"+fileName+MagicStrings.aimlif_file_suffix));
-                    fileMap.put(fileName, bw);
+    synchronized void collectChangedFiles() {
+        HashSet<String> changed = brain.takeChangedFiles();
+        dirtyAIMLIFFiles.addAll(changed);
+        dirtyAIMLFiles.addAll(changed);
+    }
 
-                }
-                bw.write(Category.categoryToIF(c));
-                bw.newLine();
-            } catch (Exception ex) {
-                ex.printStackTrace();
+    /**
+     * mark AIML files whose AIMLIF copies are out of date, e.g. after a reload from AIML
+     *
+     * @param files     AIML file names
+     */
+    synchronized void markAIMLIFDirty(Set<String> files) {
+        dirtyAIMLIFFiles.addAll(files);
+    }
+
+    private synchronized HashSet<String> takeDirty(HashSet<String> dirty) {
+        HashSet<String> files = new HashSet<String>(dirty);
+        dirty.clear();
+        return files;
+    }
+
+    /**
+     * group the brain's categories by file name, each list sorted by category number
+     *
+     * @param files     the file names to collect, or null for all files
+     * @return  map from file name to categories
+     */
+    HashMap<String, ArrayList<Category>> categoriesByFile(Set<String> files) {
+        HashMap<String, ArrayList<Category>> fileMap = new HashMap<String, ArrayList<Category>>();
+        if (files != null) for (String fileName : files) fileMap.put(fileName, new ArrayList<Category>());
+        for (Category c : brain.getCategories()) {
+            String fileName = c.getFilename();
+            ArrayList<Category> cats = fileMap.get(fileName);
+            if (cats == null) {
+                if (files != null) continue;
+                cats = new ArrayList<Category>();
+                fileMap.put(fileName, cats);
             }
+            cats.add(c);
         }
-        Set set = fileMap.keySet();
-        for (Object aSet : set) {
-            BufferedWriter bw = fileMap.get(aSet);
-            //Close the bw
+        for (ArrayList<Category> cats : fileMap.values()) Collections.sort(cats, Category.CATEGORY_NUMBER_COMPARATOR);
+        return fileMap;
+    }
+
+    /**
+     * Write the AIMLIF files whose categories changed since they were last written
+     */
+    public void writeAIMLIFFiles () {
+        collectChangedFiles();
+        HashSet<String> files = takeDirty(dirtyAIMLIFFiles);
+        if (!deletedGraph.takeChangedFiles().isEmpty()) writeDeletedIFCategories();
+        writeAIMLIFFiles(files);
+    }
+
+    /**
+     * Write all AIMLIF files from bot brain
+     */
+    public void writeAllAIMLIFFiles () {
+        collectChangedFiles();
+        takeDirty(dirtyAIMLIFFiles);
+        if (deletedGraph.categoryCnt > 0) writeDeletedIFCategories();
+        writeAIMLIFFiles(null);
+    }
+
+    private void writeAIMLIFFiles (Set<String> files) {
+        System.out.println("writeAIMLIFFiles "+(files == null ? "all" : files.toString()));
+        if (files != null && files.isEmpty()) return;
+        HashMap<String, ArrayList<Category>> fileMap = categoriesByFile(files);
+        String newLine = System.getProperty("line.separator");
+        for (String fileName : fileMap.keySet()) {
+            StringBuilder sb = new StringBuilder();
+            for (Category c : fileMap.get(fileName)) sb.append(Category.categoryToIF(c)).append(newLine);
             try {
-                if (bw != null) {
-                    bw.flush();
-                    bw.close();
-                }
-            } catch (IOException ex) {
+                Utilities.writeFileAtomically(MagicStrings.aimlif_path+"/"+fileName+MagicStrings.aimlif_file_suffix, sb.toString());
+            } catch (Exception ex) {
                 ex.printStackTrace();
-
             }
-
         }
         File dir = new File(MagicStrings.aimlif_path);
         dir.setLastModified(new Date().getTime());
     }
 
     /**
-     * Write all AIML files.  Adds categories for BUILD and DEVELOPMENT ENVIRONMENT
+     * Write the AIML files whose categories changed since they were last written.
+     * Adds categories for BUILD and DEVELOPMENT ENVIRONMENT
      */
     public void writeAIMLFiles () {
-        HashMap<String, BufferedWriter> fileMap = new HashMap<String, BufferedWriter>();
+        addBuildCategories();
+        collectChangedFiles();
+        writeAIMLFiles(takeDirty(dirtyAIMLFiles));
+    }
+
+    /**
+     * Write all AIML files.  Adds categories for BUILD and DEVELOPMENT ENVIRONMENT
+     */
+    public void writeAllAIMLFiles () {
+        addBuildCategories();
+        collectChangedFiles();
+        takeDirty(dirtyAIMLFiles);
+        writeAIMLFiles(null);
+    }
+
+    private void addBuildCategories () {
         Category b = new Category(0, "BUILD", "*", "*", new Date().toString(), "update.aiml");
-        brain.addCategory(b);
+        addToBrain(b);
         b = new Category(0, "DELEVLOPMENT ENVIRONMENT", "*", "*", MagicStrings.programNameVersion, "update.aiml");
-        brain.addCategory(b);
-        ArrayList<Category> brainCategories = brain.getCategories();
-        Collections.sort(brainCategories, Category.CATEGORY_NUMBER_COMPARATOR);
-        for (Category c : brainCategories) {
+        addToBrain(b);
+    }
 
-            if (!c.getFilename().equals(MagicStrings.null_aiml_file))
+    private void writeAIMLFiles (Set<String> files) {
+        if (files != null) files.remove(MagicStrings.null_aiml_file);
+        System.out.println("writeAIMLFiles "+(files == null ? "all" : files.toString()));
+        if (files != null && files.isEmpty()) return;
+        HashMap<String, ArrayList<Category>> fileMap = categoriesByFile(files);
+        fileMap.remove(MagicStrings.null_aiml_file);
+        String copyright = Utilities.getCopyrightTemplate(this);
+        for (String fileName : fileMap.keySet()) {
+            StringBuilder sb = new StringBuilder();
+            sb.append("<?xml version=\"1.0\" encoding=\"UTF-8\"?>" + "\n" +
+                    "<aiml>\n");
+            sb.append(Utilities.getCopyright(copyright, fileName));
+            for (Category c : fileMap.get(fileName)) sb.append(Category.categoryToAIML(c)).append("\n");
+            sb.append("</aiml>\n");
             try {
-                //System.out.println("Writing "+c.getCategoryNumber()+" "+c.inputThatTopic());
-                BufferedWriter bw;
-                String fileName = c.getFilename();
-                if (fileMap.containsKey(fileName)) bw = fileMap.get(fileName);
-                else {
-                    String copyright = Utilities.getCopyright(this, fileName);
-                    bw = new BufferedWriter(new FileWriter(MagicStrings.aiml_path+"/"+fileName));
-                    fileMap.put(fileName, bw);
-                    bw.write("<?xml version=\"1.0\" encoding=\"UTF-8\"?>" + "\n" +
-                            "<aiml>\n");
-                    bw.write(copyright);
-                     //bw.newLine();
-                }
-                bw.write(Category.categoryToAIML(c)+"\n");
-                //bw.newLine();
+                Utilities.writeFileAtomically(MagicStrings.aiml_path+"/"+fileName, sb.toString());
             } catch (Exception ex) {
                 ex.printStackTrace();
             }
         }
-        Set set = fileMap.keySet();
-        for (Object aSet : set) {
-            BufferedWriter bw = fileMap.get(aSet);
-            //Close the bw
-            try {
-                if (bw != null) {
-                    bw.write("</aiml>\n");
-                    bw.flush();
-                    bw.close();
-                }
-            } catch (IOException ex) {
-                ex.printStackTrace();
-
-            }
-
-        }
         File dir = new File(MagicStrings.aiml_path);
         dir.setLastModified(new Date().getTime());
     }
@@ -550,9 +655,11 @@ public class Bot {
                 e.printStackTrace();
             }
         }
-        for (String key : NodemapperOperator.keySet(node)) {
-            Nodemapper value = NodemapperOperator.get(node, key);
-            findPatterns(value, partialPatternThatTopic + " " + key);
+        for (int i = 0; i < NodemapperOperator.slots(node); i++) {
+            int key = NodemapperOperator.keyAt(node, i);
+            if (key == SymbolTable.unknown) continue;
+            Nodemapper value = NodemapperOperator.valueAt(node, i);
+            findPatterns(value, partialPatternThatTopic + " " + symbols.word(key));
         }
 
     }
@@ -573,7 +680,7 @@ public class Bot {
                 // Print the content on the console
                 //System.out.println("Classifying "+strLine);
                 if (strLine.startsWith("Human: ")) strLine = strLine.substring("Human: ".length(), strLine.length());
-                Nodemapper match = patternGraph.match(strLine, "unknown", "unknown");
+                MatchResult match = patternGraph.match(strLine, "unknown", "unknown");
                 match.category.incrementActivationCnt();
                 count += 1;
             }
@@ -601,12 +708,12 @@ public class Bot {
             while ((strLine = br.readLine()) != null)   {
                 //strLine = preProcessor.normalize(strLine);
                 Category c = new Category(0, strLine, "*", "*", "nothing", MagicStrings.unknown_aiml_file);
-                Nodemapper node = inputGraph.findNode(c);
-                if (node == null) {
+                Category found = inputGraph.findCategory(c);
+                if (found == null) {
                   inputGraph.addCategory(c);
                   c.incrementActivationCnt();
                 }
-                else node.category.incrementActivationCnt();
+                else found.incrementActivationCnt();
                 //System.out.println("Root branches="+g.root.size());
             }
             //Close the input stream
@@ -619,64 +726,40 @@ public class Bot {
 
 
     /**
-     * read AIMLIF categories from a file into bot brain
+     * read AIMLIF categories from a file into bot brain.  The file is always read as UTF-8.
      *
      * @param filename    name of AIMLIF file
      * @return   array list of categories read
      */
     public ArrayList<Category> readIFCategories (String filename) {
-        ArrayList<Category> categories = new ArrayList<Category>();
         try{
-            // Open the file that is the first
-            // command line parameter
-            FileInputStream fstream = new FileInputStream(filename);
-            // Get the object
-            BufferedReader br = new BufferedReader(new InputStreamReader(fstream));
-            String strLine;
-            //Read File Line By Line
-            while ((strLine = br.readLine()) != null)   {
-                try {
-                    Category c = Category.IFToCategory(strLine);
-                    categories.add(c);
-                } catch (Exception ex) {
-                    System.out.println("Invalid AIMLIF in "+filename+" line "+strLine);
-                }
-            }
-            //Close the input stream
-            br.close();
+            return AIMLIFReader.readCategories(filename);
         }catch (Exception e){//Catch exception if any
             System.err.println("Error: " + e.getMessage());
+            return new ArrayList<Category>();
         }
-        return categories;
     }
 
     /**
      * check Graphmaster for shadowed categories
      */
     public void shadowChecker () {
-        shadowChecker(brain.root) ;
+        for (Category c : brain.getCategories()) shadowChecker(c);
     }
 
-    /** traverse graph and test all categories found in leaf nodes for shadows
+    /** test a category in the brain for shadows
      *
-     * @param node
+     * @param category
      */
-    void shadowChecker(Nodemapper node) {
-        if (NodemapperOperator.isLeaf(node)) {
-            String input = node.category.getPattern().replace("*", "XXX").replace("_", "XXX");
-            String that = node.category.getThat().replace("*", "XXX").replace("_", "XXX");
-            String topic = node.category.getTopic().replace("*", "XXX").replace("_", "XXX");
-            Nodemapper match = brain.match(input, that, topic);
-            if (match != node) {
-                System.out.println("" + Graphmaster.inputThatTopic(input, that, topic));
-                System.out.println("MATCHED:     "+match.category.inputThatTopic());
-                System.out.println("SHOULD MATCH:"+node.category.inputThatTopic());
-            }
-        }
-        else {
-            for (String key : NodemapperOperator.keySet(node)) {
-                shadowChecker(NodemapperOperator.get(node, key));
-            }
+    void shadowChecker(Category category) {
+        String input = category.getPattern().replace("*", "XXX").replace("_", "XXX");
+        String that = category.getThat().replace("*", "XXX").replace("_", "XXX");
+        String topic = category.getTopic().replace("*", "XXX").replace("_", "XXX");
+        MatchResult match = brain.match(input, that, topic);
+        if (match != null && match.category != category) {
+            System.out.println("" + Graphmaster.inputThatTopic(input, that, topic));
+            System.out.println("MATCHED:     "+match.category.inputThatTopic());
+            System.out.println("SHOULD MATCH:"+category.inputThatTopic());
         }
     }
 
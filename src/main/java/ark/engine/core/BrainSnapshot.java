@@ -0,0 +1,300 @@
+package ark.engine.core;
+/* Program AB Reference AIML 2.0 implementation
+        Copyright (C) 2013 ALICE A.I. Foundation
+        Contact: info@alicebot.org
+
+        This library is free software; you can redistribute it and/or
+        modify it under the terms of the GNU Library General Public
+        License as published by the Free Software Foundation; either
+        version 2 of the License, or (at your option) any later version.
+
+        This library is distributed in the hope that it will be useful,
+        but WITHOUT ANY WARRANTY; without even the implied warranty of
+        MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+        Library General Public License for more details.
+
+        You should have received a copy of the GNU Library General Public
+        License along with this library; if not, write to the
+        Free Software Foundation, Inc., 51 Franklin St, Fifth Floor,
+        Boston, MA  02110-1301, USA.
+*/
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/**
+ * Binary snapshot of a fully loaded bot: the symbol table, every category, the AIML sets and maps,
+ * and the frozen brain, learnf, pattern, deleted and unfinished graphs.
+ *
+ * The file starts with a format version and a CRC32 of the AIML, AIMLIF, set and map files it was
+ * built from.  If a source file has changed since, the snapshot is stale and the bot is loaded from
+ * the sources as before, after which a new snapshot is written.  A CRC32 of the payload guards
+ * against truncated or damaged files.
+ */
+class BrainSnapshot {
+    static final int magic = 0x41425342;    // "ABSB"
+    static final int version = 1;
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    /**
+     * checksum of everything a snapshot depends on: the source files and the loading options
+     *
+     * @return   CRC32 of the source files
+     */
+    static long sourceChecksum() {
+        CRC32 crc = new CRC32();
+        crc.update(version);
+        crc.update(Graphmaster.enableShortCuts ? 1 : 0);
+        crc.update(MagicBooleans.fix_excel_csv ? 1 : 0);
+        for (String path : new String[] {MagicStrings.aiml_path, MagicStrings.aimlif_path, MagicStrings.sets_path, MagicStrings.maps_path}) {
+            File[] files = new File(path).listFiles();
+            if (files == null) continue;
+            Arrays.sort(files);
+            for (File file : files) {
+                if (!file.isFile()) continue;
+                crc.update(file.getName().getBytes(UTF8));
+                try {
+                    crc.update(Files.readAllBytes(file.toPath()));
+                } catch (IOException ex) {
+                    crc.update(-1);
+                }
+            }
+        }
+        return crc.getValue();
+    }
+
+    /**
+     * write a snapshot of a bot whose graphs have been frozen
+     *
+     * @param bot              the bot
+     * @param sourceChecksum   checksum of the source files the bot was loaded from
+     */
+    static void write(Bot bot, long sourceChecksum) {
+        Timer timer = new Timer();
+        File target = new File(MagicStrings.snapshot_path);
+        File temp = new File(MagicStrings.snapshot_path+".tmp");
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(bytes);
+            writePayload(bot, out);
+            out.flush();
+            byte[] payload = bytes.toByteArray();
+            CRC32 crc = new CRC32();
+            crc.update(payload);
+            DataOutputStream file = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)));
+            try {
+                file.writeInt(magic);
+                file.writeInt(version);
+                file.writeLong(sourceChecksum);
+                file.writeLong(crc.getValue());
+                file.writeInt(payload.length);
+                file.write(payload);
+            } finally {
+                file.close();
+            }
+            Files.move(temp.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            System.out.println("Wrote brain snapshot "+target+" ("+payload.length+" bytes) in "+timer.elapsedTimeMillis()+" ms");
+        } catch (Exception ex) {
+            System.out.println("Cannot write brain snapshot "+target+": "+ex);
+            temp.delete();
+        }
+    }
+
+    private static void writePayload(Bot bot, DataOutputStream out) throws IOException {
+        int words = bot.symbols.size();
+        out.writeInt(words);
+        for (int id = 0; id < words; id++) writeString(out, bot.symbols.word(id));
+
+        Graphmaster[] graphs = graphs(bot);
+        ArrayList<Category> categories = new ArrayList<Category>();
+        IdentityHashMap<Category, Integer> categoryIndex = new IdentityHashMap<Category, Integer>();
+        for (Graphmaster graph : graphs) {
+            for (Category c : graph.frozen.category) {
+                if (c != null && !categoryIndex.containsKey(c)) {
+                    categoryIndex.put(c, categories.size());
+                    categories.add(c);
+                }
+            }
+        }
+        out.writeInt(categories.size());
+        for (Category c : categories) {
+            out.writeInt(c.getCategoryNumber());
+            out.writeInt(c.getActivationCnt());
+            writeString(out, c.getPattern());
+            writeString(out, c.getThat());
+            writeString(out, c.getTopic());
+            writeString(out, c.getTemplate());
+            writeString(out, c.getFilename());
+        }
+
+        out.writeInt(bot.setMap.size());
+        for (AIMLSet set : bot.setMap.values()) {
+            writeString(out, set.setName);
+            out.writeInt(set.maxLength);
+            out.writeBoolean(set.isExternal);
+            writeString(out, set.host);
+            writeString(out, set.botid);
+            out.writeInt(set.size());
+            for (String member : set) writeString(out, member);
+        }
+
+        out.writeInt(bot.mapMap.size());
+        for (AIMLMap map : bot.mapMap.values()) {
+            writeString(out, map.mapName);
+            out.writeBoolean(map.isExternal);
+            writeString(out, map.host);
+            writeString(out, map.botid);
+            out.writeInt(map.size());
+            for (Map.Entry<String, String> entry : map.entrySet()) {
+                writeString(out, entry.getKey());
+                writeString(out, entry.getValue());
+            }
+        }
+
+        for (Graphmaster graph : graphs) graph.frozen.write(out, categoryIndex);
+    }
+
+    /**
+     * load a bot from its snapshot, if there is one built from the current source files.
+     * Nothing is changed if the snapshot is missing, stale or damaged.
+     *
+     * @param bot              a bot whose graphs, sets and maps are still empty
+     * @param sourceChecksum   checksum of the current source files
+     * @return                 true if the bot was loaded from the snapshot
+     */
+    static boolean read(Bot bot, long sourceChecksum) {
+        File file = new File(MagicStrings.snapshot_path);
+        if (!file.exists()) return false;
+        Timer timer = new Timer();
+        try {
+            RandomAccessFile raf = new RandomAccessFile(file, "r");
+            MappedByteBuffer in;
+            try {
+                in = raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, raf.length());
+            } finally {
+                raf.close();
+            }
+            if (in.getInt() != magic || in.getInt() != version) {
+                System.out.println("Brain snapshot "+file+" has an unknown format");
+                return false;
+            }
+            if (in.getLong() != sourceChecksum) {
+                System.out.println("Brain snapshot "+file+" is out of date");
+                return false;
+            }
+            long payloadCrc = in.getLong();
+            int length = in.getInt();
+            if (in.remaining() != length || crc(in.duplicate()) != payloadCrc) {
+                System.out.println("Brain snapshot "+file+" is damaged");
+                return false;
+            }
+            readPayload(bot, in);
+            System.out.println("Loaded brain snapshot "+file+" in "+timer.elapsedTimeMillis()+" ms");
+            return true;
+        } catch (Exception ex) {
+            System.out.println("Cannot read brain snapshot "+file+": "+ex);
+            return false;
+        }
+    }
+
+    private static void readPayload(Bot bot, ByteBuffer in) {
+        // check the word ids on a scratch copy, so a mismatch leaves bot.symbols as it was
+        SymbolTable scratch = new SymbolTable();
+        for (int id = 0; id < bot.symbols.size(); id++) scratch.intern(bot.symbols.word(id));
+        String[] words = new String[in.getInt()];
+        for (int id = 0; id < words.length; id++) {
+            words[id] = readString(in);
+            if (scratch.intern(words[id]) != id) throw new IllegalStateException("symbol table mismatch at "+words[id]);
+        }
+
+        Category[] categories = new Category[in.getInt()];
+        for (int i = 0; i < categories.length; i++) {
+            int number = in.getInt();
+            int activationCnt = in.getInt();
+            categories[i] = new Category(number, activationCnt, readString(in), readString(in), readString(in), readString(in), readString(in));
+        }
+
+        int sets = in.getInt();
+        ArrayList<AIMLSet> setList = new ArrayList<AIMLSet>();
+        for (int i = 0; i < sets; i++) {
+            AIMLSet set = new AIMLSet(readString(in));
+            set.maxLength = in.getInt();
+            set.isExternal = (in.get() != 0);
+            set.host = readString(in);
+            set.botid = readString(in);
+            int size = in.getInt();
+            for (int j = 0; j < size; j++) set.add(readString(in));
+            setList.add(set);
+        }
+
+        int maps = in.getInt();
+        ArrayList<AIMLMap> mapList = new ArrayList<AIMLMap>();
+        for (int i = 0; i < maps; i++) {
+            AIMLMap map = new AIMLMap(readString(in));
+            map.isExternal = (in.get() != 0);
+            map.host = readString(in);
+            map.botid = readString(in);
+            int size = in.getInt();
+            for (int j = 0; j < size; j++) map.put(readString(in), readString(in));
+            mapList.add(map);
+        }
+
+        Graphmaster[] graphs = graphs(bot);
+        FrozenGraph[] frozen = new FrozenGraph[graphs.length];
+        for (int i = 0; i < graphs.length; i++) frozen[i] = FrozenGraph.read(in, categories);
+
+        for (String word : words) bot.symbols.intern(word);
+        for (AIMLSet set : setList) bot.setMap.put(set.setName, set);
+        for (AIMLMap map : mapList) bot.mapMap.put(map.mapName, map);
+        for (int i = 0; i < graphs.length; i++) graphs[i].restore(frozen[i]);
+    }
+
+    /**
+     * the graphs stored in a snapshot, in file order
+     */
+    private static Graphmaster[] graphs(Bot bot) {
+        return new Graphmaster[] {bot.brain, bot.learnfGraph, bot.patternGraph, bot.deletedGraph, bot.unfinishedGraph};
+    }
+
+    private static long crc(ByteBuffer in) {
+        CRC32 crc = new CRC32();
+        byte[] chunk = new byte[65536];
+        while (in.hasRemaining()) {
+            int n = Math.min(chunk.length, in.remaining());
+            in.get(chunk, 0, n);
+            crc.update(chunk, 0, n);
+        }
+        return crc.getValue();
+    }
+
+    static void writeString(DataOutputStream out, String s) throws IOException {
+        if (s == null) out.writeInt(-1);
+        else {
+            byte[] bytes = s.getBytes(UTF8);
+            out.writeInt(bytes.length);
+            out.write(bytes);
+        }
+    }
+
+    static String readString(ByteBuffer in) {
+        int length = in.getInt();
+        if (length < 0) return null;
+        byte[] bytes = new byte[length];
+        in.get(bytes);
+        return new String(bytes, UTF8);
+    }
+
+    static void readInts(ByteBuffer in, int[] values) {
+        in.asIntBuffer().get(values);
+        in.position(in.position() + 4*values.length);
+    }
+}
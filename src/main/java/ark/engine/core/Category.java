@@ -28,6 +28,7 @@ public class Category {
     private String that;
     private String topic;
     private String template;
+    private volatile TemplateNode compiledTemplate;
     private String filename;
     private int activationCnt;
     private int categoryNumber; // for loading order
@@ -63,6 +64,22 @@ public class Category {
         return categoryNumber;
     }
 
+    /**
+     * give the category the next loading order number.
+     * Categories parsed on several threads are renumbered in file order before they are added to the brain.
+     */
+    void renumber() {
+        categoryNumber = nextCategoryNumber();
+    }
+
+    private static synchronized int nextCategoryNumber() {
+        return categoryCnt++;
+    }
+
+    private static synchronized void reserveCategoryNumber(int categoryNumber) {
+        if (categoryCnt <= categoryNumber) categoryCnt = categoryNumber + 1;
+    }
+
     /**
      * get category pattern
      *
@@ -100,6 +117,21 @@ public class Category {
         else
             return template;
     }
+    /**
+     * get category template compiled for evaluation.
+     * The template is parsed on the first call and the result is reused afterwards.
+     *
+     * @return      compiled template
+     * @throws Exception    if the template is not well formed XML
+     */
+    public TemplateNode getCompiledTemplate () throws Exception {
+        TemplateNode compiled = compiledTemplate;
+        if (compiled == null) {
+            compiled = TemplateNode.compile(getTemplate());
+            compiledTemplate = compiled;
+        }
+        return compiled;
+    }
     /**
      * get name of AIML file for this category
      *
@@ -139,6 +171,7 @@ public class Category {
      */
     public void setTemplate(String template) {
         this.template = template;
+        this.compiledTemplate = null;
     }
 
     /**
@@ -177,11 +210,12 @@ public class Category {
     }
 
     /**
-     * add a matching input to the matching input set
+     * add a matching input to the matching input set.  Graphmaster records matches
+     * only when MagicBooleans.record_matches is set, as AB training does.
      *
      * @param input      matching input
      */
-    public void addMatch (String input) {
+    public synchronized void addMatch (String input) {
         if (matches == null) {
             String setName = this.inputThatTopic().replace("*", "STAR").replace("_", "UNDERSCORE").replace(" ","-").replace("<THAT>","THAT").replace("<TOPIC>","TOPIC");
            // System.out.println("Created match set "+setName);
@@ -331,10 +365,33 @@ public class Category {
         this.filename = filename;
         this.activationCnt = activationCnt;
         matches = null;
-        this.categoryNumber = categoryCnt++;
+        this.categoryNumber = nextCategoryNumber();
         //System.out.println("Creating "+categoryNumber+" "+inputThatTopic());
     }
 
+    /**
+     * Constructor for a category read back from a brain snapshot.  The fields were normalized when
+     * the category was first loaded, so they are stored as they are.
+     *
+     * @param categoryNumber    loading order number
+     * @param activationCnt     category activation count
+     * @param pattern           input pattern
+     * @param that              that pattern
+     * @param topic             topic pattern
+     * @param template          AIML template
+     * @param filename          AIML file name
+     */
+    Category(int categoryNumber, int activationCnt, String pattern, String that, String topic, String template, String filename) {
+        this.pattern = pattern;
+        this.that = that;
+        this.topic = topic;
+        this.template = template;
+        this.filename = filename;
+        this.activationCnt = activationCnt;
+        this.categoryNumber = categoryNumber;
+        reserveCategoryNumber(categoryNumber);
+    }
+
     /**
      * Constructor
      *
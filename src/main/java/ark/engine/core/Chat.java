@@ -27,12 +27,13 @@ import ark.engine.utils.IOUtils;
 public class Chat {
     public Bot bot;
     public String customerId = MagicStrings.unknown_customer_id;
-    public History<History> thatHistory= new History<History>("that");
+    public ThatHistory thatHistory= new ThatHistory();
     public History<String> requestHistory=new History<String>("request");
     public History<String> responseHistory=new History<String>("response");
     public History<String> inputHistory=new History<String>("input");
     public Predicates predicates = new Predicates();
-    public static String matchTrace = "";
+    public String matchTrace = "";    // categories matched by the last request, in trace mode
+    static final int session_format = 1;
     public static boolean locationKnown = false;
     public static String longitude;
     public static String latitude;
@@ -54,17 +55,107 @@ public class Chat {
     public Chat(Bot bot, String customerId) {
         this.customerId = customerId;
         this.bot = bot;
-        History<String> contextThatHistory = new History<String>();
-        contextThatHistory.add(MagicStrings.default_that);
-        thatHistory.add(contextThatHistory);
+        thatHistory.add(MagicStrings.default_that);
+        thatHistory.commit();
         addPredicates();
         predicates.put("topic", MagicStrings.default_topic);
     }
 
     /**
-     * Load all predicate defaults
+     * Constructor for a session read back from a session store
+     *
+     * @param bot       bot to chat with
+     * @param in        session written by writeSession
+     * @throws IOException
+     */
+    private Chat(Bot bot, DataInput in) throws IOException {
+        this.bot = bot;
+        addPredicates();
+        int format = in.readByte();
+        if (format != session_format) throw new IOException("Unknown session format "+format);
+        customerId = Utilities.readString(in);
+        predicates.read(in);
+        thatHistory.read(in);
+        requestHistory.read(in);
+        responseHistory.read(in);
+        inputHistory.read(in);
+    }
+
+    /**
+     * write the state of this session: customer id, predicates and histories
+     *
+     * @param out       binary output
+     * @throws IOException
+     */
+    public void writeSession(DataOutput out) throws IOException {
+        out.writeByte(session_format);
+        Utilities.writeString(out, customerId);
+        predicates.write(out);
+        thatHistory.write(out);
+        requestHistory.write(out);
+        responseHistory.write(out);
+        inputHistory.write(out);
+    }
+
+    /**
+     * serialize this session for a session store
+     *
+     * @return      session bytes
+     * @throws IOException
+     */
+    public byte[] toSessionBytes() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(1024);
+        DataOutputStream out = new DataOutputStream(bytes);
+        writeSession(out);
+        out.flush();
+        return bytes.toByteArray();
+    }
+
+    /**
+     * recreate a session from the bytes written by toSessionBytes
+     *
+     * @param bot       bot to chat with
+     * @param session   session bytes
+     * @return          the chat session
+     * @throws IOException
+     */
+    public static Chat fromSessionBytes(Bot bot, byte[] session) throws IOException {
+        return new Chat(bot, new DataInputStream(new ByteArrayInputStream(session)));
+    }
+
+    /**
+     * estimate the heap size of this session's predicates and histories
+     *
+     * @return      estimated size in bytes
+     */
+    public long estimatedSize() {
+        long size = 512 + 4L * MagicNumbers.max_history * (MagicNumbers.max_history + 4);     // the history arrays
+        size += predicates.estimatedSize();
+        size += historySize(requestHistory) + historySize(responseHistory) + historySize(inputHistory);
+        for (int i = 0; i < thatHistory.size(); i++) {
+            for (int j = 0; thatHistory.get(i, j) != null; j++) size += stringSize(thatHistory.get(i, j));
+        }
+        return size;
+    }
+
+    private static long historySize(History<String> history) {
+        long size = 0;
+        for (int i = 0; i < history.size(); i++) size += stringSize(history.get(i));
+        return size;
+    }
+
+    static long stringSize(String s) {
+        return s == null ? 0 : 40 + 2L * s.length();
+    }
+
+    /**
+     * Set the predicate defaults, sharing the bot's copy if there is one
      */
     void addPredicates() {
+        if (bot != null && bot.chatManager != null) {
+            predicates.setDefaults(bot.chatManager.predicateDefaults);
+            return;
+        }
         try {
             predicates.getPredicateDefaults(MagicStrings.config_path+"/predicates.txt") ;
         } catch (Exception ex)  {
@@ -106,13 +197,13 @@ public class Chat {
      * @param input         client input
      * @param that          bot's last sentence
      * @param topic         current topic
-     * @param contextThatHistory         history of "that" values for this request/response interaction
+     * @param context       evaluation state of this request
      * @return              bot's reply
      */
-    String respond(String input, String that, String topic, History contextThatHistory) {
+    String respond(String input, String that, String topic, RequestContext context) {
         String response;
         inputHistory.add(input);
-        response = AIMLProcessor.respond(input, that, topic, this);
+        response = AIMLProcessor.respond(input, that, topic, this, context);
         String normResponse = bot.preProcessor.normalize(response);
         normResponse = JapaneseTokenizer.morphSentence(normResponse); //response.trim(); //
         String sentences[] = bot.preProcessor.sentenceSplit(normResponse);
@@ -120,24 +211,22 @@ public class Chat {
           that = sentences[i];
           //System.out.println("That "+i+" '"+that+"'");
           if (that.trim().equals("")) that = MagicStrings.default_that;
-          contextThatHistory.add(that);
+          thatHistory.add(that);
         }
         return response.trim()+"  ";
     }
 
     /**
-     * Return bot response given an input and a history of "that" for the current conversational interaction
+     * Return bot response given an input, in reply to the last sentence of the bot's last response
      *
      * @param input       client input
-     * @param contextThatHistory  history of "that" values for this request/response interaction
+     * @param context     evaluation state of this request
      * @return    bot's reply
      */
-    String respond(String input, History<String> contextThatHistory) {
-        History hist = thatHistory.get(0);
-        String that;
-        if (hist == null) that = MagicStrings.default_that;
-        else that = hist.getString(0);
-        return respond(input, that, predicates.get("topic"), contextThatHistory);
+    String respond(String input, RequestContext context) {
+        String that = thatHistory.get(0, 0);
+        if (that == null) that = MagicStrings.default_that;
+        return respond(input, that, predicates.get("topic"), context);
     }
 
     /**
@@ -148,7 +237,6 @@ public class Chat {
      */
     public String multisentenceRespond(String request) {
         String response="";
-        matchTrace="";
         /*thatHistory.printHistory();
         inputHistory.printHistory();
         requestHistory.printHistory();
@@ -158,29 +246,30 @@ public class Chat {
         norm = JapaneseTokenizer.morphSentence(norm);
         if (MagicBooleans.trace_mode) System.out.println("normalized = "+norm);
         String sentences[] = bot.preProcessor.sentenceSplit(norm);
-        History<String> contextThatHistory = new History<String>("contextThat");
+        thatHistory.begin();
+        RequestContext context = new RequestContext(bot.brain);    // a reload swaps bot.brain; this request finishes on the graph it started with
         for (int i = 0; i < sentences.length; i++) {
             //System.out.println("Human: "+sentences[i]);
-            AIMLProcessor.trace_count = 0;
-            String reply = respond(sentences[i], contextThatHistory);
+            context.newSentence();
+            String reply = respond(sentences[i], context);
             response += "  "+reply;
             //System.out.println("Robot: "+reply);
         }
         requestHistory.add(request);
         responseHistory.add(response);
-        thatHistory.add(contextThatHistory);
+        thatHistory.commit();
+        matchTrace = context.matchTrace.toString();
         //if (MagicBooleans.trace_mode)  System.out.println(matchTrace);
         } catch (Exception ex) {
             ex.printStackTrace();
             return MagicStrings.error_bot_response;
         }
 
-        bot.writeLearnfIFCategories();
         return response.trim();
     }
 
 
-    public static void setMatchTrace(String newMatchTrace) {
+    public void setMatchTrace(String newMatchTrace) {
 		matchTrace = newMatchTrace;
 	}
 }
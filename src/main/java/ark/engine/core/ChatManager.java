@@ -0,0 +1,351 @@
+package ark.engine.core;
+/* Program AB Reference AIML 2.0 implementation
+        Copyright (C) 2013 ALICE A.I. Foundation
+        Contact: info@alicebot.org
+
+        This library is free software; you can redistribute it and/or
+        modify it under the terms of the GNU Library General Public
+        License as published by the Free Software Foundation; either
+        version 2 of the License, or (at your option) any later version.
+
+        This library is distributed in the hope that it will be useful,
+        but WITHOUT ANY WARRANTY; without even the implied warranty of
+        MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+        Library General Public License for more details.
+
+        You should have received a copy of the GNU Library General Public
+        License along with this library; if not, write to the
+        Free Software Foundation, Inc., 51 Franklin St, Fifth Floor,
+        Boston, MA  02110-1301, USA.
+*/
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Hands out the chat sessions of a bot by customer id.
+ *
+ * Active sessions are resident as Chat objects; idle ones live in a SessionStore.
+ * get() returns the resident Chat for a customer, loading it from the store on first
+ * access or starting a new session from the shared predicate defaults.  A session is
+ * evicted when it has been idle for ttlMs, or, least recently used first, when more than
+ * maxSessions are resident or their estimated size exceeds maxBytes.  Idle sessions are
+ * swept by get() at most every MagicNumbers.session_sweep_ms.
+ *
+ * An evicted session is serialized and handed to a background thread that writes it to
+ * the store, so a request never waits on the store's I/O.  Until it is written, get()
+ * revives it from its serialized form.  maxBytes bounds the resident sessions only; the
+ * bot's default MemorySessionStore bounds the serialized ones at MagicNumbers.session_store_mb.
+ *
+ * A request holds its session with acquire() and hands it back with release().  A held
+ * session is never evicted, so no second Chat for the customer can be loaded while the
+ * request is still writing to the first.  get() does not hold the session, and the Chat
+ * it returns must no longer be used once it has been evicted.
+ */
+public class ChatManager implements Closeable {
+    private final Bot bot;
+    private final SessionStore store;
+    public final Map<String, String> predicateDefaults;      // parsed once from predicates.txt, shared by all sessions
+    public volatile long ttlMs = MagicNumbers.session_ttl_ms;
+    public volatile int maxSessions = MagicNumbers.session_cache_size;
+    public volatile long maxBytes = MagicNumbers.session_memory_mb * 1024L * 1024L;
+    private final LinkedHashMap<String, Resident> resident = new LinkedHashMap<String, Resident>(16, 0.75f, true);
+    private long residentBytes = 0;
+    private long nextSweep = 0;
+    private final ConcurrentHashMap<String, byte[]> pending = new ConcurrentHashMap<String, byte[]>();
+    private final LinkedBlockingQueue<String> queue = new LinkedBlockingQueue<String>();
+    private final Object storeLock = new Object();     // orders the writer's store() against remove()
+    private Thread writer = null;
+    private boolean hooked = false;
+    private boolean closed = false;
+    private static final String stop = new String("stop");     // compared by identity, never a customer id
+    public final AtomicLong createdCount = new AtomicLong();
+    public final AtomicLong evictedCount = new AtomicLong();
+    public final AtomicLong reloadedCount = new AtomicLong();
+
+    private static class Resident {
+        final Chat chat;
+        long lastUsed;
+        long bytes;
+        int holds = 0;      // acquire() calls not yet released
+
+        Resident(Chat chat, long lastUsed) {
+            this.chat = chat;
+            this.lastUsed = lastUsed;
+            this.bytes = chat.estimatedSize();
+        }
+    }
+
+    /**
+     * Constructor
+     *
+     * @param bot           bot the sessions chat with
+     * @param store         store for sessions that are not resident
+     */
+    public ChatManager(Bot bot, SessionStore store) {
+        this.bot = bot;
+        this.store = store;
+        this.predicateDefaults = Predicates.readPredicateDefaults(MagicStrings.config_path+"/predicates.txt");
+    }
+
+    /**
+     * get the session of a customer, loading it from the store or starting a new one
+     *
+     * @param customerId     customer id
+     * @return               chat session
+     */
+    public synchronized Chat get(String customerId) {
+        Resident r = use(customerId);
+        trim();
+        return r.chat;
+    }
+
+    /**
+     * get the session of a customer and hold it until release(), so it is not evicted
+     * while a request uses it
+     *
+     * @param customerId     customer id
+     * @return               chat session
+     */
+    public synchronized Chat acquire(String customerId) {
+        Resident r = use(customerId);
+        r.holds++;
+        trim();
+        return r.chat;
+    }
+
+    /**
+     * hand back a session held by acquire()
+     *
+     * @param customerId     customer id
+     */
+    public synchronized void release(String customerId) {
+        Resident r = resident.get(customerId);
+        if (r == null || r.holds == 0) throw new IllegalStateException("Session "+customerId+" is not held");
+        r.holds--;
+        residentBytes -= r.bytes;
+        r.bytes = r.chat.estimatedSize();
+        residentBytes += r.bytes;
+        r.lastUsed = System.currentTimeMillis();
+        trim();
+    }
+
+    private Resident use(String customerId) {
+        long now = System.currentTimeMillis();
+        if (now >= nextSweep) {
+            evictIdle(now);
+            nextSweep = now + MagicNumbers.session_sweep_ms;
+        }
+        Resident r = resident.get(customerId);
+        if (r != null) {
+            // the estimate catches up with what the session's last request added
+            residentBytes -= r.bytes;
+            r.bytes = r.chat.estimatedSize();
+            residentBytes += r.bytes;
+            r.lastUsed = now;
+        }
+        else {
+            r = new Resident(load(customerId), now);
+            resident.put(customerId, r);
+            residentBytes += r.bytes;
+            if (!hooked && !closed) {
+                ShutdownHook.register(this);     // resident sessions are written out at JVM exit
+                hooked = true;
+            }
+        }
+        return r;
+    }
+
+    private Chat load(String customerId) {
+        Chat chat = null;
+        byte[] session = pending.remove(customerId);
+        try {
+            if (session == null) session = store.load(customerId);
+            if (session != null) chat = Chat.fromSessionBytes(bot, session);
+        } catch (IOException ex) {
+            System.out.println("Cannot load session "+customerId+": "+ex);
+        }
+        if (chat != null) reloadedCount.incrementAndGet();
+        else {
+            chat = new Chat(bot, customerId);
+            createdCount.incrementAndGet();
+        }
+        return chat;
+    }
+
+    /**
+     * end the session of a customer and delete it from the store
+     *
+     * @param customerId     customer id
+     */
+    public synchronized void remove(String customerId) {
+        Resident r = resident.remove(customerId);
+        if (r != null) residentBytes -= r.bytes;
+        synchronized (storeLock) {
+            pending.remove(customerId);
+            try {
+                store.remove(customerId);
+            } catch (IOException ex) {
+                System.out.println("Cannot remove session "+customerId+": "+ex);
+            }
+        }
+    }
+
+    /**
+     * evict the sessions idle for longer than ttlMs, except those that are held
+     *
+     * @param now       current time in milliseconds
+     */
+    public synchronized void evictIdle(long now) {
+        Iterator<Map.Entry<String, Resident>> it = resident.entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry<String, Resident> entry = it.next();
+            if (now - entry.getValue().lastUsed <= ttlMs) break;     // the rest were used more recently
+            if (entry.getValue().holds > 0 || !evict(entry.getKey(), entry.getValue())) continue;
+            it.remove();
+        }
+    }
+
+    /**
+     * evict least recently used sessions until the resident ones fit maxSessions and maxBytes.
+     * Held sessions and the most recently used one always stay, even if they do not fit.
+     */
+    private void trim() {
+        Iterator<Map.Entry<String, Resident>> it = resident.entrySet().iterator();
+        for (int candidates = resident.size() - 1;
+             candidates > 0 && (resident.size() > maxSessions || residentBytes > maxBytes); candidates--) {
+            Map.Entry<String, Resident> entry = it.next();
+            if (entry.getValue().holds > 0 || !evict(entry.getKey(), entry.getValue())) continue;
+            it.remove();
+        }
+    }
+
+    /**
+     * hand a session to the writer.  The caller removes it from resident only if this succeeds.
+     *
+     * @param customerId     customer id
+     * @param r              resident session
+     * @return               false if the session could not be serialized and must stay resident
+     */
+    private boolean evict(String customerId, Resident r) {
+        byte[] session;
+        try {
+            session = r.chat.toSessionBytes();
+        } catch (IOException ex) {
+            System.out.println("Cannot save session "+customerId+": "+ex);
+            return false;
+        }
+        residentBytes -= r.bytes;
+        evictedCount.incrementAndGet();
+        pending.put(customerId, session);
+        startWriter();
+        queue.add(customerId);
+        return true;
+    }
+
+    private synchronized void startWriter() {
+        if (writer != null || closed) return;
+        writer = new Thread(new Runnable() {
+            public void run() {
+                try {
+                    for (String customerId = queue.take(); customerId != stop; customerId = queue.take()) write(customerId);
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }, "session-writer");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    private void write(String customerId) {
+        synchronized (storeLock) {
+            byte[] session = pending.get(customerId);
+            if (session == null) return;     // revived by get() or removed before it was written
+            try {
+                store.store(customerId, session);
+            } catch (IOException ex) {
+                System.out.println("Cannot save session "+customerId+": "+ex);
+                return;
+            }
+            pending.remove(customerId, session);
+        }
+    }
+
+    /**
+     * @return      number of resident sessions
+     */
+    public synchronized int activeCount() {
+        return resident.size();
+    }
+
+    /**
+     * @return      estimated heap size of the resident sessions in bytes
+     */
+    public synchronized long residentBytes() {
+        return residentBytes;
+    }
+
+    /**
+     * @return      number of evicted sessions not yet written to the store
+     */
+    public int pendingCount() {
+        return pending.size();
+    }
+
+    /**
+     * @return      session counts, for logging
+     */
+    public String stats() {
+        return "sessions active="+activeCount()+" bytes="+residentBytes()+" pending="+pendingCount()+
+                " stored="+store.size()+" dropped="+store.droppedCount()+" created="+createdCount.get()+" evicted="+evictedCount.get()+
+                " reloaded="+reloadedCount.get();
+    }
+
+    /**
+     * write every session, resident or pending, to the store
+     */
+    public synchronized void flush() {
+        for (Map.Entry<String, Resident> entry : resident.entrySet()) {
+            try {
+                store.store(entry.getKey(), entry.getValue().chat.toSessionBytes());
+            } catch (IOException ex) {
+                System.out.println("Cannot save session "+entry.getKey()+": "+ex);
+            }
+        }
+        for (String customerId : new ArrayList<String>(pending.keySet())) write(customerId);
+    }
+
+    /**
+     * stop the writer, write every session to the store and close the store
+     *
+     * @throws IOException
+     */
+    public void close() throws IOException {
+        Thread w;
+        synchronized (this) {
+            if (closed) return;
+            closed = true;
+            w = writer;
+            writer = null;
+        }
+        ShutdownHook.unregister(this);
+        if (w != null) {
+            queue.add(stop);
+            try {
+                w.join();
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        flush();
+        store.close();
+    }
+}
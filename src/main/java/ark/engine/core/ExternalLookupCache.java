@@ -0,0 +1,175 @@
+package ark.engine.core;
+/* Program AB Reference AIML 2.0 implementation
+        Copyright (C) 2013 ALICE A.I. Foundation
+        Contact: info@alicebot.org
+
+        This library is free software; you can redistribute it and/or
+        modify it under the terms of the GNU Library General Public
+        License as published by the Free Software Foundation; either
+        version 2 of the License, or (at your option) any later version.
+
+        This library is distributed in the hope that it will be useful,
+        but WITHOUT ANY WARRANTY; without even the implied warranty of
+        MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+        Library General Public License for more details.
+
+        You should have received a copy of the GNU Library General Public
+        License along with this library; if not, write to the
+        Free Software Foundation, Inc., 51 Franklin St, Fifth Floor,
+        Boston, MA  02110-1301, USA.
+*/
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Cache for queries to external sets and maps.
+ *
+ * Every query runs on a small pool of background threads, and the caller waits at most
+ * MagicNumbers.external_lookup_ms for the answer.  If the remote host is slower, the caller
+ * gets the default response ("not a member", or the unknown map value) and the query keeps
+ * running; when it finishes, its answer is cached for the next caller.  Callers asking the
+ * same question meanwhile share the query that is already running.
+ *
+ * Answers are kept for MagicNumbers.external_cache_ttl_ms.  Failures and default answers are
+ * kept for the shorter MagicNumbers.external_negative_ttl_ms.  The least recently used entries
+ * are dropped beyond MagicNumbers.external_cache_size entries.
+ */
+public class ExternalLookupCache {
+    public static final ExternalLookupCache shared = new ExternalLookupCache(MagicNumbers.external_cache_size,
+            MagicNumbers.external_cache_ttl_ms, MagicNumbers.external_negative_ttl_ms, MagicNumbers.external_lookup_ms);
+
+    private final int maxEntries;
+    private final long ttlMs;
+    private final long negativeTtlMs;
+    private final long budgetMs;
+    private final LinkedHashMap<String, Lookup> entries;
+    private final ThreadPoolExecutor executor;
+    public final AtomicLong hitCount = new AtomicLong();
+    public final AtomicLong missCount = new AtomicLong();
+    public final AtomicLong timeoutCount = new AtomicLong();
+
+    /**
+     * a query, running or finished.  expires is set when it finishes.
+     */
+    private final class Lookup extends FutureTask<String> {
+        final String defaultResponse;
+        volatile long expires = Long.MAX_VALUE;
+
+        Lookup(Callable<String> query, String defaultResponse) {
+            super(query);
+            this.defaultResponse = defaultResponse;
+        }
+
+        protected void done() {
+            String response = null;
+            try {
+                response = get();
+            } catch (Exception ex) {
+                // cached as a failure
+            }
+            long ttl = (response == null || response.equals(defaultResponse)) ? negativeTtlMs : ttlMs;
+            expires = System.currentTimeMillis() + ttl;
+        }
+    }
+
+    /**
+     * Constructor
+     *
+     * @param maxEntries        maximum number of cached queries
+     * @param ttlMs             how long an answer is kept
+     * @param negativeTtlMs     how long a failure or default answer is kept
+     * @param budgetMs          how long a caller waits for a query
+     */
+    public ExternalLookupCache(final int maxEntries, long ttlMs, long negativeTtlMs, long budgetMs) {
+        this.maxEntries = maxEntries;
+        this.ttlMs = ttlMs;
+        this.negativeTtlMs = negativeTtlMs;
+        this.budgetMs = budgetMs;
+        entries = new LinkedHashMap<String, Lookup>(16, 0.75f, true) {
+            protected boolean removeEldestEntry(Map.Entry<String, Lookup> eldest) {
+                return size() > maxEntries;
+            }
+        };
+        executor = new ThreadPoolExecutor(MagicNumbers.external_lookup_threads, MagicNumbers.external_lookup_threads,
+                60, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(maxEntries), new ThreadFactory() {
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "external-lookup");
+                t.setDaemon(true);
+                return t;
+            }
+        });
+        executor.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * ask an external bot, using a cached answer if there is one
+     *
+     * @param host               host of the external bot
+     * @param botid              id of the external bot
+     * @param query              query sent to the bot
+     * @param defaultResponse    response if the bot fails or does not answer in time
+     * @return                   the bot's response, or defaultResponse
+     */
+    public String lookup(final String host, final String botid, final String query, final String defaultResponse) {
+        String key = host+" "+botid+" "+query;
+        Lookup lookup;
+        boolean started = false;
+        synchronized (entries) {
+            lookup = entries.get(key);
+            if (lookup != null && lookup.expires < System.currentTimeMillis()) {
+                entries.remove(key);
+                lookup = null;
+            }
+            if (lookup == null) {
+                lookup = new Lookup(new Callable<String>() {
+                    public String call() {
+                        return Sraix.sraix(null, query, defaultResponse, null, host, botid, null, "0");
+                    }
+                }, defaultResponse);
+                entries.put(key, lookup);
+                started = true;
+            }
+        }
+        if (started) {
+            missCount.incrementAndGet();
+            try {
+                executor.execute(lookup);
+            } catch (RejectedExecutionException ex) {
+                synchronized (entries) {
+                    entries.remove(key);
+                }
+                return defaultResponse;
+            }
+        }
+        else hitCount.incrementAndGet();
+        try {
+            String response = lookup.get(budgetMs, TimeUnit.MILLISECONDS);
+            return response == null ? defaultResponse : response;
+        } catch (TimeoutException ex) {
+            timeoutCount.incrementAndGet();
+            return defaultResponse;
+        } catch (Exception ex) {
+            return defaultResponse;
+        }
+    }
+
+    /**
+     * @return      number of cached queries, including those still running
+     */
+    public int size() {
+        synchronized (entries) {
+            return entries.size();
+        }
+    }
+
+    /**
+     * forget all cached answers
+     */
+    public void clear() {
+        synchronized (entries) {
+            entries.clear();
+        }
+    }
+}
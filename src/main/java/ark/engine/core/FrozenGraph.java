@@ -0,0 +1,221 @@
+package ark.engine.core;
+/* Program AB Reference AIML 2.0 implementation
+        Copyright (C) 2013 ALICE A.I. Foundation
+        Contact: info@alicebot.org
+
+        This library is free software; you can redistribute it and/or
+        modify it under the terms of the GNU Library General Public
+        License as published by the Free Software Foundation; either
+        version 2 of the License, or (at your option) any later version.
+
+        This library is distributed in the hope that it will be useful,
+        but WITHOUT ANY WARRANTY; without even the implied warranty of
+        MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+        Library General Public License for more details.
+
+        You should have received a copy of the GNU Library General Public
+        License along with this library; if not, write to the
+        Free Software Foundation, Inc., 51 Franklin St, Fifth Floor,
+        Boston, MA  02110-1301, USA.
+*/
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+
+/**
+ * Read-only copy of a Nodemapper graph laid out in flat arrays.
+ *
+ * Nodes are numbered breadth first from the root (node 0), so the branches of
+ * every node occupy one contiguous run of the edge arrays, sorted by word id,
+ * and branch e leads to node e+1.  Matching looks up a branch by binary search
+ * over that run instead of following Nodemapper objects around the heap.
+ */
+class FrozenGraph {
+    final int nodeCount;
+    final int[] firstEdge;      // branches of node n are firstEdge[n] .. firstEdge[n+1]-1
+    final int[] edgeLabel;      // word id of each branch
+    final int[] height;
+    final boolean[] shortCut;
+    final Category[] category;
+    final int[] firstSet;       // sets tried at node n are firstSet[n] .. firstSet[n+1]-1
+    final String[] setName;
+    final int[] setNode;        // node reached through each {@code <SET>} branch, or -1
+
+    private FrozenGraph(int nodeCount, int setCount) {
+        this.nodeCount = nodeCount;
+        firstEdge = new int[nodeCount + 1];
+        edgeLabel = new int[Math.max(0, nodeCount - 1)];
+        height = new int[nodeCount];
+        shortCut = new boolean[nodeCount];
+        category = new Category[nodeCount];
+        firstSet = new int[nodeCount + 1];
+        setName = new String[setCount];
+        setNode = new int[setCount];
+    }
+
+    /**
+     * compile a graph into flat arrays.  The Nodemapper graph is not modified.
+     *
+     * @param root       root of the graph
+     * @param symbols    table the graph's word ids come from
+     * @return           the frozen graph
+     */
+    static FrozenGraph freeze(Nodemapper root, SymbolTable symbols) {
+        int[] counts = new int[2];
+        count(root, counts);
+        FrozenGraph g = new FrozenGraph(counts[0], counts[1]);
+        Nodemapper[] nodes = new Nodemapper[g.nodeCount];
+        nodes[0] = root;
+        int[] keys = new int[16];
+        int edge = 0;
+        int set = 0;
+        for (int n = 0; n < g.nodeCount; n++) {
+            Nodemapper node = nodes[n];
+            nodes[n] = null;
+            int k = 0;
+            for (int i = 0; i < NodemapperOperator.slots(node); i++) {
+                int key = NodemapperOperator.keyAt(node, i);
+                if (key == SymbolTable.unknown) continue;
+                if (k == keys.length) keys = Arrays.copyOf(keys, 2*k);
+                keys[k++] = key;
+            }
+            Arrays.sort(keys, 0, k);
+            g.firstEdge[n] = edge;
+            for (int j = 0; j < k; j++) {
+                g.edgeLabel[edge] = keys[j];
+                nodes[edge+1] = NodemapperOperator.get(node, keys[j]);
+                edge++;
+            }
+            g.firstEdge[n+1] = edge;
+            g.height[n] = node.height;
+            g.shortCut[n] = node.shortCut;
+            g.category[n] = node.category;
+            g.firstSet[n] = set;
+            if (node.sets != null) for (String name : node.sets) {
+                if (Arrays.asList(g.setName).subList(g.firstSet[n], set).contains(name)) continue;
+                g.setName[set] = name;
+                g.setNode[set] = g.child(n, symbols.id("<SET>"+name.toUpperCase()+"</SET>"));
+                set++;
+            }
+            g.firstSet[n+1] = set;
+        }
+        return g;
+    }
+
+    /**
+     * count the nodes and set entries of a graph
+     *
+     * @param node      root of the graph
+     * @param counts    counts[0] is incremented by the number of nodes, counts[1] by the number of set entries
+     */
+    private static void count(Nodemapper node, int[] counts) {
+        counts[0]++;
+        if (node.sets != null) counts[1] += node.sets.size();
+        for (int i = 0; i < NodemapperOperator.slots(node); i++) {
+            if (NodemapperOperator.keyAt(node, i) != SymbolTable.unknown) count(NodemapperOperator.valueAt(node, i), counts);
+        }
+    }
+
+    /**
+     * write the graph to a brain snapshot
+     *
+     * @param out              snapshot payload
+     * @param categoryIndex    position of each category in the snapshot's category table
+     * @throws IOException
+     */
+    void write(DataOutputStream out, IdentityHashMap<Category, Integer> categoryIndex) throws IOException {
+        out.writeInt(nodeCount);
+        out.writeInt(setName.length);
+        for (int x : firstEdge) out.writeInt(x);
+        for (int x : edgeLabel) out.writeInt(x);
+        for (int x : height) out.writeInt(x);
+        for (boolean x : shortCut) out.writeBoolean(x);
+        for (Category c : category) out.writeInt(c == null ? -1 : categoryIndex.get(c));
+        for (int x : firstSet) out.writeInt(x);
+        for (int x : setNode) out.writeInt(x);
+        for (String name : setName) BrainSnapshot.writeString(out, name);
+    }
+
+    /**
+     * read a graph written by write()
+     *
+     * @param in            snapshot payload
+     * @param categories    the snapshot's category table
+     * @return              the frozen graph
+     */
+    static FrozenGraph read(ByteBuffer in, Category[] categories) {
+        FrozenGraph g = new FrozenGraph(in.getInt(), in.getInt());
+        BrainSnapshot.readInts(in, g.firstEdge);
+        BrainSnapshot.readInts(in, g.edgeLabel);
+        BrainSnapshot.readInts(in, g.height);
+        for (int n = 0; n < g.nodeCount; n++) g.shortCut[n] = (in.get() != 0);
+        for (int n = 0; n < g.nodeCount; n++) {
+            int c = in.getInt();
+            g.category[n] = (c < 0 ? null : categories[c]);
+        }
+        BrainSnapshot.readInts(in, g.firstSet);
+        BrainSnapshot.readInts(in, g.setNode);
+        for (int s = 0; s < g.setName.length; s++) g.setName[s] = BrainSnapshot.readString(in);
+        return g;
+    }
+
+    /**
+     * follow a branch
+     *
+     * @param node    node number
+     * @param word    word id of the branch
+     * @return        node number the branch leads to, or -1 if there is no such branch
+     */
+    int child(int node, int word) {
+        int lo = firstEdge[node];
+        int hi = firstEdge[node+1] - 1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            int label = edgeLabel[mid];
+            if (label < word) lo = mid + 1;
+            else if (label > word) hi = mid - 1;
+            else return mid + 1;
+        }
+        return -1;
+    }
+
+    /**
+     * number of branches from a node, counting a shortcut as one branch
+     *
+     * @param node    node number
+     * @return        number of branches
+     */
+    int size(int node) {
+        int size = firstEdge[node+1] - firstEdge[node];
+        if (shortCut[node] && child(node, SymbolTable.that) < 0) size++;
+        return size;
+    }
+
+    boolean isLeaf(int node) {
+        return category[node] != null;
+    }
+
+    boolean isEmpty() {
+        return nodeCount == 1 && category[0] == null;
+    }
+
+    /**
+     * find the node at the end of a pattern path
+     *
+     * @param path       pattern path
+     * @param symbols    table the graph's word ids come from
+     * @return           node number, or -1 if the path is not in the graph
+     */
+    int find(Path path, SymbolTable symbols) {
+        int node = 0;
+        while (path != null) {
+            if (shortCut[node] && path.word.equals("<THAT>") && Path.pathToSentence(path).trim().equals("<THAT> * <TOPIC> *")) return node;
+            node = child(node, symbols.id(path.word));
+            if (node < 0) return -1;
+            path = path.next();
+        }
+        return node;
+    }
+}
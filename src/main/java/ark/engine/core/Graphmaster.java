@@ -19,21 +19,36 @@ package ark.engine.core;
         Boston, MA  02110-1301, USA.
 */
 import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * The AIML Pattern matching algorithm and data structure.
  *
+ * Categories are added to a Nodemapper graph.  freeze() compiles the loaded graph once
+ * into a FrozenGraph, and afterwards root only holds the categories added since (e.g. by
+ * {@code <learn>}).  Those are added by copying the nodes along their path, so a match
+ * always sees one consistent root.  The frozen graph and root are searched together,
+ * in the same priority order as a single graph holding all the categories.
  */
 public class Graphmaster {
     public Bot bot;
-    public final Nodemapper root;
-    public int matchCount = 0;
+    public final HashMap<String, AIMLSet> setMap;    // the sets this graph was built with
+    public volatile Nodemapper root;        // after freeze(), replaced rather than changed by addCategory
+    public final AtomicLong matchCount = new AtomicLong();
     public int upgradeCnt = 0;
-    public HashSet<String> vocabulary;
+    public HashSet<String> vocabulary;        // pattern words, and after freeze() the members of the bot's sets
+    public volatile int vocabularyCnt = 0;    // vocabulary.size(), readable without locking the graph
     public String resultNote = "";
-    public int categoryCnt = 0;
+    public volatile int categoryCnt = 0;      // number of distinct categories in the graph
     public static boolean enableShortCuts = false;
+    volatile FrozenGraph frozen;              // graph compiled by freeze(), or null
+    private final BitSet replaced = new BitSet();   // frozen nodes whose category was added again to root
+    private final HashSet<String> changedFiles = new HashSet<String>();   // files of categories added after freeze()
+    private final ConcurrentHashMap<String, Integer> setWords = new ConcurrentHashMap<String, Integer>();  // set name -> id of its <SET> branch
 
     /**
      * Constructor
@@ -41,8 +56,19 @@ public class Graphmaster {
      * @param bot  the bot the graph belongs to.
      */
     public Graphmaster (Bot bot) {
+        this(bot, bot.setMap);
+    }
+
+    /**
+     * Constructor for a graph built with sets that are not yet the bot's, e.g. when reloading
+     *
+     * @param bot      the bot the graph belongs to.
+     * @param setMap   the sets patterns refer to
+     */
+    public Graphmaster (Bot bot, HashMap<String, AIMLSet> setMap) {
         root = new Nodemapper();
         this.bot = bot;
+        this.setMap = setMap;
         vocabulary = new HashSet<String>();
     }
 
@@ -64,10 +90,77 @@ public class Graphmaster {
      *
      * @param category            AIML Category
      */
-    public void addCategory (Category category) {
+    public synchronized void addCategory (Category category) {
         Path p = Path.sentenceToPath(inputThatTopic(category.getPattern(), category.getThat(), category.getTopic()));
-        addPath(p, category);
-        categoryCnt++;
+        boolean exists = false;
+        if (frozen != null) {
+            int node = frozen.find(p, bot.symbols);
+            if (node >= 0 && frozen.category[node] != null) {
+                exists = true;
+                replaced.set(node);
+                changedFiles.add(frozen.category[node].getFilename());
+            }
+            Nodemapper old = findNode(root, p);
+            if (old != null && old.category != null) changedFiles.add(old.category.getFilename());
+            changedFiles.add(category.getFilename());
+        }
+        boolean added;
+        if (frozen != null) {
+            Nodemapper newRoot = NodemapperOperator.copy(root);
+            added = addPath(newRoot, p, category, true);
+            root = newRoot;
+        }
+        else added = addPath(p, category);
+        if (added && !exists) categoryCnt++;
+    }
+
+    /**
+     * the files whose categories were added or replaced since freeze() or the last call.
+     * Categories loaded before the graph is frozen are already on disk and are not counted.
+     *
+     * @return  set of category file names
+     */
+    public synchronized HashSet<String> takeChangedFiles() {
+        HashSet<String> files = new HashSet<String>(changedFiles);
+        changedFiles.clear();
+        return files;
+    }
+
+    /**
+     * compile the graph into a FrozenGraph.  Categories added later go into a
+     * fresh root, which is searched before the frozen graph.
+     * The bot's sets are loaded by now, so their members join the vocabulary here.
+     */
+    public synchronized void freeze() {
+        if (frozen != null) {
+            ArrayList<Category> categories = getCategories();
+            root = new Nodemapper();
+            for (Category c : categories)
+                addPath(root, Path.sentenceToPath(inputThatTopic(c.getPattern(), c.getThat(), c.getTopic())), c);
+        }
+        frozen = FrozenGraph.freeze(root, bot.symbols);
+        root = new Nodemapper();
+        for (AIMLSet set : setMap.values()) vocabulary.addAll(set);
+        vocabularyCnt = vocabulary.size();
+        replaced.clear();
+    }
+
+    /**
+     * replace the contents of the graph by a frozen graph read from a brain snapshot
+     *
+     * @param g      the frozen graph
+     */
+    synchronized void restore(FrozenGraph g) {
+        frozen = g;
+        root = new Nodemapper();
+        replaced.clear();
+        int count = 0;
+        for (Category c : g.category) if (c != null) count++;
+        categoryCnt = count;
+        vocabulary = new HashSet<String>();
+        for (int label : g.edgeLabel) vocabulary.add(bot.symbols.word(label));
+        for (AIMLSet set : setMap.values()) vocabulary.addAll(set);
+        vocabularyCnt = vocabulary.size();
     }
 
     boolean thatStarTopicStar(Path path) {
@@ -76,10 +169,11 @@ public class Graphmaster {
         return tail.equals("<THAT> * <TOPIC> *");
     }
     void addSets (String type, Bot bot, Nodemapper node) {
-        //System.out.println("adding Set "+type+" from "+bot.setMap);
+        //System.out.println("adding Set "+type+" from "+setMap);
         String typeName = Utilities.tagTrim(type, "SET").toLowerCase();
         //AIMLSet aimlSet;
-        if (bot.setMap.containsKey(typeName)) {
+        if (setMap.containsKey(typeName)) {
+            setWords.put(typeName, bot.symbols.intern(type));
             if (node.sets == null) node.sets = new ArrayList<String>();
             node.sets.add(typeName);
             // System.out.println("sets = "+node.sets);
@@ -93,9 +187,10 @@ public class Graphmaster {
      *
      * @param path            Pattern path
      * @param category        AIML category
+     * @return                true if the path did not lead to a category before
      */
-    void addPath(Path path, Category category) {
-        addPath(root, path, category);
+    boolean addPath(Path path, Category category) {
+        return addPath(root, path, category);
 
     }
 
@@ -106,21 +201,43 @@ public class Graphmaster {
      * @param node     starting node in graph
      * @param path     Pattern path to be added
      * @param category    AIML Category
+     * @return            true if the path did not lead to a category before
+     */
+    boolean addPath(Nodemapper node, Path path, Category category) {
+        return addPath(node, path, category, false);
+    }
+
+    /**
+     * add a Path to the graph from a given node, optionally copying every existing node it passes
+     * through, so that a graph published before the call is not changed.
+     *
+     * @param node     starting node in graph, already a copy if copy is true
+     * @param path     Pattern path to be added
+     * @param category    AIML Category
+     * @param copy     true to copy the nodes along the path instead of changing them
+     * @return            true if the path did not lead to a category before
      */
-    void addPath(Nodemapper node, Path path, Category category) {
+    boolean addPath(Nodemapper node, Path path, Category category, boolean copy) {
+        boolean added;
         if (path == null) {
+            added = (node.category == null);
             node.category = category;
             node.height = 0;
         }
         else if (enableShortCuts && thatStarTopicStar(path)) {
+            added = (node.category == null);
             node.category = category;
             node.height = Math.min(4, node.height);
             node.shortCut = true;
         }
-        else if (NodemapperOperator.containsKey(node, path.word)) {
+        else if (NodemapperOperator.containsKey(node, bot.symbols.id(path.word))) {
             if (path.word.startsWith("<SET>")) addSets(path.word, bot, node);
-            Nodemapper nextNode = NodemapperOperator.get(node, path.word);
-            addPath(nextNode, path.next, category);
+            Nodemapper nextNode = NodemapperOperator.get(node, bot.symbols.id(path.word));
+            if (copy) {
+                nextNode = NodemapperOperator.copy(nextNode);
+                NodemapperOperator.put(node, bot.symbols.id(path.word), nextNode);
+            }
+            added = addPath(nextNode, path.next(), category, copy);
             int offset = 1;
             if (path.word.equals("#") || path.word.equals("^")) offset = 0;
             node.height = Math.min(offset + nextNode.height, node.height);
@@ -130,16 +247,18 @@ public class Graphmaster {
             if (path.word.startsWith("<SET>")) {
                 addSets(path.word, bot, node);
             }
-            if (node.key != null)  {
+            if (node.key != SymbolTable.unknown)  {
                 NodemapperOperator.upgrade(node);
                 upgradeCnt++;
             }
-            NodemapperOperator.put(node, path.word, nextNode);
-            addPath(nextNode, path.next, category);
+            NodemapperOperator.put(node, bot.symbols.intern(path.word), nextNode);
+            if (vocabulary.add(path.word)) vocabularyCnt++;
+            added = addPath(nextNode, path.next(), category, copy);
             int offset = 1;
             if (path.word.equals("#") || path.word.equals("^")) offset = 0;
             node.height = Math.min(offset + nextNode.height, node.height);
         }
+        return added;
     }
     /**
      *   test if category is already in graph
@@ -147,27 +266,34 @@ public class Graphmaster {
      *   @return true or false
      */
     public boolean existsCategory(Category c) {
-       return (findNode(c) != null);
+       return (findCategory(c) != null);
     }
     /**
-     *   test if category is already in graph
+     *   find the category in the graph having the same patterns as c
      *
-     *   @return true or false
+     *   @return the category found, or null
      */
-    public Nodemapper findNode(Category c) {
-        return findNode(c.getPattern(), c.getThat(), c.getTopic());
+    public Category findCategory(Category c) {
+        return findCategory(c.getPattern(), c.getThat(), c.getTopic());
     }
 
-    /** Given an input pattern, that pattern and topic pattern, find the leaf node associated with this path.
+    /** Given an input pattern, that pattern and topic pattern, find the category at the end of this path.
      *
      * @param input    input pattern
      * @param that     that pattern
      * @param topic    topic pattern
-     * @return         leaf node or null if no matching node is found
+     * @return         category or null if no matching node is found
      */
-    public Nodemapper findNode(String input, String that, String topic) {
-        Nodemapper result = findNode(root, Path.sentenceToPath(inputThatTopic(input, that, topic)));
-        if (verbose) System.out.println("findNode "+inputThatTopic(input, that, topic)+" "+result);
+    public synchronized Category findCategory(String input, String that, String topic) {
+        Path path = Path.sentenceToPath(inputThatTopic(input, that, topic));
+        Category result = null;
+        Nodemapper node = findNode(root, path);
+        if (node != null) result = node.category;
+        if (result == null && frozen != null) {
+            int n = frozen.find(path, bot.symbols);
+            if (n >= 0) result = frozen.category[n];
+        }
+        if (verbose) System.out.println("findCategory "+inputThatTopic(input, that, topic)+" "+result);
         return result;
     }
     public static boolean verbose = false;
@@ -181,17 +307,17 @@ public class Graphmaster {
      */
     Nodemapper findNode(Nodemapper node, Path path) {
         if (path == null && node != null) {
-            if (verbose) System.out.println("findNode: path is null, returning node "+node.category.inputThatTopic());
+            if (verbose) System.out.println("findNode: path is null, returning node "+node.category);
             return node;
         }
         else if (Path.pathToSentence(path).trim().equals("<THAT> * <TOPIC> *") && node.shortCut && path.word.equals("<THAT>")) {
             if (verbose) System.out.println("findNode: shortcut, returning "+node.category.inputThatTopic());
             return node;
         }
-        else if (NodemapperOperator.containsKey(node, path.word)) {
+        else if (NodemapperOperator.containsKey(node, bot.symbols.id(path.word))) {
             if (verbose) System.out.println("findNode: node contains "+path.word);
-            Nodemapper nextNode = NodemapperOperator.get(node, path.word.toUpperCase());
-            return findNode(nextNode, path.next);
+            Nodemapper nextNode = NodemapperOperator.get(node, bot.symbols.id(path.word.toUpperCase()));
+            return findNode(nextNode, path.next());
         }
 
         else {
@@ -201,72 +327,81 @@ public class Graphmaster {
     }
 
     /**
-     * Find the matching leaf node given an input, that state and topic value
+     * Find the matching category given an input, that state and topic value.
+     * The graph itself is not modified, so any number of threads may match concurrently.
      *
      * @param input              client input
      * @param that               bot's last sentence
      * @param topic              current topic
-     * @return                   matching leaf node or null if no match is found
+     * @return                   matching category and wildcard bindings, or null if no match is found
      */
-    public final Nodemapper match(String input, String that, String topic) {
-        Nodemapper n = null;
+    public final MatchResult match(String input, String that, String topic) {
+        MatchResult result = null;
         try {
          String inputThatTopic = inputThatTopic(input, that, topic);
          //System.out.println("Matching: "+inputThatTopic);
-         Path p = Path.sentenceToPath(inputThatTopic);
-         //p.print();
-         n = match(p, inputThatTopic);
+         result = match(Path.sentenceToPath(inputThatTopic), inputThatTopic);
          if (MagicBooleans.trace_mode) {
-             if (n != null) {
-                System.out.println("Matched: "+n.category.inputThatTopic()+" "+n.category.getFilename());
+             if (result != null) {
+                System.out.println("Matched: "+result.category.inputThatTopic()+" "+result.category.getFilename());
              }
              else System.out.println("No match.");
          }
         } catch (Exception ex) {
             //System.out.println("Match: "+input);
             ex.printStackTrace();
-            n = null;
+            result = null;
         }
-        if (MagicBooleans.trace_mode && Chat.matchTrace.length() < MagicNumbers.max_trace_length) {
-            if (n != null) {
-				Chat.setMatchTrace(Chat.matchTrace + n.category.inputThatTopic()+"\n");
-			}
-        }
-        return n;
+        return result;
     }
 
     /**
-     * Find the matching leaf node given a path of the form "{@code input <THAT> that <TOPIC> topic}"
+     * Find the matching category given a path of the form "{@code input <THAT> that <TOPIC> topic}".
+     * While no categories were added after freeze(), only the frozen graph is searched.
+     *
      * @param path
      * @param inputThatTopic
-     * @return  matching leaf node or null if no match is found
+     * @return  matching category and wildcard bindings, or null if no match is found
      */
-    final Nodemapper match(Path path, String inputThatTopic) {
+    final MatchResult match(Path path, String inputThatTopic) {
         try {
-        String[] inputStars = new String[MagicNumbers.max_stars];
-        String[] thatStars = new String[MagicNumbers.max_stars];
-        String[] topicStars = new String[MagicNumbers.max_stars];
-        String starState = "inputStar";
-        String matchTrace = "";
-        Nodemapper n = match(path, root, inputThatTopic, starState, 0, inputStars, thatStars, topicStars, matchTrace);
-        if (n != null) {
-            StarBindings sb = new StarBindings();
-            for (int i=0; inputStars[i] != null && i < MagicNumbers.max_stars; i++) sb.inputStars.add(inputStars[i]);
-            for (int i=0; thatStars[i] != null && i < MagicNumbers.max_stars; i++) sb.thatStars.add(thatStars[i]);
-            for (int i=0; topicStars[i] != null && i < MagicNumbers.max_stars; i++) sb.topicStars.add(topicStars[i]);
-            n.starBindings = sb;
-        }
-        //if (!n.category.getPattern().contains("*")) System.out.println("adding match "+inputThatTopic);
-        if (n != null) n.category.addMatch(inputThatTopic);
-        return n;
+        MatchContext ctx = matchContext.get();
+        ctx.reset(path.words, bot.symbols);
+        FrozenGraph g = frozen;
+        Nodemapper added = root;
+        Category category = null;
+        ctx.graph = g;
+        if (added.category != null || NodemapperOperator.size(added) > 0) {
+            category = match(path.offset, g == null ? -1 : 0, added, ctx, MatchContext.inputStar, 0);
+        }
+        else if (g != null) {
+            int n = match(path.offset, 0, ctx, MatchContext.inputStar, 0);
+            if (n >= 0) category = g.category[n];
+        }
+        ctx.graph = null;
+        matchCount.addAndGet(ctx.steps);
+        if (category == null) return null;
+        String nullStar = bot.properties.get(MagicStrings.null_star);
+        StarBindings sb = new StarBindings(ctx.stars(MatchContext.inputStar, nullStar),
+                ctx.stars(MatchContext.thatStar, nullStar), ctx.stars(MatchContext.topicStar, nullStar));
+        //if (!category.getPattern().contains("*")) System.out.println("adding match "+inputThatTopic);
+        if (MagicBooleans.record_matches) category.addMatch(inputThatTopic);
+        return new MatchResult(category, sb);
         } catch (Exception ex) {
             ex.printStackTrace();
             return null;
         }
     }
 
+    private static final ThreadLocal<MatchContext> matchContext = new ThreadLocal<MatchContext>() {
+        @Override
+        protected MatchContext initialValue() {
+            return new MatchContext();
+        }
+    };
+
     /**
-     * Depth-first search of the graph for a matching leaf node.
+     * Depth-first search of ctx.graph for a matching leaf node.
      * At each node, the order of search is
      * 1. $WORD  (high priority exact word match)
      * 2. # wildcard  (zero or more word match)
@@ -277,240 +412,387 @@ public class Graphmaster {
      * 7. ^ wildcard  (zero or more words match)
      * 8. * wildcard (one or more words match)
      *
-     * @param path      remaining path to be matched
+     * @param i         index in ctx.words of the first word of the remaining path
      * @param node      current search node
-     * @param inputThatTopic  original input, that and topic string
+     * @param ctx       match context holding the graph, the input words and wildcard bindings
      * @param starState       tells whether wildcards are in input pattern, that pattern or topic pattern
      * @param starIndex       index of wildcard
-     * @param inputStars      array of input pattern wildcard matches
-     * @param thatStars       array of that pattern wildcard matches
-     * @param topicStars      array of topic pattern wildcard matches
-     * @param matchTrace      trace of match path for debugging purposes
-     * @return  matching leaf node or null if no match is found
+     * @return  matching leaf node or -1 if no match is found
      */
-    final Nodemapper match(Path path, Nodemapper node, String inputThatTopic, String starState, int starIndex, String[] inputStars, String[] thatStars, String[] topicStars, String matchTrace) {
-        Nodemapper matchedNode;
-        //System.out.println("Match: Height="+node.height+" Length="+path.length+" Path="+Path.pathToSentence(path));
-        matchCount++;
-        if ((matchedNode = nullMatch(path, node, matchTrace)) != null) return matchedNode;
-        else if (path.length < node.height) {
-           return null;}
-
-        else if ((matchedNode = dollarMatch(path, node, inputThatTopic, starState, starIndex, inputStars, thatStars, topicStars, matchTrace)) != null) return matchedNode;
-        else if ((matchedNode = sharpMatch(path, node, inputThatTopic, starState, starIndex, inputStars, thatStars, topicStars, matchTrace)) != null) return matchedNode;
-        else if ((matchedNode = underMatch(path, node, inputThatTopic, starState, starIndex, inputStars, thatStars, topicStars, matchTrace)) != null) return matchedNode;
-        else if ((matchedNode = wordMatch(path, node, inputThatTopic, starState, starIndex, inputStars, thatStars, topicStars, matchTrace)) != null) return matchedNode;
-        else if ((matchedNode = setMatch(path, node, inputThatTopic, starState, starIndex, inputStars, thatStars, topicStars, matchTrace)) != null) return matchedNode;
-        else if ((matchedNode = shortCutMatch(path, node, inputThatTopic, starState, starIndex, inputStars, thatStars, topicStars, matchTrace)) != null) return matchedNode;
-        else if ((matchedNode = caretMatch(path, node, inputThatTopic, starState, starIndex, inputStars, thatStars, topicStars, matchTrace)) != null) return matchedNode;
-        else if ((matchedNode = starMatch(path, node, inputThatTopic, starState, starIndex, inputStars, thatStars, topicStars, matchTrace)) != null) return matchedNode;
+    final int match(int i, int node, MatchContext ctx, int starState, int starIndex) {
+        int matchedNode;
+        //System.out.println("Match: Height="+ctx.graph.height[node]+" Length="+(ctx.words.length-i));
+        ctx.steps++;
+        if ((matchedNode = nullMatch(i, node, ctx)) >= 0) return matchedNode;
+        else if (i >= ctx.words.length || ctx.words.length - i < ctx.graph.height[node]) {
+           return -1;}
+
+        else if ((matchedNode = dollarMatch(i, node, ctx, starState, starIndex)) >= 0) return matchedNode;
+        else if ((matchedNode = sharpMatch(i, node, ctx, starState, starIndex)) >= 0) return matchedNode;
+        else if ((matchedNode = underMatch(i, node, ctx, starState, starIndex)) >= 0) return matchedNode;
+        else if ((matchedNode = wordMatch(i, node, ctx, starState, starIndex)) >= 0) return matchedNode;
+        else if ((matchedNode = setMatch(i, node, ctx, starState, starIndex)) >= 0) return matchedNode;
+        else if ((matchedNode = shortCutMatch(i, node, ctx, starState, starIndex)) >= 0) return matchedNode;
+        else if ((matchedNode = caretMatch(i, node, ctx, starState, starIndex)) >= 0) return matchedNode;
+        else if ((matchedNode = starMatch(i, node, ctx, starState, starIndex)) >= 0) return matchedNode;
         else {
+            return -1;
+        }
+    }
+
+    /**
+     * Depth-first search of the frozen graph and root together, used once categories were added
+     * after freeze().  A search node is a pair reached by the same pattern words: f in ctx.graph,
+     * or -1, and o in root, or null.  The branches of a pair are tried in the same order as by
+     * match(int, int, ...), and the sets of the frozen node come before those only in root,
+     * so an added category wins or loses exactly as it would in one graph with all the categories.
+     * At a leaf reached in both graphs the category in root replaces the frozen one.
+     *
+     * @param i         index in ctx.words of the first word of the remaining path
+     * @param f         current search node in the frozen graph, or -1
+     * @param o         current search node in root, or null
+     * @param ctx       match context holding the frozen graph, the input words and wildcard bindings
+     * @param starState       tells whether wildcards are in input pattern, that pattern or topic pattern
+     * @param starIndex       index of wildcard
+     * @return  matching category or null if no match is found
+     */
+    final Category match(int i, int f, Nodemapper o, MatchContext ctx, int starState, int starIndex) {
+        ctx.steps++;
+        String[] words = ctx.words;
+        Category leaf = leaf(f, o, ctx.graph);
+        if (i >= words.length && leaf != null) return leaf;
+        int height = MagicNumbers.max_graph_height;
+        if (f >= 0) height = ctx.graph.height[f];
+        if (o != null) height = Math.min(height, o.height);
+        if (i >= words.length || words.length - i < height) return null;
+        Category matched;
+        if ((matched = branchMatch(i, f, o, ctx, ctx.dollarIds[i], i+1, starState, starIndex)) != null) return matched;
+        if ((matched = zeroMatch(i, f, o, ctx, starState, starIndex, SymbolTable.sharp)) != null) return matched;
+        if ((matched = wildMatch(i, f, o, ctx, starState, starIndex, SymbolTable.sharp)) != null) return matched;
+        if ((matched = wildMatch(i, f, o, ctx, starState, starIndex, SymbolTable.underscore)) != null) return matched;
+        int uword = ctx.ids[i];
+        int wordState = starState;
+        int wordIndex = starIndex;
+        if (uword == SymbolTable.that) {wordIndex = 0; wordState = MatchContext.thatStar;}
+        else if (uword == SymbolTable.topic) {wordIndex = 0; wordState = MatchContext.topicStar;}
+        if ((matched = branchMatch(i, f, o, ctx, uword, i+1, wordState, wordIndex)) != null) return matched;
+        if ((matched = setMatch(i, f, o, ctx, starState, starIndex)) != null) return matched;
+        if (leaf != null && isShortCut(f, o, ctx.graph) && words[i].equals("<THAT>")) {
+            int topicIndex = i;
+            while (topicIndex < words.length && !words[topicIndex].equals("<TOPIC>")) topicIndex++;
+            ctx.setStar(MatchContext.thatStar, 0, i+1, topicIndex);
+            ctx.setStar(MatchContext.topicStar, 0, topicIndex+1, words.length);
+            return leaf;
+        }
+        if ((matched = zeroMatch(i, f, o, ctx, starState, starIndex, SymbolTable.caret)) != null) return matched;
+        if ((matched = wildMatch(i, f, o, ctx, starState, starIndex, SymbolTable.caret)) != null) return matched;
+        return wildMatch(i, f, o, ctx, starState, starIndex, SymbolTable.star);
+    }
+
+    private static Category leaf(int f, Nodemapper o, FrozenGraph g) {
+        if (o != null && o.category != null) return o.category;
+        if (f >= 0) return g.category[f];
+        return null;
+    }
+
+    private static boolean isShortCut(int f, Nodemapper o, FrozenGraph g) {
+        return (o != null && o.shortCut) || (f >= 0 && g.shortCut[f]);
+    }
+
+    private final Category branchMatch(int i, int f, Nodemapper o, MatchContext ctx, int word, int next, int starState, int starIndex) {
+        int fc = f >= 0 ? ctx.graph.child(f, word) : -1;
+        Nodemapper oc = o != null ? NodemapperOperator.get(o, word) : null;
+        if (fc < 0 && oc == null) return null;
+        return match(next, fc, oc, ctx, starState, starIndex);
+    }
+
+    private final Category zeroMatch(int i, int f, Nodemapper o, MatchContext ctx, int starState, int starIndex, int wildcard) {
+        int fc = f >= 0 ? ctx.graph.child(f, wildcard) : -1;
+        Nodemapper oc = o != null ? NodemapperOperator.get(o, wildcard) : null;
+        if (fc < 0 && oc == null) return null;
+        ctx.setStar(starState, starIndex, MatchContext.nullStar, MatchContext.nullStar);
+        return match(i, fc, oc, ctx, starState, starIndex+1);
+    }
+
+    private final Category wildMatch(int i, int f, Nodemapper o, MatchContext ctx, int starState, int starIndex, int wildcard) {
+        String[] words = ctx.words;
+        if (words[i].equals("<THAT>") || words[i].equals("<TOPIC>")) return null;
+        int fc = f >= 0 ? ctx.graph.child(f, wildcard) : -1;
+        Nodemapper oc = o != null ? NodemapperOperator.get(o, wildcard) : null;
+        if (fc < 0 && oc == null) return null;
+        Category leaf = leaf(fc, oc, ctx.graph);
+        if (leaf != null && !isShortCut(fc, oc, ctx.graph)) {
+            ctx.setStar(starState, starIndex, i, words.length);
+            return leaf;
+        }
+        String currentWord = words[i];
+        Category matched;
+        for (int j = i+1; j < words.length && !currentWord.equals("<THAT>") && !currentWord.equals("<TOPIC>"); j++) {
+            if ((matched = match(j, fc, oc, ctx, starState, starIndex + 1)) != null) {
+                ctx.setStar(starState, starIndex, i, j);
+                return matched;
+            }
+            currentWord = words[j];
+        }
+        return null;
+    }
+
+    private final Category setMatch(int i, int f, Nodemapper o, MatchContext ctx, int starState, int starIndex) {
+        String[] words = ctx.words;
+        FrozenGraph g = ctx.graph;
+        int first = f >= 0 ? g.firstSet[f] : 0;
+        int last = f >= 0 ? g.firstSet[f+1] : 0;
+        ArrayList<String> added = o != null ? o.sets : null;
+        if ((first == last && added == null) || words[i].equals("<THAT>") || words[i].equals("<TOPIC>")) return null;
+        Category matched;
+        // the frozen node's sets first, through the branches found when it was frozen
+        for (int s = first; s < last; s++) {
+            String setName = g.setName[s];
+            Nodemapper oc = added != null && added.contains(setName) ? NodemapperOperator.get(o, setWords.get(setName)) : null;
+            if ((matched = memberMatch(i, g.setNode[s], oc, ctx, starState, starIndex, setName)) != null) return matched;
+        }
+        // then the sets only the added categories use
+        if (added != null) for (int k = 0; k < added.size(); k++) {
+            String setName = added.get(k);
+            if (added.indexOf(setName) < k || hasSet(g, first, last, setName)) continue;
+            Nodemapper oc = NodemapperOperator.get(o, setWords.get(setName));
+            if ((matched = memberMatch(i, -1, oc, ctx, starState, starIndex, setName)) != null) return matched;
+        }
+        return null;
+    }
+
+    private static boolean hasSet(FrozenGraph g, int first, int last, String setName) {
+        for (int s = first; s < last; s++) if (g.setName[s].equals(setName)) return true;
+        return false;
+    }
+
+    private final Category memberMatch(int i, int fc, Nodemapper oc, MatchContext ctx, int starState, int starIndex, String setName) {
+        String[] words = ctx.words;
+        AIMLSet aimlSet = setMap.get(setName);
+        if ((fc < 0 && oc == null) || aimlSet == null) return null;
+        Category matched;
+        if (aimlSet.hasTokens()) {
+            int end = i;
+            while (end < words.length-1 && !words[end].equals("<THAT>") && !words[end].equals("<TOPIC>")) end++;
+            for (int memberLength : aimlSet.memberLengths(ctx.upperWords, i, end)) {
+                int j = i + memberLength;
+                if ((matched = match(j, fc, oc, ctx, starState, starIndex + 1)) != null) {
+                    ctx.setStar(starState, starIndex, i, j);
+                    return matched;
+                }
+            }
             return null;
         }
+        String currentWord = words[i];
+        String starWords = currentWord+" ";
+        int length = 1;
+        for (int j = i+1; j < words.length && !currentWord.equals("<THAT>") && !currentWord.equals("<TOPIC>") && length <= aimlSet.maxLength; j++) {
+            if (aimlSet.contains(starWords.trim().toUpperCase()) && (matched = match(j, fc, oc, ctx, starState, starIndex + 1)) != null) {
+                ctx.setStar(starState, starIndex, i, j);
+                return matched;
+            }
+            length = length + 1;
+            currentWord = words[j];
+            starWords += currentWord + " ";
+        }
+        return null;
     }
 
     /**
-     * print out match trace when search fails
+     * hook for tracing failed searches
      *
      * @param mode   Which mode of search
-     * @param trace  Match trace info
      */
-    void fail (String mode, String trace) {
-       // System.out.println("Match failed ("+mode+") "+trace);
+    void fail (String mode) {
+       // System.out.println("Match failed ("+mode+")");
     }
 
     /**
      * a match is found if the end of the path is reached and the node is a leaf node
      *
-     * @param path     remaining path
+     * @param i        index of the first word of the remaining path
      * @param node     current search node
-     * @param matchTrace   trace of match for debugging purposes
-     * @return         matching leaf node or null if no match found
+     * @param ctx      match context
+     * @return         matching leaf node or -1 if no match found
      */
-    final Nodemapper nullMatch(Path path, Nodemapper node, String matchTrace) {
-        if (path == null && node != null && NodemapperOperator.isLeaf(node) && node.category != null) return node;
+    final int nullMatch(int i, int node, MatchContext ctx) {
+        if (i >= ctx.words.length && ctx.graph.isLeaf(node)) return node;
         else {
-            fail("null", matchTrace);
-            return null;
+            fail("null");
+            return -1;
         }
     }
 
 
-    final Nodemapper shortCutMatch(Path path, Nodemapper node, String inputThatTopic, String starState, int starIndex, String[] inputStars, String[] thatStars, String[] topicStars, String matchTrace) {
-        if (node != null && node.shortCut && path.word.equals("<THAT>") && node.category != null) {
-            String tail = Path.pathToSentence(path).trim();
-            //System.out.println("Shortcut tail = "+tail);
-            String that = tail.substring(tail.indexOf("<THAT>")+"<THAT>".length(), tail.indexOf("<TOPIC>")).trim();
-            String topic = tail.substring(tail.indexOf("<TOPIC>")+"<TOPIC>".length(), tail.length()).trim();
-            //System.out.println("Shortcut that = "+that+" topic = "+topic);
-            //System.out.println("Shortcut matched: "+node.category.inputThatTopic());
-            thatStars[0] = that;
-            topicStars[0] = topic;
+    final int shortCutMatch(int i, int node, MatchContext ctx, int starState, int starIndex) {
+        if (ctx.graph.shortCut[node] && ctx.words[i].equals("<THAT>") && ctx.graph.isLeaf(node)) {
+            int topicIndex = i;
+            while (topicIndex < ctx.words.length && !ctx.words[topicIndex].equals("<TOPIC>")) topicIndex++;
+            //System.out.println("Shortcut matched: "+ctx.graph.category[node].inputThatTopic());
+            ctx.setStar(MatchContext.thatStar, 0, i+1, topicIndex);
+            ctx.setStar(MatchContext.topicStar, 0, topicIndex+1, ctx.words.length);
             return node;
         }
         else {
-            fail("shortCut", matchTrace);
-            return null;
+            fail("shortCut");
+            return -1;
         }
     }
-    final Nodemapper wordMatch(Path path, Nodemapper node, String inputThatTopic, String starState, int starIndex, String[] inputStars, String[] thatStars, String[] topicStars, String matchTrace) {
-        Nodemapper matchedNode;
+    final int wordMatch(int i, int node, MatchContext ctx, int starState, int starIndex) {
+        int matchedNode;
         try {
-            String uword = path.word.toUpperCase();
-            if (uword.equals("<THAT>")) {starIndex = 0; starState = "thatStar";}
-            else if (uword.equals("<TOPIC>")) {starIndex = 0; starState = "topicStar";}
-            //System.out.println("path.next= "+path.next+" node.get="+node.get(uword));
-            matchTrace += "["+uword+","+uword+"]";
-            if (path != null && NodemapperOperator.containsKey(node, uword) &&
-                    (matchedNode = match(path.next, NodemapperOperator.get(node, uword), inputThatTopic, starState, starIndex, inputStars, thatStars, topicStars, matchTrace)) != null)  {
+            int uword = ctx.ids[i];
+            if (uword == SymbolTable.that) {starIndex = 0; starState = MatchContext.thatStar;}
+            else if (uword == SymbolTable.topic) {starIndex = 0; starState = MatchContext.topicStar;}
+            int nextNode = ctx.graph.child(node, uword);
+            if (nextNode >= 0 &&
+                    (matchedNode = match(i+1, nextNode, ctx, starState, starIndex)) >= 0)  {
                  return matchedNode;
             } else {
-                fail("word", matchTrace);
-                return null;
+                fail("word");
+                return -1;
             }
         } catch (Exception ex) {
-            System.out.println("wordMatch: "+Path.pathToSentence(path)+": "+ex);
+            System.out.println("wordMatch: "+ctx.words[i]+": "+ex);
             ex.printStackTrace();
-            return null;
+            return -1;
         }
     }
-    final Nodemapper dollarMatch(Path path, Nodemapper node, String inputThatTopic, String starState, int starIndex, String[] inputStars, String[] thatStars, String[] topicStars, String matchTrace) {
-        String uword = "$"+path.word.toUpperCase();
-        Nodemapper matchedNode;
-        if (path != null && NodemapperOperator.containsKey(node, uword) && (matchedNode = match(path.next, NodemapperOperator.get(node, uword), inputThatTopic, starState, starIndex, inputStars, thatStars, topicStars, matchTrace)) != null)  {
+    final int dollarMatch(int i, int node, MatchContext ctx, int starState, int starIndex) {
+        int nextNode = ctx.graph.child(node, ctx.dollarIds[i]);
+        int matchedNode;
+        if (nextNode >= 0 && (matchedNode = match(i+1, nextNode, ctx, starState, starIndex)) >= 0)  {
             return matchedNode;
         } else {
-            fail("dollar", matchTrace);
-            return null;
+            fail("dollar");
+            return -1;
         }
     }
-    final Nodemapper starMatch(Path path, Nodemapper node, String input, String starState, int starIndex, String[] inputStars, String[] thatStars, String[] topicStars, String matchTrace) {
-        return wildMatch(path, node, input, starState, starIndex, inputStars, thatStars, topicStars, "*", matchTrace);
+    final int starMatch(int i, int node, MatchContext ctx, int starState, int starIndex) {
+        return wildMatch(i, node, ctx, starState, starIndex, SymbolTable.star);
     }
-    final Nodemapper underMatch(Path path, Nodemapper node, String input, String starState, int starIndex, String[] inputStars, String[] thatStars, String[] topicStars, String matchTrace) {
-        return wildMatch(path, node, input, starState, starIndex, inputStars, thatStars, topicStars, "_", matchTrace);
+    final int underMatch(int i, int node, MatchContext ctx, int starState, int starIndex) {
+        return wildMatch(i, node, ctx, starState, starIndex, SymbolTable.underscore);
     }
-    final Nodemapper caretMatch(Path path, Nodemapper node, String input, String starState, int starIndex, String[] inputStars, String[] thatStars, String[] topicStars, String matchTrace) {
-        Nodemapper matchedNode;
-        matchedNode = zeroMatch(path, node, input, starState, starIndex, inputStars, thatStars, topicStars, "^", matchTrace);
-        if (matchedNode != null) return matchedNode;
-        else return wildMatch(path, node, input, starState, starIndex, inputStars, thatStars, topicStars, "^", matchTrace);
+    final int caretMatch(int i, int node, MatchContext ctx, int starState, int starIndex) {
+        int matchedNode;
+        matchedNode = zeroMatch(i, node, ctx, starState, starIndex, SymbolTable.caret);
+        if (matchedNode >= 0) return matchedNode;
+        else return wildMatch(i, node, ctx, starState, starIndex, SymbolTable.caret);
     }
-    final Nodemapper sharpMatch(Path path, Nodemapper node, String input, String starState, int starIndex, String[] inputStars, String[] thatStars, String[] topicStars, String matchTrace) {
-        //System.out.println("Entering sharpMatch with path.word="+path.word); NodemapperOperator.printKeys(node);
-        Nodemapper matchedNode;
-        matchedNode = zeroMatch(path, node, input, starState, starIndex, inputStars, thatStars, topicStars, "#", matchTrace);
-        if (matchedNode != null) return matchedNode;
+    final int sharpMatch(int i, int node, MatchContext ctx, int starState, int starIndex) {
+        //System.out.println("Entering sharpMatch with word="+ctx.words[i]);
+        int matchedNode;
+        matchedNode = zeroMatch(i, node, ctx, starState, starIndex, SymbolTable.sharp);
+        if (matchedNode >= 0) return matchedNode;
         else
-        return wildMatch(path, node, input, starState, starIndex, inputStars, thatStars, topicStars, "#", matchTrace);
-    }
-    final Nodemapper zeroMatch(Path path, Nodemapper node, String input, String starState, int starIndex,
-                               String[] inputStars, String[] thatStars, String[] topicStars, String wildcard, String matchTrace) {
-        // System.out.println("Entering zeroMatch on "+path.word+" "+NodemapperOperator.get(node, wildcard));
-        matchTrace += "["+wildcard+",]";
-        if (path != null && NodemapperOperator.containsKey(node, wildcard)) {
-            setStars(bot.properties.get(MagicStrings.null_star), starIndex, starState, inputStars, thatStars, topicStars);
-            Nodemapper nextNode = NodemapperOperator.get(node, wildcard);
-            return match(path, nextNode, input, starState, starIndex+1, inputStars, thatStars, topicStars, matchTrace);
+        return wildMatch(i, node, ctx, starState, starIndex, SymbolTable.sharp);
+    }
+    final int zeroMatch(int i, int node, MatchContext ctx, int starState, int starIndex, int wildcard) {
+        // System.out.println("Entering zeroMatch on "+ctx.words[i]+" "+ctx.graph.child(node, wildcard));
+        int nextNode = ctx.graph.child(node, wildcard);
+        if (nextNode >= 0) {
+            ctx.setStar(starState, starIndex, MatchContext.nullStar, MatchContext.nullStar);
+            return match(i, nextNode, ctx, starState, starIndex+1);
         }
         else {
-            fail("zero "+wildcard, matchTrace);
-            return null;
+            fail("zero");
+            return -1;
         }
 
     }
-    final Nodemapper wildMatch(Path path, Nodemapper node, String input, String starState, int starIndex,
-                               String[] inputStars, String[] thatStars, String[] topicStars, String wildcard, String matchTrace) {
-        Nodemapper matchedNode;
-        if (path.word.equals("<THAT>") || path.word.equals("<TOPIC>")) {
-            fail("wild1 "+wildcard, matchTrace);
-            return null;
+    final int wildMatch(int i, int node, MatchContext ctx, int starState, int starIndex, int wildcard) {
+        int matchedNode;
+        String[] words = ctx.words;
+        if (words[i].equals("<THAT>") || words[i].equals("<TOPIC>")) {
+            fail("wild1");
+            return -1;
         }
         try {
-            if (path != null && NodemapperOperator.containsKey(node, wildcard)) {
-                matchTrace += "["+wildcard+","+path.word+"]";
-                String currentWord;
-                String starWords;
-                Path pathStart;
-                currentWord = path.word;
-                starWords = currentWord+" ";
-                pathStart = path.next;
-                Nodemapper nextNode = NodemapperOperator.get(node, wildcard);
-                if (NodemapperOperator.isLeaf(nextNode) && !nextNode.shortCut) {
+            int nextNode = ctx.graph.child(node, wildcard);
+            if (nextNode >= 0) {
+                String currentWord = words[i];
+                if (ctx.graph.isLeaf(nextNode) && !ctx.graph.shortCut[nextNode]) {
                     matchedNode = nextNode;
-                    starWords = Path.pathToSentence(path);
-                    //System.out.println(starIndex+". starwords="+starWords);
-                    setStars(starWords, starIndex, starState, inputStars, thatStars, topicStars);
+                    ctx.setStar(starState, starIndex, i, words.length);
                     return matchedNode;
                 }
                 else {
-                    for (path = pathStart; path != null && !currentWord.equals("<THAT>") && !currentWord.equals("<TOPIC>"); path = path.next) {
-                        matchTrace += "["+wildcard+","+path.word+"]";
-                        if ((matchedNode = match(path, nextNode, input, starState, starIndex + 1, inputStars, thatStars, topicStars, matchTrace)) != null) {
-                            setStars(starWords, starIndex, starState, inputStars, thatStars, topicStars);
+                    for (int j = i+1; j < words.length && !currentWord.equals("<THAT>") && !currentWord.equals("<TOPIC>"); j++) {
+                        if ((matchedNode = match(j, nextNode, ctx, starState, starIndex + 1)) >= 0) {
+                            ctx.setStar(starState, starIndex, i, j);
                             return matchedNode;
                         }
                         else {
-                            currentWord = path.word;
-                            starWords += currentWord + " ";
+                            currentWord = words[j];
                         }
                     }
-                    fail("wild2 "+wildcard, matchTrace);
-                    return null;
+                    fail("wild2");
+                    return -1;
                 }
             }
         } catch (Exception ex) {
-            System.out.println("wildMatch: "+Path.pathToSentence(path)+": "+ex);
+            System.out.println("wildMatch: "+words[i]+": "+ex);
         }
-        fail("wild3 "+wildcard, matchTrace);
-        return null;
+        fail("wild3");
+        return -1;
     }
 
-   final Nodemapper setMatch(Path path, Nodemapper node, String input, String starState, int starIndex, String[] inputStars, String[] thatStars, String[] topicStars, String matchTrace) {
-       if (node.sets == null || path.word.equals("<THAT>") || path.word.equals("<TOPIC>")) return null;
-       //System.out.println("setMatch sets ="+node.sets);
-       for (String setName : node.sets) {
+   final int setMatch(int i, int node, MatchContext ctx, int starState, int starIndex) {
+       String[] words = ctx.words;
+       FrozenGraph g = ctx.graph;
+       if (g.firstSet[node] == g.firstSet[node+1] || words[i].equals("<THAT>") || words[i].equals("<TOPIC>")) return -1;
+       for (int s = g.firstSet[node]; s < g.firstSet[node+1]; s++) {
+           String setName = g.setName[s];
            //System.out.println("setMatch trying type "+setName);
-           Nodemapper nextNode = NodemapperOperator.get(node, "<SET>"+setName.toUpperCase()+"</SET>");
-           AIMLSet aimlSet = bot.setMap.get(setName);
+           int nextNode = g.setNode[s];
+           if (nextNode < 0) continue;
+           AIMLSet aimlSet = setMap.get(setName);
+           if (aimlSet == null) continue;
            //System.out.println(aimlSet.setName + "="+ aimlSet);
-           Nodemapper matchedNode;
-           String currentWord = path.word;
-           String starWords = currentWord+" ";
+           int matchedNode;
+           String currentWord = words[i];
            int length = 1;
-           matchTrace += "[<set>"+setName+"</set>,"+path.word+"]";
+           // the input was normalized once per request, so the words are compared as they are
+           if (aimlSet.hasTokens()) {
+               // a phrase stops before <THAT> or <TOPIC>, and before the last word of the path
+               int end = i;
+               while (end < words.length-1 && !words[end].equals("<THAT>") && !words[end].equals("<TOPIC>")) end++;
+               for (int memberLength : aimlSet.memberLengths(ctx.upperWords, i, end)) {
+                   int j = i + memberLength;
+                   if ((matchedNode = match(j, nextNode, ctx, starState, starIndex + 1)) >= 0) {
+                       ctx.setStar(starState, starIndex, i, j);
+                       return matchedNode;
+                   }
+               }
+               continue;
+           }
+           String starWords = currentWord+" ";
            //System.out.println("setMatch starWords =\""+starWords+"\"");
-           for (Path qath = path.next; qath != null &&  !currentWord.equals("<THAT>") && !currentWord.equals("<TOPIC>") && length <= aimlSet.maxLength; qath = qath.next) {
-               //System.out.println("qath.word = "+qath.word);
-               String phrase = bot.preProcessor.normalize(starWords.trim()).toUpperCase();
+           for (int j = i+1; j < words.length &&  !currentWord.equals("<THAT>") && !currentWord.equals("<TOPIC>") && length <= aimlSet.maxLength; j++) {
+               //System.out.println("words[j] = "+words[j]);
+               String phrase = starWords.trim().toUpperCase();
                //System.out.println("setMatch trying \""+phrase+"\" in "+setName);
-               if (aimlSet.contains(phrase) && (matchedNode = match(qath, nextNode, input, starState, starIndex + 1, inputStars, thatStars, topicStars, matchTrace)) != null) {
-                   setStars(starWords, starIndex, starState, inputStars, thatStars, topicStars);
+               if (aimlSet.contains(phrase) && (matchedNode = match(j, nextNode, ctx, starState, starIndex + 1)) >= 0) {
+                   ctx.setStar(starState, starIndex, i, j);
                    //System.out.println("setMatch found "+phrase+" in "+setName);
                    return matchedNode;
                }
-           //    else if (qath.word.equals("<THAT>") || qath.word.equals("<TOPIC>")) return null;
+           //    else if (words[j].equals("<THAT>") || words[j].equals("<TOPIC>")) return null;
                else {
                    length = length + 1;
-                   currentWord = qath.word;
+                   currentWord = words[j];
                    starWords += currentWord + " ";
                }
            }
        }
-       fail("set", matchTrace);
-       return null;
+       fail("set");
+       return -1;
    }
 
-    public void setStars(String starWords, int starIndex, String starState, String[] inputStars, String[] thatStars, String[] topicStars) {
-    if (starIndex < MagicNumbers.max_stars) {
-        starWords = starWords.trim();
-        if (starState.equals("inputStar")) inputStars[starIndex] = starWords;
-        else if (starState.equals("thatStar")) thatStars[starIndex] = starWords;
-        else if (starState.equals("topicStar")) topicStars[starIndex] = starWords;
-        }
-    }
-    public void printgraph () {
+    public synchronized void printgraph () {
         printgraph(root, "");
+        if (frozen != null) printgraph(frozen, 0, "");
     }
     void printgraph(Nodemapper node, String partial) {
         if (node == null) System.out.println("Null graph");
@@ -519,21 +801,51 @@ public class Graphmaster {
             if (NodemapperOperator.isLeaf(node) || node.shortCut) {
                 template = Category.templateToLine(node.category.getTemplate());
                 template = template.substring(0, Math.min(16, template.length()));
-                if (node.shortCut) System.out.println(partial+"("+NodemapperOperator.size(node)+"["+node.key+","+node.value+"])--<THAT>-->X(1)--*-->X(1)--<TOPIC>-->X(1)--*-->"+template+"...");
-                else System.out.println(partial+"("+NodemapperOperator.size(node)+"["+node.key+","+node.value+"]) "+template+"...");
+                String key = (node.key == SymbolTable.unknown ? null : bot.symbols.word(node.key));
+                if (node.shortCut) System.out.println(partial+"("+NodemapperOperator.size(node)+"["+key+","+node.value+"])--<THAT>-->X(1)--*-->X(1)--<TOPIC>-->X(1)--*-->"+template+"...");
+                else System.out.println(partial+"("+NodemapperOperator.size(node)+"["+key+","+node.value+"]) "+template+"...");
             }
-            for (String key : NodemapperOperator.keySet(node)) {
+            for (int i = 0; i < NodemapperOperator.slots(node); i++) {
+                int key = NodemapperOperator.keyAt(node, i);
+                if (key == SymbolTable.unknown) continue;
                 //System.out.println(key);
-                printgraph(NodemapperOperator.get(node, key), partial+"("+NodemapperOperator.size(node)+"["+node.height+"])--"+key+"-->");
+                printgraph(NodemapperOperator.valueAt(node, i), partial+"("+NodemapperOperator.size(node)+"["+node.height+"])--"+bot.symbols.word(key)+"-->");
             }
         }
     }
-    public ArrayList<Category> getCategories() {
+    void printgraph(FrozenGraph g, int node, String partial) {
+        if (g.isLeaf(node) || g.shortCut[node]) {
+            String template = Category.templateToLine(g.category[node].getTemplate());
+            template = template.substring(0, Math.min(16, template.length()));
+            if (g.shortCut[node]) System.out.println(partial+"("+g.size(node)+"["+node+"])--<THAT>-->X(1)--*-->X(1)--<TOPIC>-->X(1)--*-->"+template+"...");
+            else System.out.println(partial+"("+g.size(node)+"["+node+"]) "+template+"...");
+        }
+        for (int e = g.firstEdge[node]; e < g.firstEdge[node+1]; e++) {
+            printgraph(g, e+1, partial+"("+g.size(node)+"["+g.height[node]+"])--"+bot.symbols.word(g.edgeLabel[e])+"-->");
+        }
+    }
+    public synchronized ArrayList<Category> getCategories() {
         ArrayList<Category> categories = new ArrayList<Category>();
+        if (frozen != null) {
+            for (int n = 0; n < frozen.nodeCount; n++) {
+                if (frozen.category[n] != null && !replaced.get(n)) categories.add(frozen.category[n]);
+            }
+        }
         getCategories(root, categories);
         //for (Category c : categories) System.out.println("getCategories: "+c.inputThatTopic()+" "+c.getTemplate());
         return categories;
     }
+
+    /**
+     * the categories added since freeze(), e.g. by {@code <learn>}
+     *
+     * @return  list of categories
+     */
+    public synchronized ArrayList<Category> getAddedCategories() {
+        ArrayList<Category> categories = new ArrayList<Category>();
+        getCategories(root, categories);
+        return categories;
+    }
     void getCategories(Nodemapper node, ArrayList<Category> categories) {
         if (node == null) return;
 
@@ -542,9 +854,8 @@ public class Graphmaster {
             if (NodemapperOperator.isLeaf(node) || node.shortCut) {
                 if (node.category != null) categories.add(node.category);   // node.category == null when the category is deleted.
             }
-            for (String key : NodemapperOperator.keySet(node)) {
-                //System.out.println(key);
-                getCategories(NodemapperOperator.get(node, key), categories);
+            for (int i = 0; i < NodemapperOperator.slots(node); i++) {
+                if (NodemapperOperator.keyAt(node, i) != SymbolTable.unknown) getCategories(NodemapperOperator.valueAt(node, i), categories);
             }
         }
     }
@@ -555,7 +866,7 @@ public class Graphmaster {
     int singletonCnt;
     int shortCutCnt;
     int naryCnt;
-    public void nodeStats() {
+    public synchronized void nodeStats() {
         leafCnt = 0;
         nodeCnt = 0;
         nodeSize = 0;
@@ -563,39 +874,48 @@ public class Graphmaster {
         shortCutCnt = 0;
         naryCnt = 0;
         nodeStatsGraph(root);
+        if (frozen != null) nodeStatsGraph(frozen);
         resultNote = nodeCnt+" nodes "+singletonCnt+" singletons "+leafCnt+" leaves "+shortCutCnt+" shortcuts "+naryCnt+" n-ary "+nodeSize+" branches "+(float)nodeSize/(float)nodeCnt+" average branching ";
         System.out.println(resultNote);
     }
     public void nodeStatsGraph(Nodemapper node) {
         if (node != null) {
             //System.out.println("Counting "+node.key+ " size="+NodemapperOperator.size(node));
+            int size = NodemapperOperator.size(node);
             nodeCnt++;
-            nodeSize += NodemapperOperator.size(node);
-            if (NodemapperOperator.size(node) == 1) singletonCnt += 1;
+            nodeSize += size;
+            if (size == 1) singletonCnt += 1;
             if (NodemapperOperator.isLeaf(node) && !node.shortCut) {
                 leafCnt++;
             }
-            if (NodemapperOperator.size(node) > 1) naryCnt += 1;
+            if (size > 1) naryCnt += 1;
             if (node.shortCut) {shortCutCnt += 1;}
-            for (String key : NodemapperOperator.keySet(node)) {
-                    nodeStatsGraph(NodemapperOperator.get(node, key));
+            for (int i = 0; i < NodemapperOperator.slots(node); i++) {
+                if (NodemapperOperator.keyAt(node, i) != SymbolTable.unknown) nodeStatsGraph(NodemapperOperator.valueAt(node, i));
             }
         }
     }
-
-    public HashSet<String> getVocabulary () {
-        vocabulary = new HashSet<String>();
-        getBrainVocabulary(root);
-        for (String set : bot.setMap.keySet()) vocabulary.addAll(bot.setMap.get(set));
-        return vocabulary;
-    }
-    public void getBrainVocabulary(Nodemapper node) {
-        if (node != null) {
-            //System.out.println("Counting "+node.key+ " size="+NodemapperOperator.size(node));
-            for (String key : NodemapperOperator.keySet(node)) {
-                vocabulary.add(key);
-                getBrainVocabulary(NodemapperOperator.get(node, key));
-            }
+    void nodeStatsGraph(FrozenGraph g) {
+        for (int n = 0; n < g.nodeCount; n++) {
+            int size = g.size(n);
+            nodeCnt++;
+            nodeSize += size;
+            if (size == 1) singletonCnt += 1;
+            if (g.isLeaf(n) && !g.shortCut[n]) leafCnt++;
+            if (size > 1) naryCnt += 1;
+            if (g.shortCut[n]) shortCutCnt += 1;
         }
     }
+
+    /**
+     * words the graph can recognize: pattern words and the members of the bot's sets.
+     * The set is kept up to date as categories are added; vocabularyCnt holds its size.
+     *
+     * @return    a copy of the vocabulary
+     */
+    public synchronized HashSet<String> getVocabulary () {
+        HashSet<String> result = new HashSet<String>(vocabulary);
+        for (AIMLSet set : setMap.values()) result.addAll(set);
+        return result;
+    }
 }
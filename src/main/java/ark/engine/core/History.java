@@ -19,14 +19,21 @@ package ark.engine.core;
         Boston, MA  02110-1301, USA.
 */
 
+import java.io.*;
+
 /**
- * History object to maintain history of input, that request and response
+ * History object to maintain history of input, that request and response.
+ * Items are kept in a fixed-size ring buffer, so adding an item never shifts the older ones.
+ * Only String histories can be written to and read from a session store.
  *
  * @param <T>    type of history object
  */
-public class History<T> {
+public class History<T> implements Externalizable {
+    private static final long serialVersionUID = 1L;
     private Object[] history;
     private String name;
+    private int head = -1;     // slot of the most recent item
+    private int size = 0;      // number of items stored, at most history.length
 
     /**
      * Constructor with default history name
@@ -51,24 +58,24 @@ public class History<T> {
      * @param item    history item to add
      */
     public void add(T item) {
-        for (int i = MagicNumbers.max_history-1; i > 0; i--) {
-              history[i] = history[i-1];
-        }
-        history[0] = item;
+        store(item);
+    }
+
+    private void store(Object item) {
+        head = (head + 1) % history.length;
+        history[head] = item;
+        if (size < history.length) size++;
     }
 
     /**
      * get an item from history
      *
-     * @param index       history index
+     * @param index       history index, 0 for the most recent item
      * @return            history item
      */
     public T get (int index) {
-        if (index < MagicNumbers.max_history) {
-            if (history[index] == null) return null;
-            else return (T)history[index];
-        }
-        else return null;
+        if (index < 0 || index >= size) return null;
+        return (T)history[(head - index + history.length) % history.length];
     }
 
     /**
@@ -79,12 +86,57 @@ public class History<T> {
      */
     public String getString (int index) {
         if (index < MagicNumbers.max_history) {
-            if (history[index] == null) return MagicStrings.unknown_history_item;
-            else return (String)history[index];
+            Object item = get(index);
+            if (item == null) return MagicStrings.unknown_history_item;
+            else return (String)item;
         }
         else return null;
     }
 
+    /**
+     * number of items in history
+     *
+     * @return    history size
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * write the history items, oldest first
+     *
+     * @param out     binary output
+     * @throws IOException
+     */
+    public void write(DataOutput out) throws IOException {
+        Utilities.writeString(out, name);
+        out.writeInt(size);
+        for (int i = size-1; i >= 0; i--) Utilities.writeString(out, (String)get(i));
+    }
+
+    /**
+     * replace the history with items written by write()
+     *
+     * @param in      binary input
+     * @throws IOException
+     */
+    public void read(DataInput in) throws IOException {
+        name = Utilities.readString(in);
+        java.util.Arrays.fill(history, null);
+        head = -1;
+        size = 0;
+        int n = in.readInt();
+        for (int i = 0; i < n; i++) store(Utilities.readString(in));
+    }
+
+    public void writeExternal(ObjectOutput out) throws IOException {
+        write(out);
+    }
+
+    public void readExternal(ObjectInput in) throws IOException {
+        read(in);
+    }
+
     /**
      * print history
      */
@@ -92,8 +144,6 @@ public class History<T> {
         int i;
         for (i = 0; get(i) != null; i++) {
             System.out.println(name+"History "+(i+1)+" = "+get(i));
-            System.out.println(String.valueOf(get(i).getClass()).contains("History"));
-            if (String.valueOf(get(i).getClass()).contains("History")) ((History)get(i)).printHistory();
         }
     }
 }
@@ -0,0 +1,166 @@
+package ark.engine.core;
+/* Program AB Reference AIML 2.0 implementation
+        Copyright (C) 2013 ALICE A.I. Foundation
+        Contact: info@alicebot.org
+
+        This library is free software; you can redistribute it and/or
+        modify it under the terms of the GNU Library General Public
+        License as published by the Free Software Foundation; either
+        version 2 of the License, or (at your option) any later version.
+
+        This library is distributed in the hope that it will be useful,
+        but WITHOUT ANY WARRANTY; without even the implied warranty of
+        MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+        Library General Public License for more details.
+
+        You should have received a copy of the GNU Library General Public
+        License along with this library; if not, write to the
+        Free Software Foundation, Inc., 51 Franklin St, Fifth Floor,
+        Boston, MA  02110-1301, USA.
+*/
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Append-only journal for categories learned with {@code <learnf>}.
+ *
+ * Each learned category is queued as one AIMLIF line.  A background thread drains the
+ * queue in batches and appends them to the learnf AIMLIF file, so a chat request never
+ * waits on file I/O.  When a category is relearned the journal holds several lines for the
+ * same path; the last one wins when the file is read back.  Compaction rewrites the file
+ * from learnfGraph, dropping the superseded lines.  It runs after
+ * MagicNumbers.learnf_compact_threshold appended records and when the journal is closed,
+ * by Bot.close() or at JVM exit.
+ */
+public class LearnfJournal implements Closeable {
+    private final Bot bot;
+    private final LinkedBlockingQueue<String> queue = new LinkedBlockingQueue<String>();
+    private Thread writer = null;
+    private int appendedSinceCompaction = 0;
+    public final AtomicLong pendingCount = new AtomicLong();
+    public final AtomicLong flushedCount = new AtomicLong();
+
+    /**
+     * Constructor
+     *
+     * @param bot      bot whose learnfGraph is journaled
+     */
+    public LearnfJournal(Bot bot) {
+        this.bot = bot;
+    }
+
+    /**
+     * queue a learned category for writing
+     *
+     * @param category     category learned with {@code <learnf>}
+     */
+    public void append(Category category) {
+        startWriter();
+        pendingCount.incrementAndGet();
+        queue.add(Category.categoryToIF(category));
+    }
+
+    private synchronized void startWriter() {
+        if (writer != null) return;
+        writer = new Thread(new Runnable() {
+            public void run() {
+                writeLoop();
+            }
+        }, "learnf-journal");
+        writer.setDaemon(true);
+        writer.start();
+        ShutdownHook.register(this);
+    }
+
+    private void writeLoop() {
+        ArrayList<String> batch = new ArrayList<String>();
+        while (true) {
+            try {
+                batch.add(queue.take());
+                queue.drainTo(batch);
+                synchronized (this) {
+                    appendRecords(batch);
+                    if (appendedSinceCompaction >= MagicNumbers.learnf_compact_threshold) compactFile();
+                }
+            } catch (InterruptedException ex) {
+                return;
+            } catch (Exception ex) {
+                ex.printStackTrace();
+            }
+            batch.clear();
+        }
+    }
+
+    /**
+     * write queued records, then rewrite the journal file from learnfGraph
+     * so it holds exactly one line per learned category.
+     */
+    public synchronized void compact() {
+        ArrayList<String> batch = new ArrayList<String>();
+        queue.drainTo(batch);
+        compactFile();
+        flushedCount.addAndGet(batch.size());
+        pendingCount.addAndGet(-batch.size());
+    }
+
+    /**
+     * stop the writer thread and compact the journal.  A later append starts a new writer.
+     */
+    public void close() {
+        Thread w;
+        synchronized (this) {
+            w = writer;
+            writer = null;
+        }
+        if (w == null) return;
+        ShutdownHook.unregister(this);
+        w.interrupt();
+        try {
+            w.join();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+        compact();
+    }
+
+    private void appendRecords(ArrayList<String> batch) {
+        if (batch.isEmpty()) return;
+        File dir = new File(MagicStrings.aimlif_path);
+        if (dir.exists()) {
+            BufferedWriter bw = null;
+            try {
+                bw = new BufferedWriter(new FileWriter(MagicStrings.aimlif_path+"/"+MagicStrings.learnf_aiml_file+MagicStrings.aimlif_file_suffix, true));
+                for (String line : batch) {
+                    bw.write(line);
+                    bw.newLine();
+                }
+            } catch (IOException ex) {
+                ex.printStackTrace();
+            } finally {
+                try {
+                    if (bw != null) bw.close();
+                } catch (IOException ex) {
+                    ex.printStackTrace();
+                }
+            }
+            dir.setLastModified(new Date().getTime());
+        }
+        appendedSinceCompaction += batch.size();
+        flushedCount.addAndGet(batch.size());
+        pendingCount.addAndGet(-batch.size());
+    }
+
+    private void compactFile() {
+        synchronized (bot.learnfGraph) {
+            bot.writeLearnfIFCategories();
+        }
+        appendedSinceCompaction = 0;
+    }
+}
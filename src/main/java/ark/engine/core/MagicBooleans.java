@@ -28,4 +28,6 @@ public class MagicBooleans {
     public static boolean enable_external_maps = true;
     public static boolean jp_morphological_analysis = false;
     public static boolean fix_excel_csv = true;
+    public static boolean enable_hot_reload = false;
+    public static boolean record_matches = false;    // keep each category's matching inputs, for AB training
 }
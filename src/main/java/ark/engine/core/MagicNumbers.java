@@ -36,4 +36,19 @@ public class MagicNumbers {
     public static int max_loops = 10000;
     public static int estimated_brain_size = 5000;
     public static int max_natural_number_digits = 10000;
+    public static int learnf_compact_threshold = 1000;
+    public static int aimlif_write_batch = 10;
+    public static int reload_settle_ms = 500;
+    public static int external_lookup_ms = 1000;
+    public static int external_lookup_threads = 8;
+    public static int external_cache_size = 10000;
+    public static long external_cache_ttl_ms = 3600000;
+    public static long external_negative_ttl_ms = 60000;
+    public static int session_cache_size = 1000;
+    public static int session_store_mb = 256;
+    public static int session_file_mb = 16;
+    public static long session_ttl_ms = 1800000;
+    public static int session_memory_mb = 256;
+    public static long session_sweep_ms = 10000;
+    public static int max_inline_predicates = 16;
 }
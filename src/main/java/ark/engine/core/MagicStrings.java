@@ -97,5 +97,6 @@ public class MagicStrings {
     public static String log_path = bot_path+"/log";
     public static String sets_path = bot_path+"/sets";
     public static String maps_path = bot_path+"/maps";
+    public static String snapshot_path = bot_name_path+"/brain.snapshot";
 }
 
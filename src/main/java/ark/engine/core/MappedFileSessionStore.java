@@ -0,0 +1,224 @@
+package ark.engine.core;
+/* Program AB Reference AIML 2.0 implementation
+        Copyright (C) 2013 ALICE A.I. Foundation
+        Contact: info@alicebot.org
+
+        This library is free software; you can redistribute it and/or
+        modify it under the terms of the GNU Library General Public
+        License as published by the Free Software Foundation; either
+        version 2 of the License, or (at your option) any later version.
+
+        This library is distributed in the hope that it will be useful,
+        but WITHOUT ANY WARRANTY; without even the implied warranty of
+        MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+        Library General Public License for more details.
+
+        You should have received a copy of the GNU Library General Public
+        License along with this library; if not, write to the
+        Free Software Foundation, Inc., 51 Franklin St, Fifth Floor,
+        Boston, MA  02110-1301, USA.
+*/
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Session store kept in a memory-mapped log file.
+ *
+ * Each store appends a record [id length][session length][id][session], and a remove
+ * appends a record with session length -1.  The id length is written last, so a record
+ * cut short by a crash ends the log when the file is scanned on open.  The index from
+ * customer id to record lives on the heap; the sessions themselves stay in the
+ * mapping, where the OS pages them in and out.  The file grows by doubling, and
+ * it is compacted when more than half of it holds superseded records.
+ */
+public class MappedFileSessionStore implements SessionStore {
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+    private final File file;
+    private final long initialSize;
+    private RandomAccessFile raf;
+    private FileChannel channel;
+    private MappedByteBuffer buffer;
+    private final HashMap<String, int[]> index = new HashMap<String, int[]>();  // id -> {record offset, session offset, session length}
+    private int end = 0;              // offset of the next record
+    private int garbage = 0;          // bytes of superseded records and removals
+
+    /**
+     * Constructor
+     *
+     * @param fileName       session file, created if it does not exist
+     * @param initialSize    size of the initial mapping in bytes
+     * @throws IOException
+     */
+    public MappedFileSessionStore(String fileName, long initialSize) throws IOException {
+        this.file = new File(fileName);
+        this.initialSize = initialSize;
+        open();
+    }
+
+    /**
+     * Constructor with an initial mapping of MagicNumbers.session_file_mb
+     *
+     * @param fileName       session file
+     * @throws IOException
+     */
+    public MappedFileSessionStore(String fileName) throws IOException {
+        this(fileName, MagicNumbers.session_file_mb * 1024L * 1024L);
+    }
+
+    private void open() throws IOException {
+        raf = new RandomAccessFile(file, "rw");
+        channel = raf.getChannel();
+        map(Math.max(channel.size(), initialSize));
+        scan();
+    }
+
+    private void map(long size) throws IOException {
+        if (size > Integer.MAX_VALUE) throw new IOException("Session file "+file+" is full");
+        buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+    }
+
+    /**
+     * rebuild the index from the records in the file
+     */
+    private void scan() {
+        index.clear();
+        garbage = 0;
+        int pos = 0;
+        int limit = buffer.capacity();
+        while (pos + 8 <= limit) {
+            int idLength = buffer.getInt(pos);
+            int sessionLength = buffer.getInt(pos+4);
+            if (idLength <= 0 || pos + 8 + idLength + Math.max(sessionLength, 0) > limit) break;
+            byte[] id = new byte[idLength];
+            ByteBuffer view = buffer.duplicate();
+            view.position(pos+8);
+            view.get(id);
+            String customerId = new String(id, UTF8);
+            int size = 8 + idLength + Math.max(sessionLength, 0);
+            int[] old;
+            if (sessionLength < 0) {
+                old = index.remove(customerId);
+                garbage += size;
+            }
+            else old = index.put(customerId, new int[] {pos, pos+8+idLength, sessionLength});
+            if (old != null) garbage += recordSize(old);
+            pos += size;
+        }
+        end = pos;
+    }
+
+    private static int recordSize(int[] entry) {
+        return entry[1] - entry[0] + entry[2];
+    }
+
+    public synchronized byte[] load(String customerId) {
+        int[] entry = index.get(customerId);
+        if (entry == null) return null;
+        byte[] session = new byte[entry[2]];
+        ByteBuffer view = buffer.duplicate();
+        view.position(entry[1]);
+        view.get(session);
+        return session;
+    }
+
+    public synchronized void store(String customerId, byte[] session) throws IOException {
+        int[] entry = append(customerId, session);
+        int[] old = index.put(customerId, entry);
+        if (old != null) garbage += recordSize(old);
+    }
+
+    public synchronized void remove(String customerId) throws IOException {
+        if (!index.containsKey(customerId)) return;
+        int[] entry = append(customerId, null);
+        garbage += recordSize(index.remove(customerId)) + recordSize(entry);
+    }
+
+    public synchronized int size() {
+        return index.size();
+    }
+
+    public long droppedCount() {
+        return 0;       // the file grows instead
+    }
+
+    /**
+     * @return      bytes used by records in the file, including superseded ones
+     */
+    public synchronized int usedBytes() {
+        return end;
+    }
+
+    public synchronized void close() throws IOException {
+        buffer.force();
+        channel.close();
+        raf.close();
+    }
+
+    private int[] append(String customerId, byte[] session) throws IOException {
+        byte[] id = customerId.getBytes(UTF8);
+        int sessionLength = session == null ? 0 : session.length;
+        int size = 8 + id.length + sessionLength;
+        if (end + size + 8 > buffer.capacity()) makeRoom(size);
+        int pos = end;
+        buffer.putInt(pos+4, session == null ? -1 : session.length);
+        ByteBuffer view = buffer.duplicate();
+        view.position(pos+8);
+        view.put(id);
+        if (session != null) view.put(session);
+        buffer.putInt(pos, id.length);
+        end = pos + size;
+        return new int[] {pos, pos+8+id.length, sessionLength};
+    }
+
+    private void makeRoom(int size) throws IOException {
+        if (garbage > end / 2) compact();
+        long needed = (long)end + size + 8;
+        if (needed > buffer.capacity()) {
+            buffer.force();
+            map(Math.max(needed, 2L * buffer.capacity()));
+        }
+    }
+
+    /**
+     * rewrite the file with the live sessions only
+     *
+     * @throws IOException
+     */
+    private void compact() throws IOException {
+        File temp = new File(file.getPath()+".tmp");
+        RandomAccessFile out = new RandomAccessFile(temp, "rw");
+        try {
+            out.setLength(0);
+            FileChannel outChannel = out.getChannel();
+            for (Map.Entry<String, int[]> entry : index.entrySet()) {
+                int[] location = entry.getValue();
+                ByteBuffer record = buffer.duplicate();
+                record.position(location[0]);
+                record.limit(location[1] + location[2]);
+                while (record.hasRemaining()) outChannel.write(record);
+            }
+        } finally {
+            out.close();
+        }
+        buffer.force();
+        channel.close();
+        raf.close();
+        try {
+            Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException ex) {
+            Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+        open();
+    }
+}
@@ -0,0 +1,113 @@
+package ark.engine.core;
+/* Program AB Reference AIML 2.0 implementation
+        Copyright (C) 2013 ALICE A.I. Foundation
+        Contact: info@alicebot.org
+
+        This library is free software; you can redistribute it and/or
+        modify it under the terms of the GNU Library General Public
+        License as published by the Free Software Foundation; either
+        version 2 of the License, or (at your option) any later version.
+
+        This library is distributed in the hope that it will be useful,
+        but WITHOUT ANY WARRANTY; without even the implied warranty of
+        MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+        Library General Public License for more details.
+
+        You should have received a copy of the GNU Library General Public
+        License along with this library; if not, write to the
+        Free Software Foundation, Inc., 51 Franklin St, Fifth Floor,
+        Boston, MA  02110-1301, USA.
+*/
+import java.util.Arrays;
+
+/**
+ * Scratch space reused by Graphmaster for every match on one thread.
+ *
+ * Wildcard bindings are recorded as (start, end) word offsets into the tokenized
+ * input path rather than as Strings.  The offsets are copied into a StarBindings
+ * when a match succeeds, and the words are only joined when a template reads a star.
+ */
+class MatchContext {
+    static final int inputStar = 0;
+    static final int thatStar = 1;
+    static final int topicStar = 2;
+    static final int unset = -2;
+    static final int nullStar = -1;
+
+    FrozenGraph graph;
+    String[] words;
+    String[] upperWords = new String[64];
+    int[] ids = new int[64];
+    int[] dollarIds = new int[64];
+    long steps;
+    private final int[][] starts = new int[3][MagicNumbers.max_stars];
+    private final int[][] ends = new int[3][MagicNumbers.max_stars];
+    private final int[] used = new int[3];
+
+    MatchContext() {
+        for (int[] s : starts) Arrays.fill(s, unset);
+    }
+
+    /**
+     * prepare the context for matching a new input path.
+     * Each word is converted to upper case once and looked up in the symbol table once,
+     * as itself and in its $ form.
+     *
+     * @param words     tokenized "{@code input <THAT> that <TOPIC> topic}"
+     * @param symbols   the bot's table of pattern words
+     */
+    void reset(String[] words, SymbolTable symbols) {
+        this.words = words;
+        if (ids.length < words.length) {
+            ids = new int[words.length*2];
+            dollarIds = new int[words.length*2];
+            upperWords = new String[words.length*2];
+        }
+        for (int i = 0; i < words.length; i++) {
+            upperWords[i] = words[i].toUpperCase();
+            ids[i] = symbols.id(upperWords[i]);
+            dollarIds[i] = symbols.dollarOf(ids[i]);
+        }
+        steps = 0;
+        clearStars();
+    }
+
+    /**
+     * forget the wildcard bindings of a failed search
+     */
+    void clearStars() {
+        for (int k = 0; k < 3; k++) {
+            Arrays.fill(starts[k], 0, used[k], unset);
+            used[k] = 0;
+        }
+    }
+
+    /**
+     * record a wildcard binding
+     *
+     * @param starState     inputStar, thatStar or topicStar
+     * @param starIndex     index of the wildcard in its pattern
+     * @param start         index of the first word bound, or nullStar for an empty binding
+     * @param end           index after the last word bound
+     */
+    void setStar(int starState, int starIndex, int start, int end) {
+        if (starIndex < starts[starState].length) {
+            starts[starState][starIndex] = start;
+            ends[starState][starIndex] = end;
+            if (starIndex >= used[starState]) used[starState] = starIndex + 1;
+        }
+    }
+
+    /**
+     * copy the bindings recorded for one kind of wildcard
+     *
+     * @param starState     inputStar, thatStar or topicStar
+     * @param nullStarValue    value of an empty binding
+     * @return              wildcard bindings, up to the first unset wildcard
+     */
+    Stars stars(int starState, String nullStarValue) {
+        int count = 0;
+        while (count < used[starState] && starts[starState][count] != unset) count++;
+        return new Stars(words, Arrays.copyOf(starts[starState], count), Arrays.copyOf(ends[starState], count), nullStarValue);
+    }
+}
@@ -0,0 +1,43 @@
+package ark.engine.core;
+/* Program AB Reference AIML 2.0 implementation
+        Copyright (C) 2013 ALICE A.I. Foundation
+        Contact: info@alicebot.org
+
+        This library is free software; you can redistribute it and/or
+        modify it under the terms of the GNU Library General Public
+        License as published by the Free Software Foundation; either
+        version 2 of the License, or (at your option) any later version.
+
+        This library is distributed in the hope that it will be useful,
+        but WITHOUT ANY WARRANTY; without even the implied warranty of
+        MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+        Library General Public License for more details.
+
+        You should have received a copy of the GNU Library General Public
+        License along with this library; if not, write to the
+        Free Software Foundation, Inc., 51 Franklin St, Fifth Floor,
+        Boston, MA  02110-1301, USA.
+*/
+
+/**
+ * The outcome of matching an input against the Graphmaster: the category reached
+ * and the wildcard bindings collected on the way there.
+ *
+ * A MatchResult is built once per match and never modified afterwards, so the
+ * shared graph does not have to carry per-request state.
+ */
+public class MatchResult {
+    public final Category category;
+    public final StarBindings starBindings;
+
+    /**
+     * Constructor -- class has public members
+     *
+     * @param category        matching category
+     * @param starBindings    values bound to wildcards in input, that and topic patterns
+     */
+    public MatchResult(Category category, StarBindings starBindings) {
+        this.category = category;
+        this.starBindings = starBindings;
+    }
+}
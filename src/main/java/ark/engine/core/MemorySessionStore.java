@@ -0,0 +1,105 @@
+package ark.engine.core;
+/* Program AB Reference AIML 2.0 implementation
+        Copyright (C) 2013 ALICE A.I. Foundation
+        Contact: info@alicebot.org
+
+        This library is free software; you can redistribute it and/or
+        modify it under the terms of the GNU Library General Public
+        License as published by the Free Software Foundation; either
+        version 2 of the License, or (at your option) any later version.
+
+        This library is distributed in the hope that it will be useful,
+        but WITHOUT ANY WARRANTY; without even the implied warranty of
+        MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+        Library General Public License for more details.
+
+        You should have received a copy of the GNU Library General Public
+        License along with this library; if not, write to the
+        Free Software Foundation, Inc., 51 Franklin St, Fifth Floor,
+        Boston, MA  02110-1301, USA.
+*/
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+/**
+ * Session store that keeps serialized sessions on the heap.
+ *
+ * A serialized session is a fraction of the size of its Chat.  When more than
+ * capacity sessions are stored, or their bytes exceed maxBytes, the least recently
+ * used ones are dropped, so a returning customer then starts a new session; the
+ * drops are counted in droppedCount().
+ */
+public class MemorySessionStore implements SessionStore {
+    private final LinkedHashMap<String, byte[]> sessions = new LinkedHashMap<String, byte[]>(16, 0.75f, true);
+    private final int capacity;
+    private final long maxBytes;
+    private long bytes = 0;
+    private long dropped = 0;
+
+    /**
+     * Constructor
+     *
+     * @param capacity      maximum number of stored sessions
+     * @param maxBytes      maximum total size of the stored sessions in bytes
+     */
+    public MemorySessionStore(int capacity, long maxBytes) {
+        this.capacity = capacity;
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * Constructor with no limit on the stored bytes
+     *
+     * @param capacity      maximum number of stored sessions
+     */
+    public MemorySessionStore(int capacity) {
+        this(capacity, Long.MAX_VALUE);
+    }
+
+    /**
+     * Constructor with size MagicNumbers.session_store_mb
+     */
+    public MemorySessionStore() {
+        this(Integer.MAX_VALUE, MagicNumbers.session_store_mb * 1024L * 1024L);
+    }
+
+    public synchronized byte[] load(String customerId) {
+        return sessions.get(customerId);
+    }
+
+    public synchronized void store(String customerId, byte[] session) {
+        byte[] old = sessions.put(customerId, session);
+        if (old != null) bytes -= old.length;
+        bytes += session.length;
+        Iterator<byte[]> it = sessions.values().iterator();
+        while (sessions.size() > 1 && (sessions.size() > capacity || bytes > maxBytes)) {
+            bytes -= it.next().length;      // the session just stored is the last one
+            it.remove();
+            dropped++;
+        }
+    }
+
+    public synchronized void remove(String customerId) {
+        byte[] old = sessions.remove(customerId);
+        if (old != null) bytes -= old.length;
+    }
+
+    public synchronized int size() {
+        return sessions.size();
+    }
+
+    public synchronized long droppedCount() {
+        return dropped;
+    }
+
+    /**
+     * @return      total size of the stored sessions in bytes
+     */
+    public synchronized long storedBytes() {
+        return bytes;
+    }
+
+    public void close() {
+    }
+}
@@ -20,21 +20,24 @@ package ark.engine.core;
 */
 
 import java.util.ArrayList;
-import java.util.HashMap;
 
 /**
  * Nodemapper data structure.  In order to minimize memory overhead this class has no methods.
  * Operations on Nodemapper objects are performed by NodemapperOperator class
+ *
+ * Branches are keyed by SymbolTable word ids.  A node with one branch keeps it in key/value;
+ * a node with more branches keeps them in the open addressing table keys/values.
  */
 public class Nodemapper {
 /*    public static int idCnt=0;
     public int id;*/
     public Category category = null;
     public int height = MagicNumbers.max_graph_height;
-    public StarBindings starBindings = null;
-    public HashMap<String, Nodemapper> map = null;
-    public String key = null;
+    public int key = SymbolTable.unknown;
     public Nodemapper value = null;
+    public int[] keys = null;
+    public Nodemapper[] values = null;
+    public int mapSize = 0;
     public boolean shortCut = false;
     public ArrayList<String> sets;
 /*    public Nodemapper () {
@@ -18,10 +18,8 @@ package ark.engine.core;
         Free Software Foundation, Inc., 51 Franklin St, Fifth Floor,
         Boston, MA  02110-1301, USA.
 */
-import java.util.HashMap;
-import java.util.HashSet;
-import java.util.Iterator;
-import java.util.Set;
+import java.util.ArrayList;
+import java.util.Arrays;
 
 public class NodemapperOperator {
     /**
@@ -31,23 +29,44 @@ public class NodemapperOperator {
      * @return        number of branches
      */
     public static int size(Nodemapper node) {
-        HashSet set = new HashSet();
-        if (node.shortCut) set.add("<THAT>");
-        if (node.key != null) set.add(node.key);
-        if (node.map != null) set.addAll(node.map.keySet());
-        return set.size();
+        int size;
+        if (node.keys != null) size = node.mapSize;
+        else if (node.key != SymbolTable.unknown) size = 1;
+        else size = 0;
+        if (node.shortCut && !containsKey(node, SymbolTable.that)) size++;
+        return size;
+    }
+
+    /**
+     * position of a key in the open addressing table: the slot holding the key, or the empty slot where it would go
+     *
+     * @param keys     table of keys
+     * @param key      key word id
+     * @return         slot index
+     */
+    private static int slot(int[] keys, int key) {
+        int mask = keys.length - 1;
+        int i = (key * 0x9E3779B9) & mask;
+        while (keys[i] != SymbolTable.unknown && keys[i] != key) i = (i + 1) & mask;
+        return i;
     }
 
     /**
      * insert a new link from this node to another, by adding a key, value pair
      *
      * @param node       Nodemapper object
-     * @param key        key word
+     * @param key        key word id
      * @param value      word maps to this next node
      */
-   public static void put(Nodemapper node, String key, Nodemapper value) {
-       if (node.map != null) {
-           node.map.put(key, value);
+   public static void put(Nodemapper node, int key, Nodemapper value) {
+       if (node.keys != null) {
+           if (4 * (node.mapSize + 1) > 3 * node.keys.length) grow(node);
+           int i = slot(node.keys, key);
+           if (node.keys[i] == SymbolTable.unknown) {
+               node.keys[i] = key;
+               node.mapSize++;
+           }
+           node.values[i] = value;
        }
        else { // node.type == unary_node_mapper
              node.key = key;
@@ -56,19 +75,42 @@ public class NodemapperOperator {
        }
    }
 
+    /**
+     * double the size of the open addressing table of a node
+     *
+     * @param node    Nodemapper object
+     */
+   private static void grow(Nodemapper node) {
+       int[] oldKeys = node.keys;
+       Nodemapper[] oldValues = node.values;
+       node.keys = new int[oldKeys.length * 2];
+       Arrays.fill(node.keys, SymbolTable.unknown);
+       node.values = new Nodemapper[oldKeys.length * 2];
+       for (int j = 0; j < oldKeys.length; j++) {
+           if (oldKeys[j] != SymbolTable.unknown) {
+               int i = slot(node.keys, oldKeys[j]);
+               node.keys[i] = oldKeys[j];
+               node.values[i] = oldValues[j];
+           }
+       }
+   }
+
     /**
      * get the node linked to this one by the word key
      *
      * @param node     Nodemapper object
-     * @param key      key word to map
+     * @param key      key word id
      * @return         the mapped node or null if the key is not found
      */
-   public static Nodemapper get(Nodemapper node, String key) {
-       if (node.map != null) {
-           return node.map.get(key);
+   public static Nodemapper get(Nodemapper node, int key) {
+       if (key == SymbolTable.unknown) return null;
+       if (node.keys != null) {
+           int i = slot(node.keys, key);
+           if (node.keys[i] == key) return node.values[i];
+           else return null;
        }
        else {// node.type == unary_node_mapper
-           if (key.equals(node.key)) return node.value;
+           if (key == node.key) return node.value;
            else return null;
        }
 
@@ -78,51 +120,107 @@ public class NodemapperOperator {
      * check whether a node contains a particular key
      *
      * @param node    Nodemapper object
-     * @param key     key to test
+     * @param key     key word id
      * @return        true or false
      */
-   public static boolean containsKey(Nodemapper node, String key)  {
-       //System.out.println("containsKey: Node="+node+" Map="+node.map);
-       if (node.map != null) {
-           return node.map.containsKey(key) ;
+   public static boolean containsKey(Nodemapper node, int key)  {
+       if (key == SymbolTable.unknown) return false;
+       if (node.keys != null) {
+           return node.keys[slot(node.keys, key)] == key;
        }
        else {// node.type == unary_node_mapper
-           if (key.equals(node.key)) return true;
-           else return false;
+           return key == node.key;
        }
    }
 
     /**
      * print all node keys
      *
-     * @param node Nodemapper object
+     * @param symbols    table of pattern words
+     * @param node       Nodemapper object
      */
-    public static void printKeys (Nodemapper node)  {
-        Set set = keySet(node);
-        Iterator iter = set.iterator();
-        while (iter.hasNext()) {
-            System.out.println("" + iter.next());
+    public static void printKeys (SymbolTable symbols, Nodemapper node)  {
+        for (int i = 0; i < slots(node); i++) {
+            if (keyAt(node, i) != SymbolTable.unknown) System.out.println(symbols.word(keyAt(node, i)));
         }
     }
 
     /**
-     * get key set of a node
+     * number of branch slots in a node.  Graph walks visit the branches of a node without
+     * allocating by looping over the slots and skipping the empty ones:
+     * {@code for (int i = 0; i < slots(node); i++) if (keyAt(node, i) != SymbolTable.unknown) ... valueAt(node, i) ...}
+     *
+     * @param node    Nodemapper object
+     * @return        number of slots, some of which may be empty
+     */
+    public static int slots(Nodemapper node) {
+        return (node.keys != null ? node.keys.length : 1);
+    }
+
+    /**
+     * word id of the branch in a slot
      *
      * @param node    Nodemapper object
-     * @return        set of keys
+     * @param slot    slot index, less than slots(node)
+     * @return        key word id, or SymbolTable.unknown if the slot is empty
      */
-    public static Set<String> keySet(Nodemapper node) {
-        if (node.map != null) {
-            return node.map.keySet();
+    public static int keyAt(Nodemapper node, int slot) {
+        return (node.keys != null ? node.keys[slot] : node.key);
+    }
+
+    /**
+     * node linked by the branch in a slot
+     *
+     * @param node    Nodemapper object
+     * @param slot    slot index, less than slots(node)
+     * @return        the mapped node, or null if the slot is empty
+     */
+    public static Nodemapper valueAt(Nodemapper node, int slot) {
+        return (node.keys != null ? node.values[slot] : node.value);
+    }
+
+    /**
+     * get key set of a node.  Allocates a new array; graph walks should use slots, keyAt and valueAt.
+     *
+     * @param node    Nodemapper object
+     * @return        word ids of all branches
+     */
+    public static int[] keySet(Nodemapper node) {
+        if (node.keys != null) {
+            int[] result = new int[node.mapSize];
+            int n = 0;
+            for (int key : node.keys) if (key != SymbolTable.unknown) result[n++] = key;
+            return result;
         }
-        else {// node.type == unary_node_mapper
-            Set set = new HashSet<String>();
-            if (node.key != null) set.add(node.key);
-            return set;
+        else if (node.key != SymbolTable.unknown) {// node.type == unary_node_mapper
+            return new int[] {node.key};
         }
+        else return new int[0];
 
     }
 
+    /**
+     * copy a node, sharing the nodes it links to
+     *
+     * @param node     Nodemapper object
+     * @return         the copy
+     */
+    public static Nodemapper copy(Nodemapper node) {
+        Nodemapper c = new Nodemapper();
+        c.category = node.category;
+        c.height = node.height;
+        c.key = node.key;
+        c.value = node.value;
+        if (node.keys != null) {
+            c.keys = node.keys.clone();
+            c.values = node.values.clone();
+        }
+        c.mapSize = node.mapSize;
+        c.shortCut = node.shortCut;
+        if (node.sets != null) c.sets = new ArrayList<String>(node.sets);
+        return c;
+    }
+
     /**
      * test whether a node is a leaf
      *
@@ -141,9 +239,12 @@ public class NodemapperOperator {
     public static void upgrade(Nodemapper node) {
         //System.out.println("Upgrading "+node.id);
         //node.type = MagicNumbers.hash_node_mapper;
-        node.map = new HashMap<String, Nodemapper>();
-        node.map.put(node.key, node.value);
-        node.key = null;
+        node.keys = new int[4];
+        Arrays.fill(node.keys, SymbolTable.unknown);
+        node.values = new Nodemapper[4];
+        node.mapSize = 0;
+        put(node, node.key, node.value);
+        node.key = SymbolTable.unknown;
         node.value = null;
     }
 }
@@ -19,9 +19,6 @@ package ark.engine.core;
         Boston, MA  02110-1301, USA.
 */
 
-import org.w3c.dom.Node;
-import org.w3c.dom.NodeList;
-
 import java.util.Set;
 
 /**
@@ -33,66 +30,64 @@ public class PCAIMLProcessorExtension implements AIMLProcessorExtension {
     public Set <String> extensionTagSet() {
         return extensionTagNames;
     }
-    private String newContact(Node node, ParseState ps) {
-        NodeList childList = node.getChildNodes();
+    private String newContact(TemplateNode node, ParseState ps) {
         String emailAddress="unknown";
         String displayName="unknown";
         String dialNumber="unknown";
         String emailType="unknown";
         String phoneType="unknown";
         String birthday="unknown";
-        for (int i = 0; i < childList.getLength(); i++)  {
-            if (childList.item(i).getNodeName().equals("birthday")) {
-                birthday = AIMLProcessor.evalTagContent(childList.item(i), ps, null);
+        for (int i = 0; i < node.getChildCount(); i++)  {
+            if (node.getChild(i).getNodeName().equals("birthday")) {
+                birthday = AIMLProcessor.evalTagContent(node.getChild(i), ps, null);
             }
-            if (childList.item(i).getNodeName().equals("phonetype")) {
-                phoneType = AIMLProcessor.evalTagContent(childList.item(i), ps, null);
+            if (node.getChild(i).getNodeName().equals("phonetype")) {
+                phoneType = AIMLProcessor.evalTagContent(node.getChild(i), ps, null);
             }
-            if (childList.item(i).getNodeName().equals("emailtype")) {
-                emailType = AIMLProcessor.evalTagContent(childList.item(i), ps, null);
+            if (node.getChild(i).getNodeName().equals("emailtype")) {
+                emailType = AIMLProcessor.evalTagContent(node.getChild(i), ps, null);
             }
-            if (childList.item(i).getNodeName().equals("dialnumber")) {
-                dialNumber = AIMLProcessor.evalTagContent(childList.item(i), ps, null);
+            if (node.getChild(i).getNodeName().equals("dialnumber")) {
+                dialNumber = AIMLProcessor.evalTagContent(node.getChild(i), ps, null);
             }
-            if (childList.item(i).getNodeName().equals("displayname")) {
-                displayName = AIMLProcessor.evalTagContent(childList.item(i), ps, null);
+            if (node.getChild(i).getNodeName().equals("displayname")) {
+                displayName = AIMLProcessor.evalTagContent(node.getChild(i), ps, null);
             }
-            if (childList.item(i).getNodeName().equals("emailaddress")) {
-                emailAddress = AIMLProcessor.evalTagContent(childList.item(i), ps, null);
+            if (node.getChild(i).getNodeName().equals("emailaddress")) {
+                emailAddress = AIMLProcessor.evalTagContent(node.getChild(i), ps, null);
             }
         }
         System.out.println("Adding new contact "+displayName+" "+phoneType+" "+dialNumber+" "+emailType+" "+emailAddress+" "+birthday);
         Contact contact = new Contact(displayName, phoneType, dialNumber, emailType, emailAddress, birthday);
         return "";
     }
-    private String contactId(Node node, ParseState ps) {
+    private String contactId(TemplateNode node, ParseState ps) {
         String displayName = AIMLProcessor.evalTagContent(node, ps, null);
         String result = Contact.contactId(displayName);
         //System.out.println("contactId("+displayName+")="+result);
         return result;
     }
-    private String multipleIds(Node node, ParseState ps){
+    private String multipleIds(TemplateNode node, ParseState ps){
         String contactName = AIMLProcessor.evalTagContent(node, ps, null);
         String result = Contact.multipleIds(contactName);
         //System.out.println("multipleIds("+contactName+")="+result);
         return result;
     }
-    private String displayName(Node node, ParseState ps){
+    private String displayName(TemplateNode node, ParseState ps){
         String id = AIMLProcessor.evalTagContent(node, ps, null);
         String result = Contact.displayName(id);
         //System.out.println("displayName("+id+")="+result);
         return result;
     }
-    private String dialNumber(Node node, ParseState ps) {
-        NodeList childList = node.getChildNodes();
+    private String dialNumber(TemplateNode node, ParseState ps) {
         String id="unknown";
         String type="unknown";
-        for (int i = 0; i < childList.getLength(); i++)  {
-            if (childList.item(i).getNodeName().equals("id")) {
-                id = AIMLProcessor.evalTagContent(childList.item(i), ps, null);
+        for (int i = 0; i < node.getChildCount(); i++)  {
+            if (node.getChild(i).getNodeName().equals("id")) {
+                id = AIMLProcessor.evalTagContent(node.getChild(i), ps, null);
             }
-            if (childList.item(i).getNodeName().equals("type")) {
-                type = AIMLProcessor.evalTagContent(childList.item(i), ps, null);
+            if (node.getChild(i).getNodeName().equals("type")) {
+                type = AIMLProcessor.evalTagContent(node.getChild(i), ps, null);
             }
         }
         String result = Contact.dialNumber(type, id);
@@ -100,16 +95,15 @@ public class PCAIMLProcessorExtension implements AIMLProcessorExtension {
         return result;
     }
 
-    private String emailAddress(Node node, ParseState ps){
-        NodeList childList = node.getChildNodes();
+    private String emailAddress(TemplateNode node, ParseState ps){
         String id="unknown";
         String type="unknown";
-        for (int i = 0; i < childList.getLength(); i++)  {
-            if (childList.item(i).getNodeName().equals("id")) {
-                id = AIMLProcessor.evalTagContent(childList.item(i), ps, null);
+        for (int i = 0; i < node.getChildCount(); i++)  {
+            if (node.getChild(i).getNodeName().equals("id")) {
+                id = AIMLProcessor.evalTagContent(node.getChild(i), ps, null);
             }
-            if (childList.item(i).getNodeName().equals("type")) {
-                type = AIMLProcessor.evalTagContent(childList.item(i), ps, null);
+            if (node.getChild(i).getNodeName().equals("type")) {
+                type = AIMLProcessor.evalTagContent(node.getChild(i), ps, null);
             }
         }
         String result = Contact.emailAddress(type, id);
@@ -118,13 +112,13 @@ public class PCAIMLProcessorExtension implements AIMLProcessorExtension {
     }
 
 
-    private String contactBirthday(Node node, ParseState ps){
+    private String contactBirthday(TemplateNode node, ParseState ps){
         String id = AIMLProcessor.evalTagContent(node, ps, null);
         String result = Contact.birthday(id);
         //System.out.println("birthday("+id+")="+result);
         return result;
     }
-    public String recursEval(Node node, ParseState ps) {
+    public String recursEval(TemplateNode node, ParseState ps) {
         try {
             String nodeName = node.getNodeName();
             if (nodeName.equals("contactid"))
@@ -22,11 +22,13 @@ package ark.engine.core;
 ParseState is a helper class for AIMLProcessor
  */
 public class ParseState {
-    public Nodemapper leaf;
+    public Category category;
+    public StarBindings starBindings;
     public String input;
     public String that;
     public String topic;
     public Chat chatSession;
+    public RequestContext context;
     public int depth;
     public Predicates vars;
 
@@ -38,14 +40,31 @@ public class ParseState {
       * @param input         client input
       * @param that          bot's last sentence
       * @param topic         current topic
-      * @param leaf          node containing the category processed
+      * @param match         the category processed and its wildcard bindings
       */
-    public ParseState(int depth, Chat chatSession, String input, String that, String topic, Nodemapper leaf) {
+    public ParseState(int depth, Chat chatSession, String input, String that, String topic, MatchResult match) {
+        this(depth, chatSession, new RequestContext(chatSession.bot.brain), input, that, topic, match);
+    }
+
+     /**
+      * Constructor
+      *
+      * @param depth      depth in parse tree
+      * @param chatSession   client session
+      * @param context       evaluation state of the request
+      * @param input         client input
+      * @param that          bot's last sentence
+      * @param topic         current topic
+      * @param match         the category processed and its wildcard bindings
+      */
+    public ParseState(int depth, Chat chatSession, RequestContext context, String input, String that, String topic, MatchResult match) {
         this.chatSession = chatSession;
+        this.context = context;
         this.input = input;
         this.that = that;
         this.topic = topic;
-        this.leaf = leaf;
+        this.category = match.category;
+        this.starBindings = match.starBindings;
         this.depth = depth;  // to prevent runaway recursion
         this.vars = new Predicates();
     }
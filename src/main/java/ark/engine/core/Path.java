@@ -1,5 +1,4 @@
 package ark.engine.core;
-import java.util.ArrayList;
 /* Program AB Reference AIML 2.0 implementation
         Copyright (C) 2013 ALICE A.I. Foundation
         Contact: info@alicebot.org
@@ -21,20 +20,28 @@ import java.util.ArrayList;
 */
 
 /**
- * Linked list representation of Pattern Path and Input Path
+ * Tokenized representation of Pattern Path and Input Path.
+ *
+ * A Path is an immutable view of a word array starting at some offset.  The words are split
+ * once; next() returns a view of the same array one word further on, so no words are copied.
  */
-public class Path extends ArrayList<String>{
-    public String word;
-    public Path next;
-    public int length;
+public class Path {
+    public final String word;
+    public final int length;
+    final String[] words;
+    final int offset;
 
     /**
      * Constructor - class has public members
+     *
+     * @param words     all words of the path
+     * @param offset    index of the first word in this view
      */
-    private Path() {
-        next = null;
-        word = null;
-        length = 0;
+    private Path(String[] words, int offset) {
+        this.words = words;
+        this.offset = offset;
+        this.word = words[offset];
+        this.length = words.length - offset;
     }
 
     /**
@@ -48,6 +55,16 @@ public class Path extends ArrayList<String>{
         return arrayToPath(sentence.split(" "));
     }
 
+    /**
+     * the remainder of this path after the first word
+     *
+     * @return     the rest of the path, or null at the end of the path
+     */
+    public Path next() {
+        if (offset + 1 < words.length) return new Path(words, offset + 1);
+        else return null;
+    }
+
     /**
      * The inverse of sentenceToPath
      *
@@ -55,13 +72,13 @@ public class Path extends ArrayList<String>{
      * @return               sentence
      */
     public static String pathToSentence (Path path) {
-        String result="";
-        for (Path p = path; p != null; p = p.next) {
-            result = result+" "+path.word;
+        if (path == null) return "";
+        StringBuilder result = new StringBuilder();
+        for (int i = path.offset; i < path.words.length; i++) {
+            if (i > path.offset) result.append(' ');
+            result.append(path.words[i]);
         }
-        return result.trim();
-       /* if (path == null) return "";
-        else return path.word+" "+pathToSentence(path.next);*/
+        return result.toString().trim();
     }
 
     /**
@@ -70,49 +87,20 @@ public class Path extends ArrayList<String>{
      * @param array     array of strings
      * @return          sequence of strings as Path
      */
-    private static Path arrayToPath(String[] array) {
-        Path tail = null;
-        Path head = null;
-        for (int i = array.length-1; i >= 0; i--) {
-            head = new Path();
-            head.word = array[i];
-            head.next = tail;
-            if (tail == null) head.length = 1;
-            else head.length = tail.length + 1;
-            tail = head;
-        }
-        return head;
-        //return arrayToPath(array, 0);
-    }
-
-    /**
-     * recursively convert an array to a Path
-     *
-     * @param array  array of strings
-     * @param index  array index
-     * @return       Path form
-     */
-    private static Path arrayToPath(String[] array, int index)  {
-        if (index >= array.length) return null;
-        else {
-            Path newPath = new Path();
-            newPath.word = array[index];
-            newPath.next = arrayToPath(array, index+1);
-            if (newPath.next == null) newPath.length = 1;
-            else newPath.length = newPath.next.length + 1;
-            return newPath;
-        }
+    static Path arrayToPath(String[] array) {
+        if (array.length == 0) return null;
+        else return new Path(array, 0);
     }
 
     /**
      * print a Path
      */
     public void print() {
-        String result = "";
-        for (Path p = this; p != null; p = p.next) {
-            result += p.word+",";
+        StringBuilder result = new StringBuilder();
+        for (int i = offset; i < words.length; i++) {
+            if (i > offset) result.append(',');
+            result.append(words[i]);
         }
-        if (result.endsWith(",")) result = result.substring(0, result.length()-1);
         System.out.println(result);
     }
 
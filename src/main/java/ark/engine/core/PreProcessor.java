@@ -43,6 +43,11 @@ public class PreProcessor {
     public Pattern[] person2Patterns = new Pattern[MagicNumbers.max_substitutions];
     public String[] genderSubs = new String[MagicNumbers.max_substitutions];
     public Pattern[] genderPatterns = new Pattern[MagicNumbers.max_substitutions];
+    public final Substitutions normalSubstitutions;
+    public final Substitutions denormalSubstitutions;
+    public final Substitutions personSubstitutions;
+    public final Substitutions person2Substitutions;
+    public final Substitutions genderSubstitutions;
 
     /**
      * Constructor given bot
@@ -55,6 +60,11 @@ public class PreProcessor {
         personCount = readSubstitutions(MagicStrings.config_path +"/person.txt", personPatterns, personSubs);
         person2Count = readSubstitutions(MagicStrings.config_path +"/person2.txt", person2Patterns, person2Subs);
         genderCount = readSubstitutions(MagicStrings.config_path +"/gender.txt", genderPatterns, genderSubs);
+        normalSubstitutions = new Substitutions(normalPatterns, normalSubs, normalCount);
+        denormalSubstitutions = new Substitutions(denormalPatterns, denormalSubs, denormalCount);
+        personSubstitutions = new Substitutions(personPatterns, personSubs, personCount);
+        person2Substitutions = new Substitutions(person2Patterns, person2Subs, person2Count);
+        genderSubstitutions = new Substitutions(genderPatterns, genderSubs, genderCount);
         System.out.println("Preprocessor: "+normalCount+" norms "+personCount+" persons "+person2Count+" person2 ");
     }
 
@@ -65,7 +75,7 @@ public class PreProcessor {
      * @return         normalized client input
      */
     public String normalize (String request) {
-        return substitute(request,  normalPatterns, normalSubs, normalCount);
+        return normalSubstitutions.substitute(request);
     }
     /**
      * apply denormalization substitutions to a request
@@ -74,7 +84,7 @@ public class PreProcessor {
      * @return         normalized client input
      */
     public String denormalize (String request) {
-        return substitute(request,  denormalPatterns, denormalSubs, denormalCount);
+        return denormalSubstitutions.substitute(request);
     }
     /**
      * personal pronoun substitution for {@code <person></person>} tag
@@ -82,7 +92,7 @@ public class PreProcessor {
      * @return       sentence with pronouns swapped
      */
     public String person (String input) {
-        return substitute(input, personPatterns, personSubs, personCount);
+        return personSubstitutions.substitute(input);
 
     }
     /**
@@ -91,7 +101,7 @@ public class PreProcessor {
      * @return       sentence with pronouns swapped
      */
     public String person2 (String input) {
-        return substitute(input, person2Patterns, person2Subs, person2Count);
+        return person2Substitutions.substitute(input);
 
     }
     /**
@@ -100,44 +110,10 @@ public class PreProcessor {
      * @return       sentence with pronouns swapped
      */
     public String gender (String input) {
-        return substitute(input, genderPatterns, genderSubs, genderCount);
+        return genderSubstitutions.substitute(input);
 
     }
 
-    /**
-     * Apply a sequence of subsitutions to an input string
-     *
-     * @param request      input request
-     * @param patterns     array of patterns to match
-     * @param subs         array of substitution values
-     * @param count        number of patterns and substitutions
-     * @return             result of applying substitutions to input
-     */
-    String substitute(String request, Pattern[] patterns, String[] subs, int count) {
-        String result = " "+request+" ";
-        try {
-        for (int i = 0; i < count; i++) {
-
-            String replacement =  subs[i];
-            Pattern p = patterns[i];
-            Matcher m = p.matcher(result);
-            //System.out.println(i+" "+patterns[i].pattern()+"-->"+subs[i]);
-            if (m.find()) {
-                //System.out.println(m.group());
-                result = m.replaceAll(replacement);
-            }
-
-            //System.out.println(result);
-        }
-        while (result.contains("  ")) result = result.replace("  "," ");
-        result = result.trim();
-        //System.out.println("Normalized: "+result);
-        } catch (Exception ex)    {
-            ex.printStackTrace();
-        }
-        return result.trim();
-    }
-
     /**
      * read substitutions from input stream
      *
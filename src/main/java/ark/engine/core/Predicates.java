@@ -19,13 +19,102 @@ package ark.engine.core;
         Boston, MA  02110-1301, USA.
 */
 import java.io.*;
+import java.util.AbstractMap;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
 
 /**
  * Manage client predicates
  *
+ * The values a client has set are a small overlay on top of a shared, read-only map
+ * of default values, so a session only holds the handful of predicates it changed.
+ * Up to MagicNumbers.max_inline_predicates overlay values are kept in two arrays
+ * searched in order; a larger overlay moves to a HashMap.
  */
-public class Predicates extends HashMap<String, String> {
+public class Predicates extends AbstractMap<String, String> implements Externalizable {
+    private static final long serialVersionUID = 1L;
+    private static final Map<String, String> noDefaults = Collections.emptyMap();
+    private Map<String, String> defaults = noDefaults;
+    private String[] keys = null;                   // inline overlay, allocated on the first put
+    private String[] values = null;
+    private int count = 0;
+    private HashMap<String, String> overlay = null; // replaces the arrays when they are full
+
+    /**
+     * Constructor with no default values
+     */
+    public Predicates() {
+    }
+
+    /**
+     * Constructor
+     *
+     * @param defaults    read-only default values, shared and never changed by this object
+     */
+    public Predicates(Map<String, String> defaults) {
+        this.defaults = defaults;
+    }
+
+    /**
+     * replace the default values under the overlay
+     *
+     * @param defaults    read-only default values
+     */
+    public void setDefaults(Map<String, String> defaults) {
+        this.defaults = defaults;
+    }
+
+    private int indexOf(Object key) {
+        for (int i = 0; i < count; i++) {
+            if (keys[i] == key || keys[i].equals(key)) return i;
+        }
+        return -1;
+    }
+
+    private boolean overlayContains(Object key) {
+        if (overlay != null) return overlay.containsKey(key);
+        return indexOf(key) >= 0;
+    }
+
+    private String overlayGet(Object key) {
+        if (overlay != null) return overlay.get(key);
+        int i = indexOf(key);
+        return i < 0 ? null : values[i];
+    }
+
+    private String overlayPut(String key, String value) {
+        if (overlay != null) return overlay.put(key, value);
+        int i = indexOf(key);
+        if (i >= 0) {
+            String old = values[i];
+            values[i] = value;
+            return old;
+        }
+        if (keys == null) {
+            keys = new String[4];
+            values = new String[4];
+        }
+        else if (count == keys.length) {
+            if (count >= MagicNumbers.max_inline_predicates) {
+                overlay = new HashMap<String, String>();
+                for (int j = 0; j < count; j++) overlay.put(keys[j], values[j]);
+                keys = values = null;
+                count = 0;
+                return overlay.put(key, value);
+            }
+            keys = Arrays.copyOf(keys, count * 2);
+            values = Arrays.copyOf(values, count * 2);
+        }
+        keys[count] = key;
+        values[count] = value;
+        count++;
+        return null;
+    }
+
     /**
      * save a predicate value
      *
@@ -34,8 +123,13 @@ public class Predicates extends HashMap<String, String> {
      * @return            predicate value
      */
     public String put(String key, String value) {
-        if (MagicBooleans.trace_mode) System.out.println("Setting predicate "+key+" to "+value);
-        return super.put(key, value);
+        if (!overlayContains(key)) {
+            String old = defaults.get(key);
+            if (old != null && old.equals(value)) return old;    // same as the default, nothing to store
+            overlayPut(key, value);
+            return old;
+        }
+        return overlayPut(key, value);
     }
 
     /**
@@ -45,17 +139,161 @@ public class Predicates extends HashMap<String, String> {
      * @return    predicate value
      */
     public String get(String key) {
-        String result = super.get(key);
+        String result = get((Object)key);
         if (result == null) return MagicStrings.unknown_predicate_value;
         else return result;
     }
 
+    public String get(Object key) {
+        if (overlayContains(key)) return overlayGet(key);
+        return defaults.get(key);
+    }
+
+    public boolean containsKey(Object key) {
+        return overlayContains(key) || defaults.containsKey(key);
+    }
+
+    /**
+     * remove a value set on this object.  A default value for the key becomes visible again.
+     *
+     * @param key    predicate name
+     * @return       the removed value
+     */
+    public String remove(Object key) {
+        if (overlay != null) return overlay.remove(key);
+        int i = indexOf(key);
+        if (i < 0) return null;
+        String old = values[i];
+        count--;
+        keys[i] = keys[count];
+        values[i] = values[count];
+        keys[count] = values[count] = null;
+        return old;
+    }
+
+    /**
+     * remove all predicates, including the default values
+     */
+    public void clear() {
+        clearOverlay();
+        defaults = noDefaults;
+    }
+
+    private void clearOverlay() {
+        keys = values = null;
+        count = 0;
+        overlay = null;
+    }
+
+    /**
+     * @return    number of values set on this object, not counting unchanged defaults
+     */
+    public int overlaySize() {
+        return overlay != null ? overlay.size() : count;
+    }
+
+    public int size() {
+        int size = defaults.size();
+        if (overlay != null) {
+            for (String key : overlay.keySet()) if (!defaults.containsKey(key)) size++;
+        }
+        else for (int i = 0; i < count; i++) if (!defaults.containsKey(keys[i])) size++;
+        return size;
+    }
+
+    /**
+     * a snapshot of all predicates, the defaults overlaid with the values set on this object
+     *
+     * @return    read-only set of entries
+     */
+    public Set<Map.Entry<String, String>> entrySet() {
+        LinkedHashMap<String, String> all = new LinkedHashMap<String, String>(defaults);
+        if (overlay != null) all.putAll(overlay);
+        else for (int i = 0; i < count; i++) all.put(keys[i], values[i]);
+        return Collections.unmodifiableMap(all).entrySet();
+    }
+
+    /**
+     * estimate the heap size of the values set on this object
+     *
+     * @return      estimated size in bytes
+     */
+    public long estimatedSize() {
+        long size = 64;
+        if (overlay != null) {
+            for (Map.Entry<String, String> entry : overlay.entrySet()) {
+                size += 48 + Chat.stringSize(entry.getKey()) + Chat.stringSize(entry.getValue());
+            }
+        }
+        else {
+            if (keys != null) size += 32 + 8L * keys.length;
+            for (int i = 0; i < count; i++) size += Chat.stringSize(keys[i]) + Chat.stringSize(values[i]);
+        }
+        return size;
+    }
+
+    /**
+     * write the values set on this object.  The defaults are not written.
+     *
+     * @param out     binary output
+     * @throws IOException
+     */
+    public void write(DataOutput out) throws IOException {
+        out.writeInt(overlaySize());
+        if (overlay != null) {
+            for (Map.Entry<String, String> entry : overlay.entrySet()) {
+                Utilities.writeString(out, entry.getKey());
+                Utilities.writeString(out, entry.getValue());
+            }
+        }
+        else for (int i = 0; i < count; i++) {
+            Utilities.writeString(out, keys[i]);
+            Utilities.writeString(out, values[i]);
+        }
+    }
+
+    /**
+     * replace the values set on this object with those written by write().
+     * The defaults stay as they are.
+     *
+     * @param in      binary input
+     * @throws IOException
+     */
+    public void read(DataInput in) throws IOException {
+        clearOverlay();
+        int n = in.readInt();
+        for (int i = 0; i < n; i++) {
+            String key = Utilities.readString(in);
+            overlayPut(key, Utilities.readString(in));
+        }
+    }
+
+    public void writeExternal(ObjectOutput out) throws IOException {
+        write(out);
+    }
+
+    public void readExternal(ObjectInput in) throws IOException {
+        read(in);
+    }
+
     /**
-     * Read predicate default values from an input stream
+     * Read predicate default values from an input stream, adding them to the defaults
      *
      * @param in input stream
      */
     public void getPredicateDefaultsFromInputStream (InputStream in)  {
+        LinkedHashMap<String, String> newDefaults = new LinkedHashMap<String, String>(defaults);
+        readPredicateDefaults(in, newDefaults);
+        defaults = Collections.unmodifiableMap(newDefaults);
+    }
+
+    /**
+     * Read predicate default values from an input stream into a map
+     *
+     * @param in        input stream
+     * @param defaults  map to add the default values to
+     */
+    private static void readPredicateDefaults (InputStream in, Map<String, String> defaults)  {
         BufferedReader br = new BufferedReader(new InputStreamReader(in));
         String strLine;
         try {
@@ -64,7 +302,7 @@ public class Predicates extends HashMap<String, String> {
                 if (strLine.contains(":")) {
                     String property = strLine.substring(0, strLine.indexOf(":"));
                     String value = strLine.substring(strLine.indexOf(":")+1);
-                    put(property, value);
+                    defaults.put(property, value);
                 }
             }
         } catch (Exception ex) {
@@ -91,6 +329,30 @@ public class Predicates extends HashMap<String, String> {
             System.err.println("Error: " + e.getMessage());
         }
     }
+
+    /**
+     * read predicate defaults from a file once, to be shared by many sessions
+     *
+     * @param filename        name of file
+     * @return                read-only map of default values, in file order
+     */
+    public static Map<String, String> readPredicateDefaults (String filename) {
+        LinkedHashMap<String, String> defaults = new LinkedHashMap<String, String>();
+        try {
+            File file = new File(filename);
+            if (file.exists()) {
+                FileInputStream fstream = new FileInputStream(file);
+                try {
+                    readPredicateDefaults(fstream, defaults);
+                } finally {
+                    fstream.close();
+                }
+            }
+        } catch (Exception e) {
+            System.err.println("Error: " + e.getMessage());
+        }
+        return Collections.unmodifiableMap(defaults);
+    }
 }
 
 
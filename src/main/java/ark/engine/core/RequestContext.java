@@ -0,0 +1,61 @@
+package ark.engine.core;
+/* Program AB Reference AIML 2.0 implementation
+        Copyright (C) 2013 ALICE A.I. Foundation
+        Contact: info@alicebot.org
+
+        This library is free software; you can redistribute it and/or
+        modify it under the terms of the GNU Library General Public
+        License as published by the Free Software Foundation; either
+        version 2 of the License, or (at your option) any later version.
+
+        This library is distributed in the hope that it will be useful,
+        but WITHOUT ANY WARRANTY; without even the implied warranty of
+        MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+        Library General Public License for more details.
+
+        You should have received a copy of the GNU Library General Public
+        License along with this library; if not, write to the
+        Free Software Foundation, Inc., 51 Franklin St, Fifth Floor,
+        Boston, MA  02110-1301, USA.
+*/
+
+/**
+ * Evaluation state of one request, passed along in every ParseState.
+ *
+ * Nothing about a request is kept in static fields, so any number of threads can
+ * evaluate requests on the same bot at once, each with its own srai limit and trace.
+ */
+public class RequestContext {
+    public final Graphmaster brain;     // a reload does not change the graph of a running request
+    public int sraiCount = 0;           // <srai> activations in the current sentence
+    public int traceCount = 0;          // numbers the <srai> trace lines of the current sentence
+    public final StringBuilder matchTrace = new StringBuilder();
+
+    /**
+     * Constructor
+     *
+     * @param brain     the graph the request matches against
+     */
+    public RequestContext(Graphmaster brain) {
+        this.brain = brain;
+    }
+
+    /**
+     * reset the per-sentence counters before responding to the next sentence of the request
+     */
+    public void newSentence() {
+        sraiCount = 0;
+        traceCount = 0;
+    }
+
+    /**
+     * add a matched category to the match trace, in trace mode
+     *
+     * @param match     the match, or null
+     */
+    void traceMatch(MatchResult match) {
+        if (MagicBooleans.trace_mode && match != null && matchTrace.length() < MagicNumbers.max_trace_length) {
+            matchTrace.append(match.category.inputThatTopic()).append("\n");
+        }
+    }
+}
@@ -0,0 +1,74 @@
+package ark.engine.core;
+/* Program AB Reference AIML 2.0 implementation
+        Copyright (C) 2013 ALICE A.I. Foundation
+        Contact: info@alicebot.org
+
+        This library is free software; you can redistribute it and/or
+        modify it under the terms of the GNU Library General Public
+        License as published by the Free Software Foundation; either
+        version 2 of the License, or (at your option) any later version.
+
+        This library is distributed in the hope that it will be useful,
+        but WITHOUT ANY WARRANTY; without even the implied warranty of
+        MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+        Library General Public License for more details.
+
+        You should have received a copy of the GNU Library General Public
+        License along with this library; if not, write to the
+        Free Software Foundation, Inc., 51 Franklin St, Fifth Floor,
+        Boston, MA  02110-1301, USA.
+*/
+
+import java.io.IOException;
+
+/**
+ * Storage for chat sessions that are not resident in memory.
+ *
+ * A session store keeps each session as the bytes written by Chat.toSessionBytes,
+ * keyed by customer id.  ChatManager keeps the active sessions as Chat objects
+ * and moves the idle ones to a session store.
+ */
+public interface SessionStore {
+    /**
+     * read a stored session
+     *
+     * @param customerId     customer id
+     * @return               session bytes, or null if there is no such session
+     * @throws IOException
+     */
+    public byte[] load(String customerId) throws IOException;
+
+    /**
+     * store a session, replacing any earlier version
+     *
+     * @param customerId     customer id
+     * @param session        session bytes
+     * @throws IOException
+     */
+    public void store(String customerId, byte[] session) throws IOException;
+
+    /**
+     * delete a stored session
+     *
+     * @param customerId     customer id
+     * @throws IOException
+     */
+    public void remove(String customerId) throws IOException;
+
+    /**
+     * @return      number of stored sessions
+     */
+    public int size();
+
+    /**
+     * @return      number of sessions the store has dropped to stay within its capacity
+     */
+    public long droppedCount();
+
+    /**
+     * write out anything buffered and release the store
+     *
+     * @throws IOException
+     */
+    public void close() throws IOException;
+}
@@ -0,0 +1,76 @@
+package ark.engine.core;
+/* Program AB Reference AIML 2.0 implementation
+        Copyright (C) 2013 ALICE A.I. Foundation
+        Contact: info@alicebot.org
+
+        This library is free software; you can redistribute it and/or
+        modify it under the terms of the GNU Library General Public
+        License as published by the Free Software Foundation; either
+        version 2 of the License, or (at your option) any later version.
+
+        This library is distributed in the hope that it will be useful,
+        but WITHOUT ANY WARRANTY; without even the implied warranty of
+        MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+        Library General Public License for more details.
+
+        You should have received a copy of the GNU Library General Public
+        License along with this library; if not, write to the
+        Free Software Foundation, Inc., 51 Franklin St, Fifth Floor,
+        Boston, MA  02110-1301, USA.
+*/
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+
+/**
+ * One JVM shutdown hook that closes whatever is still open when the JVM exits.
+ *
+ * Objects with background writers register when they start writing and unregister
+ * when they are closed, so a closed object, and the Bot it refers to, is not kept
+ * reachable by the hook.
+ */
+class ShutdownHook {
+    private static final LinkedHashSet<Closeable> open = new LinkedHashSet<Closeable>();
+    private static boolean installed = false;
+
+    /**
+     * close an object at JVM exit unless it is unregistered first
+     *
+     * @param closeable      object to close
+     */
+    static synchronized void register(Closeable closeable) {
+        if (!installed) {
+            Runtime.getRuntime().addShutdownHook(new Thread(new Runnable() {
+                public void run() {
+                    closeAll();
+                }
+            }, "ark-shutdown"));
+            installed = true;
+        }
+        open.add(closeable);
+    }
+
+    /**
+     * forget an object that has been closed
+     *
+     * @param closeable      object to forget
+     */
+    static synchronized void unregister(Closeable closeable) {
+        open.remove(closeable);
+    }
+
+    private static void closeAll() {
+        ArrayList<Closeable> closing;
+        synchronized (ShutdownHook.class) {
+            closing = new ArrayList<Closeable>(open);
+        }
+        for (Closeable closeable : closing) {
+            try {
+                closeable.close();
+            } catch (Exception ex) {
+                ex.printStackTrace();
+            }
+        }
+    }
+}
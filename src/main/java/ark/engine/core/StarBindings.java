@@ -23,15 +23,18 @@ package ark.engine.core;
  * structure to hold binding of wildcards in input pattern, that pattern and topicpattern
  */
 public class StarBindings {
-    public Stars inputStars;
-    public Stars thatStars;
-    public Stars topicStars;
+    public final Stars inputStars;
+    public final Stars thatStars;
+    public final Stars topicStars;
     /** Constructor  -- this class has public members
      *
+     * @param inputStars     values matching wildcards in the input pattern
+     * @param thatStars      values matching wildcards in the that pattern
+     * @param topicStars     values matching wildcards in the topic pattern
      */
-    public StarBindings () {
-        inputStars = new Stars();
-        thatStars = new Stars();
-        topicStars = new Stars();
+    public StarBindings (Stars inputStars, Stars thatStars, Stars topicStars) {
+        this.inputStars = inputStars;
+        this.thatStars = thatStars;
+        this.topicStars = topicStars;
     }
 }
@@ -18,17 +18,53 @@ package ark.engine.core;
         Free Software Foundation, Inc., 51 Franklin St, Fifth Floor,
         Boston, MA  02110-1301, USA.
 */
-import java.util.ArrayList;
-
 
 /**
- * Array of values matching wildcards
+ * Array of values matching wildcards.
+ * Values are kept as word offsets into the matched input and joined into Strings on first use.
  */
-public class Stars extends ArrayList<String> {
+public class Stars {
+    private final String[] words;
+    private final int[] starts;
+    private final int[] ends;
+    private final String nullStar;
+    private final String[] values;
+
+    /**
+     * Constructor
+     *
+     * @param words       tokenized input path the offsets refer to
+     * @param starts      index of the first word of each wildcard, or -1 for an empty binding
+     * @param ends        index after the last word of each wildcard
+     * @param nullStar    value of an empty binding
+     */
+    Stars(String[] words, int[] starts, int[] ends, String nullStar) {
+        this.words = words;
+        this.starts = starts;
+        this.ends = ends;
+        this.nullStar = nullStar;
+        this.values = new String[starts.length];
+    }
+
+    public int size() {
+        return starts.length;
+    }
+
     public String star (int i) {
-        if (i < size())
-        return get(i);
+        if (i < size()) {
+            if (values[i] == null) values[i] = value(i);
+            return values[i];
+        }
         else return null;
     }
 
+    private String value(int i) {
+        if (starts[i] == MatchContext.nullStar) return (nullStar == null ? null : nullStar.trim());
+        StringBuilder sb = new StringBuilder();
+        for (int j = starts[i]; j < ends[i]; j++) {
+            if (j > starts[i]) sb.append(' ');
+            sb.append(words[j]);
+        }
+        return sb.toString().trim();
+    }
 }
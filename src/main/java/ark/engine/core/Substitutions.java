@@ -0,0 +1,262 @@
+package ark.engine.core;
+/* Program AB Reference AIML 2.0 implementation
+        Copyright (C) 2013 ALICE A.I. Foundation
+        Contact: info@alicebot.org
+
+        This library is free software; you can redistribute it and/or
+        modify it under the terms of the GNU Library General Public
+        License as published by the Free Software Foundation; either
+        version 2 of the License, or (at your option) any later version.
+
+        This library is distributed in the hope that it will be useful,
+        but WITHOUT ANY WARRANTY; without even the implied warranty of
+        MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+        Library General Public License for more details.
+
+        You should have received a copy of the GNU Library General Public
+        License along with this library; if not, write to the
+        Free Software Foundation, Inc., 51 Franklin St, Fifth Floor,
+        Boston, MA  02110-1301, USA.
+*/
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * A substitution table (normal.txt, person.txt, ...) compiled into an Aho-Corasick automaton.
+ *
+ * The substitutions are applied in table order, each one to the result of the ones before,
+ * exactly like running every pattern's replaceAll in turn.  One scan of the sentence finds
+ * which patterns occur in it, so only those are applied; the sentence is scanned again only
+ * after a replacement has changed it.  Most sentences need one or two scans instead of one
+ * regex search per table entry.
+ *
+ * Patterns are case-insensitive literals (Pattern.quote with CASE_INSENSITIVE), which fold
+ * only ASCII letters.  Entries that are not such literals are tried with their regex on every
+ * sentence, and replacements containing $ or \ are applied with the regex, so the result is the
+ * same as before in every case.
+ */
+public class Substitutions {
+    private final int count;
+    private final Pattern[] patterns;
+    private final String[] subs;
+    private final String[] literals;         // folded pattern text, or null to always use the regex
+    private final boolean[] literalReplacement;
+    private final BitSet alwaysTry = new BitSet();
+    // automaton: node n has edges edgeChar/edgeTarget[firstEdge[n]..firstEdge[n+1]), sorted by char
+    private int[] firstEdge;
+    private char[] edgeChar;
+    private int[] edgeTarget;
+    private int[] fail;
+    private int[] firstOutput;               // node n reports patterns output[firstOutput[n]..firstOutput[n+1])
+    private int[] output;
+
+    /**
+     * Constructor
+     *
+     * @param patterns     patterns read by PreProcessor.readSubstitutions
+     * @param subs         substitution values
+     * @param count        number of patterns and substitutions
+     */
+    public Substitutions(Pattern[] patterns, String[] subs, int count) {
+        this.count = count;
+        this.patterns = patterns;
+        this.subs = subs;
+        literals = new String[count];
+        literalReplacement = new boolean[count];
+        for (int i = 0; i < count; i++) {
+            literals[i] = quotedLiteral(patterns[i]);
+            if (literals[i] == null || literals[i].length() == 0) {
+                literals[i] = null;
+                alwaysTry.set(i);
+            }
+            else literals[i] = fold(literals[i]);
+            literalReplacement[i] = subs[i].indexOf('$') < 0 && subs[i].indexOf('\\') < 0;
+        }
+        build();
+    }
+
+    /**
+     * the text matched by a pattern made with Pattern.quote and CASE_INSENSITIVE
+     *
+     * @param p     pattern
+     * @return      the quoted text, or null if p is any other kind of pattern
+     */
+    static String quotedLiteral(Pattern p) {
+        if (p.flags() != Pattern.CASE_INSENSITIVE) return null;
+        String s = p.pattern();
+        if (!s.startsWith("\\Q") || !s.endsWith("\\E") || s.length() < 4) return null;
+        String literal = s.substring(2, s.length()-2).replace("\\E\\\\E\\Q", "\\E");
+        if (!Pattern.quote(literal).equals(s)) return null;
+        return literal;
+    }
+
+    /**
+     * lower case ASCII letters only, like a CASE_INSENSITIVE pattern without UNICODE_CASE
+     */
+    static char fold(char c) {
+        return (c >= 'A' && c <= 'Z') ? (char)(c + ('a' - 'A')) : c;
+    }
+
+    static String fold(String s) {
+        char[] chars = s.toCharArray();
+        for (int i = 0; i < chars.length; i++) chars[i] = fold(chars[i]);
+        return new String(chars);
+    }
+
+    private void build() {
+        ArrayList<HashMap<Character, Integer>> trie = new ArrayList<HashMap<Character, Integer>>();
+        ArrayList<ArrayList<Integer>> outputs = new ArrayList<ArrayList<Integer>>();
+        trie.add(new HashMap<Character, Integer>());
+        outputs.add(new ArrayList<Integer>());
+        for (int i = 0; i < count; i++) {
+            if (literals[i] == null) continue;
+            int node = 0;
+            for (int j = 0; j < literals[i].length(); j++) {
+                Character c = literals[i].charAt(j);
+                Integer next = trie.get(node).get(c);
+                if (next == null) {
+                    next = trie.size();
+                    trie.add(new HashMap<Character, Integer>());
+                    outputs.add(new ArrayList<Integer>());
+                    trie.get(node).put(c, next);
+                }
+                node = next;
+            }
+            outputs.get(node).add(i);
+        }
+        int nodes = trie.size();
+        firstEdge = new int[nodes+1];
+        for (int n = 0; n < nodes; n++) firstEdge[n+1] = firstEdge[n] + trie.get(n).size();
+        edgeChar = new char[firstEdge[nodes]];
+        edgeTarget = new int[firstEdge[nodes]];
+        for (int n = 0; n < nodes; n++) {
+            Character[] keys = trie.get(n).keySet().toArray(new Character[0]);
+            Arrays.sort(keys);
+            for (int k = 0; k < keys.length; k++) {
+                edgeChar[firstEdge[n]+k] = keys[k];
+                edgeTarget[firstEdge[n]+k] = trie.get(n).get(keys[k]);
+            }
+        }
+        // failure links in breadth first order; each node also reports the outputs of its failure node
+        fail = new int[nodes];
+        int[] queue = new int[nodes];
+        int head = 0, tail = 0;
+        queue[tail++] = 0;
+        while (head < tail) {
+            int n = queue[head++];
+            for (int e = firstEdge[n]; e < firstEdge[n+1]; e++) {
+                int child = edgeTarget[e];
+                int f = fail[n];
+                if (n == 0) f = 0;
+                else {
+                    int t;
+                    while ((t = next(f, edgeChar[e])) < 0 && f != 0) f = fail[f];
+                    f = t < 0 ? 0 : t;
+                }
+                fail[child] = f;
+                outputs.get(child).addAll(outputs.get(f));
+                queue[tail++] = child;
+            }
+        }
+        firstOutput = new int[nodes+1];
+        for (int n = 0; n < nodes; n++) firstOutput[n+1] = firstOutput[n] + outputs.get(n).size();
+        output = new int[firstOutput[nodes]];
+        for (int n = 0; n < nodes; n++) {
+            int k = firstOutput[n];
+            for (int i : outputs.get(n)) output[k++] = i;
+        }
+    }
+
+    private int next(int node, char c) {
+        int lo = firstEdge[node], hi = firstEdge[node+1]-1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            char m = edgeChar[mid];
+            if (m < c) lo = mid + 1;
+            else if (m > c) hi = mid - 1;
+            else return edgeTarget[mid];
+        }
+        return -1;
+    }
+
+    /**
+     * find the patterns occurring in a folded string
+     *
+     * @param folded    string passed through fold()
+     * @return          set of pattern indices, including the entries that are always tried
+     */
+    BitSet scan(String folded) {
+        BitSet found = (BitSet)alwaysTry.clone();
+        int node = 0;
+        for (int i = 0; i < folded.length(); i++) {
+            char c = folded.charAt(i);
+            int t;
+            while ((t = next(node, c)) < 0 && node != 0) node = fail[node];
+            node = t < 0 ? 0 : t;
+            for (int k = firstOutput[node]; k < firstOutput[node+1]; k++) found.set(output[k]);
+        }
+        return found;
+    }
+
+    /**
+     * Apply the substitutions to an input string
+     *
+     * @param request      input request
+     * @return             result of applying substitutions to input
+     */
+    public String substitute(String request) {
+        String result = " "+request+" ";
+        try {
+            String folded = fold(result);
+            BitSet found = scan(folded);
+            for (int i = found.nextSetBit(0); i >= 0; i = found.nextSetBit(i+1)) {
+                String replaced;
+                if (literals[i] != null && literalReplacement[i]) replaced = replaceLiteral(result, folded, literals[i], subs[i]);
+                else {
+                    Matcher m = patterns[i].matcher(result);
+                    replaced = m.find() ? m.replaceAll(subs[i]) : result;
+                }
+                if (!replaced.equals(result)) {
+                    result = replaced;
+                    folded = fold(result);
+                    found = scan(folded);
+                }
+            }
+            result = collapseSpaces(result).trim();
+        } catch (Exception ex)    {
+            ex.printStackTrace();
+        }
+        return result.trim();
+    }
+
+    private static String replaceLiteral(String text, String folded, String literal, String replacement) {
+        int index = folded.indexOf(literal);
+        if (index < 0) return text;
+        StringBuilder sb = new StringBuilder(text.length() + 16);
+        int from = 0;
+        while (index >= 0) {
+            sb.append(text, from, index).append(replacement);
+            from = index + literal.length();
+            index = folded.indexOf(literal, from);
+        }
+        sb.append(text, from, text.length());
+        return sb.toString();
+    }
+
+    /**
+     * replace every run of spaces by a single space
+     */
+    static String collapseSpaces(String s) {
+        if (!s.contains("  ")) return s;
+        StringBuilder sb = new StringBuilder(s.length());
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c != ' ' || sb.length() == 0 || sb.charAt(sb.length()-1) != ' ') sb.append(c);
+        }
+        return sb.toString();
+    }
+}
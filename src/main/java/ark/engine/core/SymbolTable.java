@@ -0,0 +1,122 @@
+package ark.engine.core;
+/* Program AB Reference AIML 2.0 implementation
+        Copyright (C) 2013 ALICE A.I. Foundation
+        Contact: info@alicebot.org
+
+        This library is free software; you can redistribute it and/or
+        modify it under the terms of the GNU Library General Public
+        License as published by the Free Software Foundation; either
+        version 2 of the License, or (at your option) any later version.
+
+        This library is distributed in the hope that it will be useful,
+        but WITHOUT ANY WARRANTY; without even the implied warranty of
+        MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+        Library General Public License for more details.
+
+        You should have received a copy of the GNU Library General Public
+        License along with this library; if not, write to the
+        Free Software Foundation, Inc., 51 Franklin St, Fifth Floor,
+        Boston, MA  02110-1301, USA.
+*/
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Bot-wide table of pattern words.
+ *
+ * Every word that appears in a pattern path is interned once and identified by an int id.
+ * Nodemapper branches are keyed by these ids, and input words are converted to ids once per
+ * match, so the matcher compares ints instead of hashing Strings.
+ *
+ * The wildcards and the path separators always have the same ids.
+ */
+public class SymbolTable {
+    public static final int star = 0;
+    public static final int underscore = 1;
+    public static final int sharp = 2;
+    public static final int caret = 3;
+    public static final int that = 4;
+    public static final int topic = 5;
+    public static final int unknown = -1;
+
+    private final ConcurrentHashMap<String, Integer> ids = new ConcurrentHashMap<String, Integer>();
+    private final ArrayList<String> words = new ArrayList<String>();
+    private volatile int[] dollarOf = new int[0];
+
+    /**
+     * Constructor: interns the wildcards and path separators
+     */
+    public SymbolTable() {
+        intern("*");
+        intern("_");
+        intern("#");
+        intern("^");
+        intern("<THAT>");
+        intern("<TOPIC>");
+    }
+
+    /**
+     * get the id of a word, adding the word to the table if it is new.
+     * Interning "$WORD" also interns "WORD" so that input words can be mapped to their $ form.
+     *
+     * @param word     pattern word
+     * @return         id of the word
+     */
+    public synchronized int intern(String word) {
+        Integer id = ids.get(word);
+        if (id != null) return id;
+        int newId = words.size();
+        words.add(word);
+        if (newId >= dollarOf.length) {
+            int[] grown = Arrays.copyOf(dollarOf, Math.max(16, dollarOf.length*2));
+            Arrays.fill(grown, dollarOf.length, grown.length, unknown);
+            dollarOf = grown;
+        }
+        ids.put(word, newId);
+        if (word.length() > 1 && word.startsWith("$")) {
+            int wordId = intern(word.substring(1));
+            dollarOf[wordId] = newId;
+        }
+        return newId;
+    }
+
+    /**
+     * look up the id of a word without adding it
+     *
+     * @param word     word
+     * @return         id of the word, or unknown if the word is not in any pattern
+     */
+    public int id(String word) {
+        Integer id = ids.get(word);
+        if (id == null) return unknown;
+        else return id;
+    }
+
+    /**
+     * id of the "$WORD" form of a word
+     *
+     * @param id      id of WORD
+     * @return        id of $WORD, or unknown if no pattern contains $WORD
+     */
+    public int dollarOf(int id) {
+        int[] table = dollarOf;
+        if (id < 0 || id >= table.length) return unknown;
+        else return table[id];
+    }
+
+    /**
+     * @param id     word id
+     * @return       the word with this id
+     */
+    public synchronized String word(int id) {
+        return words.get(id);
+    }
+
+    /**
+     * @return      number of words in the table
+     */
+    public synchronized int size() {
+        return words.size();
+    }
+}
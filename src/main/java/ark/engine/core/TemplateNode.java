@@ -0,0 +1,146 @@
+package ark.engine.core;
+/* Program AB Reference AIML 2.0 implementation
+        Copyright (C) 2013 ALICE A.I. Foundation
+        Contact: info@alicebot.org
+
+        This library is free software; you can redistribute it and/or
+        modify it under the terms of the GNU Library General Public
+        License as published by the Free Software Foundation; either
+        version 2 of the License, or (at your option) any later version.
+
+        This library is distributed in the hope that it will be useful,
+        but WITHOUT ANY WARRANTY; without even the implied warranty of
+        MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+        Library General Public License for more details.
+
+        You should have received a copy of the GNU Library General Public
+        License along with this library; if not, write to the
+        Free Software Foundation, Inc., 51 Franklin St, Fifth Floor,
+        Boston, MA  02110-1301, USA.
+*/
+import ark.engine.utils.DomUtils;
+import org.w3c.dom.NamedNodeMap;
+import org.w3c.dom.Node;
+import org.w3c.dom.NodeList;
+
+/**
+ * Compiled form of an AIML template.
+ *
+ * A template is parsed from XML once and converted into a tree of TemplateNode objects,
+ * which AIMLProcessor then evaluates for every response.  The tree is never modified
+ * after it is built, so a single compiled template may be shared by all chat sessions.
+ *
+ * Node names follow the DOM conventions: elements carry their tag name, text nodes are
+ * named "#text", comments "#comment" and CDATA sections "#cdata-section".
+ */
+public class TemplateNode {
+    private static final TemplateNode[] noChildren = new TemplateNode[0];
+    private static final String[] noAttributes = new String[0];
+
+    private final String name;
+    private final String value;
+    private final String[] attributeNames;
+    private final String[] attributeValues;
+    private final TemplateNode[] children;
+
+    private TemplateNode(String name, String value, String[] attributeNames, String[] attributeValues, TemplateNode[] children) {
+        this.name = name;
+        this.value = value;
+        this.attributeNames = attributeNames;
+        this.attributeValues = attributeValues;
+        this.children = children;
+    }
+
+    /**
+     * parse an AIML template and compile it into a TemplateNode tree.
+     *
+     * @param template      AIML template contents (without the enclosing template tags)
+     * @return              root node of the compiled template, named "template"
+     * @throws Exception    if the template is not well formed XML
+     */
+    public static TemplateNode compile(String template) throws Exception {
+        Node root = DomUtils.parseString("<template>"+template+"</template>");
+        return fromNode(root);
+    }
+
+    /**
+     * convert a DOM node and its descendants into a TemplateNode tree.
+     *
+     * @param node     XML DOM node
+     * @return         equivalent TemplateNode
+     */
+    public static TemplateNode fromNode(Node node) {
+        String[] names = noAttributes;
+        String[] values = noAttributes;
+        NamedNodeMap XMLAttributes = node.getAttributes();
+        if (XMLAttributes != null && XMLAttributes.getLength() > 0) {
+            names = new String[XMLAttributes.getLength()];
+            values = new String[XMLAttributes.getLength()];
+            for (int i = 0; i < XMLAttributes.getLength(); i++) {
+                names[i] = XMLAttributes.item(i).getNodeName();
+                values[i] = XMLAttributes.item(i).getNodeValue();
+            }
+        }
+        TemplateNode[] children = noChildren;
+        NodeList childList = node.getChildNodes();
+        if (childList.getLength() > 0) {
+            children = new TemplateNode[childList.getLength()];
+            for (int i = 0; i < childList.getLength(); i++) children[i] = fromNode(childList.item(i));
+        }
+        return new TemplateNode(node.getNodeName(), node.getNodeValue(), names, values, children);
+    }
+
+    /**
+     * @return      tag name, or "#text", "#comment", "#cdata-section" for non-element nodes
+     */
+    public String getNodeName() {
+        return name;
+    }
+
+    /**
+     * @return      text content of a text, comment or CDATA node; null for elements
+     */
+    public String getNodeValue() {
+        return value;
+    }
+
+    public boolean hasChildNodes() {
+        return children.length > 0;
+    }
+
+    public int getChildCount() {
+        return children.length;
+    }
+
+    public TemplateNode getChild(int index) {
+        return children[index];
+    }
+
+    public boolean hasAttributes() {
+        return attributeNames.length > 0;
+    }
+
+    public int getAttributeCount() {
+        return attributeNames.length;
+    }
+
+    public String getAttributeName(int index) {
+        return attributeNames[index];
+    }
+
+    public String getAttributeValue(int index) {
+        return attributeValues[index];
+    }
+
+    /**
+     * look up an XML attribute by name
+     *
+     * @param attributeName     name of the attribute
+     * @return                  attribute value, or null if the node has no such attribute
+     */
+    public String getAttribute(String attributeName) {
+        for (int i = 0; i < attributeNames.length; i++)
+            if (attributeNames[i].equals(attributeName)) return attributeValues[i];
+        return null;
+    }
+}
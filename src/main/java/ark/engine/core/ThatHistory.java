@@ -0,0 +1,176 @@
+package ark.engine.core;
+/* Program AB Reference AIML 2.0 implementation
+        Copyright (C) 2013 ALICE A.I. Foundation
+        Contact: info@alicebot.org
+
+        This library is free software; you can redistribute it and/or
+        modify it under the terms of the GNU Library General Public
+        License as published by the Free Software Foundation; either
+        version 2 of the License, or (at your option) any later version.
+
+        This library is distributed in the hope that it will be useful,
+        but WITHOUT ANY WARRANTY; without even the implied warranty of
+        MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+        Library General Public License for more details.
+
+        You should have received a copy of the GNU Library General Public
+        License along with this library; if not, write to the
+        Free Software Foundation, Inc., 51 Franklin St, Fifth Floor,
+        Boston, MA  02110-1301, USA.
+*/
+
+import java.io.*;
+
+/**
+ * History of the bot's replies, sentence by sentence, for the {@code <that index="M,N"/>} tag.
+ *
+ * The sentences of the last max_history responses are stored in one flat array,
+ * response index by sentence index, each row a ring of max_history sentences.
+ * The sentences of the current response are added to a spare row, so the stored
+ * responses are unchanged until the request completes.  The spare row then becomes
+ * response 0 and the row of the oldest response becomes the spare, so nothing is
+ * allocated per request.
+ */
+public class ThatHistory implements Externalizable {
+    private static final long serialVersionUID = 1L;
+    private final int capacity;
+    private final String[] sentences;      // row r holds the sentences of one response
+    private final int[] counts;            // number of sentences added to each row
+    private final int[] rows;              // row of each slot of the ring of responses
+    private int spare;                     // row not in the ring, where a new response is recorded
+    private int head = -1;                 // slot of the most recent response
+    private int size = 0;                  // number of responses stored
+    private int staged = -1;               // row of the response in progress, or -1
+
+    /**
+     * Constructor
+     */
+    public ThatHistory() {
+        capacity = MagicNumbers.max_history;
+        sentences = new String[(capacity + 1) * capacity];
+        counts = new int[capacity + 1];
+        rows = new int[capacity];
+        for (int i = 0; i < capacity; i++) rows[i] = i;
+        spare = capacity;
+    }
+
+    /**
+     * start recording the sentences of a new response
+     */
+    public void begin() {
+        staged = spare;
+        counts[staged] = 0;
+    }
+
+    /**
+     * add a sentence to the response in progress
+     *
+     * @param that     sentence of the bot's response
+     */
+    public void add(String that) {
+        if (staged < 0) begin();
+        sentences[staged * capacity + counts[staged] % capacity] = that;
+        counts[staged]++;
+    }
+
+    /**
+     * make the response in progress the most recent response
+     */
+    public void commit() {
+        if (staged < 0) begin();
+        head = (head + 1) % capacity;
+        spare = rows[head];
+        rows[head] = staged;
+        staged = -1;
+        if (size < capacity) size++;
+    }
+
+    /**
+     * get a sentence of a past response
+     *
+     * @param index     response index, 0 for the last response
+     * @param jndex     sentence index, 0 for the last sentence of that response
+     * @return          the sentence, or null if there is none
+     */
+    public String get(int index, int jndex) {
+        if (index < 0 || index >= size) return null;
+        int row = rows[(head - index + capacity) % capacity];
+        int count = counts[row];
+        if (jndex < 0 || jndex >= count || jndex >= capacity) return null;
+        return sentences[row * capacity + (count - 1 - jndex) % capacity];
+    }
+
+    /**
+     * get a sentence of a past response
+     *
+     * @param index     response index
+     * @param jndex     sentence index
+     * @return          the sentence, or MagicStrings.unknown_history_item if there is none
+     */
+    public String getString(int index, int jndex) {
+        String that = get(index, jndex);
+        if (that == null) return MagicStrings.unknown_history_item;
+        else return that;
+    }
+
+    /**
+     * @return      number of stored responses
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * write the stored responses, oldest first.  A response in progress is not written.
+     *
+     * @param out     binary output
+     * @throws IOException
+     */
+    public void write(DataOutput out) throws IOException {
+        out.writeInt(size);
+        for (int i = size-1; i >= 0; i--) {
+            int row = rows[(head - i + capacity) % capacity];
+            int n = Math.min(counts[row], capacity);
+            out.writeInt(n);
+            for (int j = n-1; j >= 0; j--) Utilities.writeString(out, get(i, j));
+        }
+    }
+
+    /**
+     * replace the history with responses written by write()
+     *
+     * @param in      binary input
+     * @throws IOException
+     */
+    public void read(DataInput in) throws IOException {
+        head = -1;
+        size = 0;
+        staged = -1;
+        int responses = in.readInt();
+        for (int i = 0; i < responses; i++) {
+            begin();
+            int n = in.readInt();
+            for (int j = 0; j < n; j++) add(Utilities.readString(in));
+            commit();
+        }
+    }
+
+    public void writeExternal(ObjectOutput out) throws IOException {
+        write(out);
+    }
+
+    public void readExternal(ObjectInput in) throws IOException {
+        read(in);
+    }
+
+    /**
+     * print history
+     */
+    public void printHistory() {
+        for (int i = 0; i < size; i++) {
+            for (int j = 0; get(i, j) != null; j++) {
+                System.out.println("thatHistory "+(i+1)+","+(j+1)+" = "+get(i, j));
+            }
+        }
+    }
+}
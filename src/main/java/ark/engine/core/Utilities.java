@@ -21,6 +21,9 @@ package ark.engine.core;
 import ark.engine.utils.CalendarUtils;
 
 import java.io.*;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
 import java.util.HashSet;
 
 public class Utilities {
@@ -35,7 +38,7 @@ public class Utilities {
         while (line.endsWith(";")) line = line.substring(0, line.length()-1);
         if (line.startsWith("\"")) line = line.substring(1, line.length());
         if (line.endsWith("\"")) line = line.substring(0, line.length()-1);
-        line = line.replaceAll("\"\"", "\"");
+        if (line.contains("\"\"")) line = line.replace("\"\"", "\"");
         return line;
     }
     public static String tagTrim(String xmlExpression, String tagName) {
@@ -100,22 +103,33 @@ public class Utilities {
         return copyright;
     }
     public static String getCopyright (Bot bot, String AIMLFilename) {
+        return getCopyright(getCopyrightTemplate(bot), AIMLFilename);
+    }
+
+    /**
+     * read copyright.txt once and fill in everything except the file name,
+     * so that a batch of AIML files can share it.
+     *
+     * @param bot    the bot
+     * @return  copyright comment with a [filename] placeholder
+     */
+    public static String getCopyrightTemplate (Bot bot) {
         String copyright = "";
         String year = CalendarUtils.year();
         String date = CalendarUtils.date();
         try {
                 copyright = getFile(MagicStrings.config_path+"/copyright.txt") ;
                 String[] splitCopyright = copyright.split("\n");
-                copyright = "";
+                StringBuilder sb = new StringBuilder();
                 for (int i = 0; i < splitCopyright.length; i++) {
-                    copyright += "<!-- "+splitCopyright[i]+" -->\n";
+                    sb.append("<!-- ").append(splitCopyright[i]).append(" -->\n");
                 }
+                copyright = sb.toString();
                 copyright = copyright.replace("[url]", bot.properties.get("url"));
                 copyright = copyright.replace("[date]", date);
                 copyright = copyright.replace("[YYYY]", year);
                 copyright = copyright.replace("[version]", bot.properties.get("version"));
                 copyright = copyright.replace("[botname]", bot.name.toUpperCase());
-                copyright = copyright.replace("[filename]", AIMLFilename);
                 copyright = copyright.replace("[botmaster]", bot.properties.get("botmaster"));
                 copyright = copyright.replace("[organization]", bot.properties.get("organization"));
         } catch (Exception e){//Catch exception if any
@@ -125,6 +139,74 @@ public class Utilities {
         return copyright;
     }
 
+    /**
+     * fill in the file name of a copyright template
+     *
+     * @param template        result of getCopyrightTemplate()
+     * @param AIMLFilename    AIML file name
+     * @return  copyright comment for the file
+     */
+    public static String getCopyright (String template, String AIMLFilename) {
+        return template.replace("[filename]", AIMLFilename);
+    }
+
+    /**
+     * write a file by writing a temporary file next to it and renaming it into place,
+     * so readers never see a partly written file.
+     *
+     * @param fileName     destination file
+     * @param contents     file contents
+     * @throws IOException  if the file cannot be written
+     */
+    public static void writeFileAtomically (String fileName, String contents) throws IOException {
+        File target = new File(fileName);
+        File temp = new File(fileName+".tmp");
+        BufferedWriter bw = new BufferedWriter(new FileWriter(temp));
+        try {
+            bw.write(contents);
+        } finally {
+            bw.close();
+        }
+        try {
+            Files.move(temp.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException ex) {
+            Files.move(temp.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    /**
+     * write a string as its UTF-8 length and bytes.  Unlike DataOutput.writeUTF
+     * there is no 64K limit, and null is written as length -1.
+     *
+     * @param out      binary output
+     * @param s        string to write, or null
+     * @throws IOException
+     */
+    public static void writeString (DataOutput out, String s) throws IOException {
+        if (s == null) {
+            out.writeInt(-1);
+            return;
+        }
+        byte[] bytes = s.getBytes("UTF-8");
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    /**
+     * read a string written by writeString
+     *
+     * @param in       binary input
+     * @return         the string, or null
+     * @throws IOException
+     */
+    public static String readString (DataInput in) throws IOException {
+        int length = in.readInt();
+        if (length < 0) return null;
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, "UTF-8");
+    }
+
     public static String getPannousAPIKey () {
        String apiKey = getFile(MagicStrings.config_path+"/pannous-apikey.txt");
        if (apiKey.equals("")) apiKey = MagicStrings.pannous_api_key;
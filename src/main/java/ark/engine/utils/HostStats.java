@@ -0,0 +1,41 @@
+package ark.engine.utils;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Request count and latency of the HTTP requests sent to one host by NetworkUtils
+ */
+public class HostStats {
+    public final String host;
+    public final AtomicLong requests = new AtomicLong();
+    public final AtomicLong errors = new AtomicLong();
+    public final AtomicLong totalMs = new AtomicLong();
+    public final AtomicLong maxMs = new AtomicLong();
+
+    public HostStats(String host) {
+        this.host = host;
+    }
+
+    /**
+     * record one request
+     *
+     * @param ms        time taken, including reading the response
+     * @param failed    true if the request failed
+     */
+    public void record(long ms, boolean failed) {
+        requests.incrementAndGet();
+        if (failed) errors.incrementAndGet();
+        totalMs.addAndGet(ms);
+        long max = maxMs.get();
+        while (ms > max && !maxMs.compareAndSet(max, ms)) max = maxMs.get();
+    }
+
+    public double meanMs() {
+        long n = requests.get();
+        return n == 0 ? 0 : (double)totalMs.get()/n;
+    }
+
+    public String toString() {
+        return host+" requests="+requests.get()+" errors="+errors.get()+" mean="+Math.round(meanMs())+"ms max="+maxMs.get()+"ms";
+    }
+}
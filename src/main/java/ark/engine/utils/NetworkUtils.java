@@ -1,19 +1,27 @@
 package ark.engine.utils;
 
-import java.io.BufferedReader;
-import java.io.InputStream;
-import java.io.InputStreamReader;
 import java.net.InetAddress;
 import java.net.NetworkInterface;
 import java.net.SocketException;
 import java.net.URI;
 import java.net.URLEncoder;
+import java.nio.charset.Charset;
 import java.util.Enumeration;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
 
+import org.apache.http.HttpEntity;
 import org.apache.http.HttpResponse;
 import org.apache.http.client.HttpClient;
 import org.apache.http.client.methods.HttpGet;
+import org.apache.http.impl.client.DefaultConnectionKeepAliveStrategy;
 import org.apache.http.impl.client.DefaultHttpClient;
+import org.apache.http.impl.conn.tsccm.ThreadSafeClientConnManager;
+import org.apache.http.params.BasicHttpParams;
+import org.apache.http.params.HttpConnectionParams;
+import org.apache.http.params.HttpParams;
+import org.apache.http.protocol.HttpContext;
+import org.apache.http.util.EntityUtils;
 
 import org.w3c.dom.Node;
 
@@ -43,20 +51,106 @@ public class NetworkUtils {
     }
 
 
+	/**
+	 * Settings of the shared HTTP client.  They take effect when the client is created,
+	 * on the first request.
+	 */
+	public static int connectTimeoutMs = 5000;
+	public static int readTimeoutMs = 10000;
+	public static int maxConnections = 64;
+	public static int maxConnectionsPerHost = 8;
+	public static long keepAliveMs = 30000;		// for servers that do not say how long to keep a connection
+
+	private static DefaultHttpClient client = null;
+	private static ThreadSafeClientConnManager connectionManager = null;
+	public static final AtomicInteger activeRequests = new AtomicInteger();
+	public static final ConcurrentHashMap<String, HostStats> hostStats = new ConcurrentHashMap<String, HostStats>();
+
+	/**
+	 * the HTTP client shared by all requests.  Connections are pooled and kept alive,
+	 * so repeated requests to a host skip the TCP and TLS setup.
+	 *
+	 * @return the client
+	 */
+	public static synchronized HttpClient client() {
+		if (client == null) {
+			connectionManager = new ThreadSafeClientConnManager();
+			connectionManager.setMaxTotal(maxConnections);
+			connectionManager.setDefaultMaxPerRoute(maxConnectionsPerHost);
+			HttpParams params = new BasicHttpParams();
+			HttpConnectionParams.setConnectionTimeout(params, connectTimeoutMs);
+			HttpConnectionParams.setSoTimeout(params, readTimeoutMs);
+			client = new DefaultHttpClient(connectionManager, params);
+			client.setKeepAliveStrategy(new DefaultConnectionKeepAliveStrategy() {
+				public long getKeepAliveDuration(HttpResponse response, HttpContext context) {
+					long duration = super.getKeepAliveDuration(response, context);
+					return duration > 0 ? duration : keepAliveMs;
+				}
+			});
+		}
+		return client;
+	}
+
+	/**
+	 * close the pooled connections.  The next request creates a new client.
+	 */
+	public static synchronized void shutdown() {
+		if (connectionManager != null) connectionManager.shutdown();
+		client = null;
+		connectionManager = null;
+	}
+
+	/**
+	 * @return number of connections open in the pool, in use or idle
+	 */
+	public static synchronized int connectionsInPool() {
+		return connectionManager == null ? 0 : connectionManager.getConnectionsInPool();
+	}
+
+	/**
+	 * @return fraction of the pool's connections in use by running requests
+	 */
+	public static double poolUtilization() {
+		return (double)activeRequests.get()/maxConnections;
+	}
+
+	/**
+	 * @return pool usage and the latency of each host, one line each
+	 */
+	public static String stats() {
+		StringBuilder sb = new StringBuilder();
+		sb.append("HTTP pool: ").append(activeRequests.get()).append(" active, ").append(connectionsInPool())
+				.append(" open, ").append(maxConnections).append(" max\n");
+		for (HostStats stats : hostStats.values()) sb.append(stats).append("\n");
+		return sb.toString();
+	}
+
 	public static String responseContent(String url) throws Exception {
-		HttpClient client = new DefaultHttpClient();
+		HttpClient client = client();
 		HttpGet request = new HttpGet();
-		request.setURI(new URI(url));
-		InputStream is = client.execute(request).getEntity().getContent();
-		BufferedReader inb = new BufferedReader(new InputStreamReader(is));
-		StringBuilder sb = new StringBuilder("");
-		String line;
-		String NL = System.getProperty("line.separator");
-		while ((line = inb.readLine()) != null) {
-			sb.append(line).append(NL);
+		URI uri = new URI(url);
+		request.setURI(uri);
+		String host = uri.getPort() < 0 ? uri.getHost() : uri.getHost()+":"+uri.getPort();
+		HostStats stats = hostStats.get(host);
+		if (stats == null) {
+			hostStats.putIfAbsent(host, new HostStats(host));
+			stats = hostStats.get(host);
+		}
+		long start = System.currentTimeMillis();
+		boolean failed = true;
+		activeRequests.incrementAndGet();
+		try {
+			HttpEntity entity = client.execute(request).getEntity();
+			String content = entity == null ? "" : EntityUtils.toString(entity, Charset.defaultCharset().name());
+			failed = false;
+			return content;
+		} catch (Exception ex) {
+			request.abort();
+			throw ex;
+		} finally {
+			activeRequests.decrementAndGet();
+			stats.record(System.currentTimeMillis() - start, failed);
 		}
-		inb.close();
-		return sb.toString();
 	}
 
 
@@ -0,0 +1,104 @@
+package ark.engine.test;
+
+import ark.engine.core.Bot;
+import ark.engine.core.Category;
+import junit.framework.TestCase;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The memory-mapped AIMLIF reader gives the same categories, in the same order, as reading lines
+ * and converting them with Category.IFToCategory.
+ */
+public class AIMLIFReaderTest
+    extends TestCase
+{
+    private File root;
+    private Bot bot;
+
+    protected void setUp() throws Exception
+    {
+        root = TestBots.createRoot();
+        bot = new Bot(TestBots.name, root.getPath()+"/", "aiml2csv");
+    }
+
+    protected void tearDown()
+    {
+        bot.close();
+        TestBots.delete(root);
+    }
+
+    /**
+     * the line reader used before the AIMLIF files were memory mapped
+     */
+    private static List<String> lineCategories(File file) throws Exception
+    {
+        List<String> categories = new ArrayList<String>();
+        BufferedReader br = new BufferedReader(new InputStreamReader(new FileInputStream(file), "UTF-8"));
+        try {
+            String line;
+            while ((line = br.readLine()) != null) {
+                try {
+                    categories.add(toString(Category.IFToCategory(line)));
+                } catch (Exception ex) {
+                    // invalid line, skipped
+                }
+            }
+        } finally {
+            br.close();
+        }
+        return categories;
+    }
+
+    private static String toString(Category c)
+    {
+        return c.getActivationCnt()+"|"+c.getPattern()+"|"+c.getThat()+"|"+c.getTopic()+"|"+c.getTemplate()+"|"+c.getFilename();
+    }
+
+    private void assertSameCategories(File file) throws Exception
+    {
+        List<String> actual = new ArrayList<String>();
+        for (Category c : bot.readIFCategories(file.getPath())) actual.add(toString(c));
+        assertEquals(file.getName(), lineCategories(file), actual);
+    }
+
+    public void testBundledFiles() throws Exception
+    {
+        File[] files = new File("bots/super/aimlif").listFiles();
+        assertNotNull(files);
+        int count = 0;
+        for (File file : files) {
+            if (!file.getName().endsWith(".csv")) continue;
+            assertSameCategories(file);
+            count++;
+        }
+        assertTrue(count > 0);
+    }
+
+    public void testEdgeCases() throws Exception
+    {
+        File file = new File(TestBots.botDir(root, "aimlif"), "edge.aiml.csv");
+        TestBots.write(file,
+                "0,HELLO,*,*,Hi#Comma there.#Newline<think/>,edge.aiml\n"
+                + "12,SAY *,*,*,He said \"\"hi\"\" and \"\"bye\"\".,edge.aiml\r\n"
+                + "\n"
+                + "3,CAF\u00c9 \uD83D\uDE00,*,*,#Newline#Newline#Comma#Comm#Newlin,edge.aiml\r"
+                + "-4,NEGATIVE,*,*,x,edge.aiml\n"
+                + "007,LEADING ZEROS,*,*,x,edge.aiml\n"
+                + "99999999999,TOO BIG,*,*,x,edge.aiml\n"
+                + "one,NOT A NUMBER,*,*,x,edge.aiml\n"
+                + "0,SHORT,*,*,x\n"
+                + "0,EMPTY FILE,*,*,x,\n"
+                + "0,EMPTY TAIL,*,*,x,,,\n"
+                + "0,EXTRA,*,*,x,edge.aiml,more,fields\n"
+                + "0,,,,,edge.aiml\n"
+                + "0,NO NEWLINE,*,*,last,edge.aiml");
+        assertSameCategories(file);
+        assertEquals(8, bot.readIFCategories(file.getPath()).size());
+    }
+}
@@ -0,0 +1,123 @@
+package ark.engine.test;
+
+import ark.engine.core.AB;
+import ark.engine.core.Bot;
+import ark.engine.core.Category;
+import ark.engine.core.MagicNumbers;
+import ark.engine.core.Utilities;
+import junit.framework.TestCase;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.util.List;
+
+/**
+ * Only the AIMLIF and AIML files whose categories changed are written, each one atomically, and
+ * AB writes the AIMLIF files in batches.
+ */
+public class AIMLIFWriteTest
+    extends TestCase
+{
+    private static final long past = 1000000000L;
+
+    private File root;
+    private Bot bot;
+
+    protected void setUp() throws Exception
+    {
+        root = TestBots.createRoot();
+        TestBots.write(new File(TestBots.botDir(root, "aiml"), "a.aiml"), TestBots.aiml(TestBots.category("ALPHA", "A.")));
+        TestBots.write(new File(TestBots.botDir(root, "aiml"), "b.aiml"), TestBots.aiml(TestBots.category("BRAVO", "B.")));
+        bot = new Bot(TestBots.name, root.getPath()+"/", "aiml2csv");
+        bot.writeAllAIMLIFFiles();
+    }
+
+    protected void tearDown()
+    {
+        bot.close();
+        TestBots.delete(root);
+    }
+
+    private File aimlif(String aimlFile)
+    {
+        return new File(TestBots.botDir(root, "aimlif"), aimlFile+".csv");
+    }
+
+    private static List<String> lines(File file) throws Exception
+    {
+        return Files.readAllLines(file.toPath(), Charset.forName("UTF-8"));
+    }
+
+    public void testOnlyChangedFilesAreWritten() throws Exception
+    {
+        assertEquals(1, lines(aimlif("a.aiml")).size());
+        assertEquals(1, lines(aimlif("b.aiml")).size());
+        aimlif("a.aiml").setLastModified(past);
+        aimlif("b.aiml").setLastModified(past);
+
+        bot.brain.addCategory(new Category(0, "ALPHA TWO", "*", "*", "A2.", "a.aiml"));
+        bot.writeAIMLIFFiles();
+        assertEquals(2, lines(aimlif("a.aiml")).size());
+        assertTrue(aimlif("a.aiml").lastModified() > past);
+        assertEquals(past, aimlif("b.aiml").lastModified());
+
+        aimlif("a.aiml").setLastModified(past);
+        bot.writeAIMLIFFiles();
+        assertEquals("nothing changed since the last write", past, aimlif("a.aiml").lastModified());
+
+        File aimlA = new File(TestBots.botDir(root, "aiml"), "a.aiml");
+        File aimlB = new File(TestBots.botDir(root, "aiml"), "b.aiml");
+        bot.writeAIMLFiles();
+        assertTrue(new String(Files.readAllBytes(aimlA.toPath()), "UTF-8").contains("ALPHA TWO"));
+        aimlA.setLastModified(past);
+        aimlB.setLastModified(past);
+        bot.brain.addCategory(new Category(0, "BRAVO TWO", "*", "*", "B2.", "b.aiml"));
+        bot.writeAIMLFiles();
+        assertEquals(past, aimlA.lastModified());
+        assertTrue(aimlB.lastModified() > past);
+        assertTrue(new String(Files.readAllBytes(aimlB.toPath()), "UTF-8").contains("BRAVO TWO"));
+        assertTrue(new File(TestBots.botDir(root, "aiml"), "update.aiml").exists());
+    }
+
+    public void testAtomicWrite() throws Exception
+    {
+        File file = new File(TestBots.botDir(root, "aimlif"), "atomic.txt");
+        Utilities.writeFileAtomically(file.getPath(), "old contents");
+        InputStream reader = new FileInputStream(file);
+        try {
+            Utilities.writeFileAtomically(file.getPath(), "new");
+            byte[] old = new byte[64];
+            int n = reader.read(old);
+            assertEquals("an open reader keeps the file it opened", "old contents", new String(old, 0, n, "UTF-8"));
+        } finally {
+            reader.close();
+        }
+        assertEquals("new", new String(Files.readAllBytes(file.toPath()), "UTF-8"));
+        assertFalse(new File(file.getPath()+".tmp").exists());
+    }
+
+    public void testSaveCategoryWritesInBatches() throws Exception
+    {
+        int batch = MagicNumbers.aimlif_write_batch;
+        MagicNumbers.aimlif_write_batch = 3;
+        AB.unwrittenCnt = 0;
+        try {
+            AB.saveCategory(bot, "ONE", "1.", "ab.aiml");
+            AB.saveCategory(bot, "TWO", "2.", "ab.aiml");
+            assertFalse(aimlif("ab.aiml").exists());
+            AB.saveCategory(bot, "THREE", "3.", "ab.aiml");
+            assertEquals(3, lines(aimlif("ab.aiml")).size());
+            AB.saveCategory(bot, "FOUR", "4.", "ab.aiml");
+            assertEquals(3, lines(aimlif("ab.aiml")).size());
+            assertEquals(1, AB.unwrittenCnt);
+            AB.flushCategories(bot);
+            assertEquals(4, lines(aimlif("ab.aiml")).size());
+            assertEquals(0, AB.unwrittenCnt);
+        } finally {
+            MagicNumbers.aimlif_write_batch = batch;
+        }
+    }
+}
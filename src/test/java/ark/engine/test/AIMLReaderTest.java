@@ -0,0 +1,113 @@
+package ark.engine.test;
+
+import ark.engine.core.AIMLProcessor;
+import ark.engine.core.Category;
+import ark.engine.utils.DomUtils;
+import junit.framework.TestCase;
+import org.w3c.dom.Node;
+import org.w3c.dom.NodeList;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The streaming AIML reader gives the same categories as the DOM loader it replaced.
+ */
+public class AIMLReaderTest
+    extends TestCase
+{
+    private File root;
+
+    protected void setUp() throws Exception
+    {
+        root = TestBots.createRoot();
+    }
+
+    protected void tearDown()
+    {
+        TestBots.delete(root);
+    }
+
+    /**
+     * the DOM loader: each category element written back with DomUtils.nodeToString
+     */
+    private static List<String> domCategories(File file) throws Exception
+    {
+        List<String> categories = new ArrayList<String>();
+        NodeList nodelist = DomUtils.parseFile(file.getPath()).getChildNodes();
+        for (int i = 0; i < nodelist.getLength(); i++) {
+            Node n = nodelist.item(i);
+            if (n.getNodeName().equals("category")) domCategory(n, "*", file.getName(), categories);
+            else if (n.getNodeName().equals("topic")) {
+                String topic = n.getAttributes().getNamedItem("name").getTextContent();
+                NodeList children = n.getChildNodes();
+                for (int j = 0; j < children.getLength(); j++) {
+                    if (children.item(j).getNodeName().equals("category")) domCategory(children.item(j), topic, file.getName(), categories);
+                }
+            }
+        }
+        return categories;
+    }
+
+    private static void domCategory(Node n, String topic, String aimlFile, List<String> categories)
+    {
+        String pattern = "*", that = "*", template = "";
+        NodeList children = n.getChildNodes();
+        for (int j = 0; j < children.getLength(); j++) {
+            Node m = children.item(j);
+            String mName = m.getNodeName();
+            if (mName.equals("pattern")) pattern = DomUtils.nodeToString(m);
+            else if (mName.equals("that")) that = DomUtils.nodeToString(m);
+            else if (mName.equals("topic")) topic = DomUtils.nodeToString(m);
+            else if (mName.equals("template")) template = DomUtils.nodeToString(m);
+        }
+        categories.add(toString(new Category(0, AIMLProcessor.trimTag(pattern, "pattern"), AIMLProcessor.trimTag(that, "that"),
+                AIMLProcessor.trimTag(topic, "topic"), AIMLProcessor.trimTag(template, "template"), aimlFile)));
+    }
+
+    private static String toString(Category c)
+    {
+        return c.getPattern()+"|"+c.getThat()+"|"+c.getTopic()+"|"+c.getTemplate()+"|"+c.getFilename();
+    }
+
+    private static void assertSameCategories(File file) throws Exception
+    {
+        List<String> expected = domCategories(file);
+        List<String> actual = new ArrayList<String>();
+        for (Category c : AIMLProcessor.AIMLToCategories(file.getParent(), file.getName())) actual.add(toString(c));
+        assertEquals(file.getName(), expected, actual);
+    }
+
+    public void testBundledFiles() throws Exception
+    {
+        File[] files = new File("bots/super/aiml").listFiles();
+        assertNotNull(files);
+        int count = 0;
+        for (File file : files) {
+            if (!file.getName().endsWith(".aiml")) continue;
+            assertSameCategories(file);
+            count++;
+        }
+        assertTrue(count > 0);
+    }
+
+    public void testEdgeCases() throws Exception
+    {
+        File file = new File(TestBots.botDir(root, "aiml"), "edge.aiml");
+        TestBots.write(file, TestBots.aiml(
+                TestBots.category("HELLO", "Hi <get name=\"name\"/>, <set var='x' name=\"y\">&amp; &lt;b&gt; \"q\" 'a'</set>."),
+                TestBots.category("EMPTY", ""),
+                TestBots.category("SPACES *", "  <star  index = \"1\" />  <think></think>  "),
+                TestBots.category("MULTI", "line one\nline two\r\n\tline three"),
+                TestBots.category("COMMENT", "a<!-- note -->b<![CDATA[<raw> & stuff]]>c<?pi data?>"),
+                TestBots.category("UNICODE", "caf\u00e9 \uD83D\uDE00 &#x1F600; &#233; &#x9;"),
+                "<category><pattern>WHO</pattern><that>YOU ASKED *</that><topic>SPORTS</topic><template>Me.</template></category>",
+                "<topic name=\"FOOD\">" + TestBots.category("I LIKE *", "<random><li>Yum.</li><li>Ok.</li></random>")
+                        + "<!-- between -->" + TestBots.category("I HATE *", "<condition name=\"mood\"><li value=\"bad\">Sorry.</li><li>Why?</li></condition>")
+                        + "</topic>",
+                TestBots.category("<set>color</set> IS <bot name=\"color\"/>", "<srai>COLOR <star/></srai>")));
+        assertSameCategories(file);
+        assertEquals(10, AIMLProcessor.AIMLToCategories(file.getParent(), file.getName()).size());
+    }
+}
@@ -0,0 +1,144 @@
+package ark.engine.test;
+
+import ark.engine.core.AIMLProcessor;
+import ark.engine.core.Bot;
+import ark.engine.core.Chat;
+import ark.engine.core.MagicBooleans;
+import junit.framework.TestCase;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+
+/**
+ * Set patterns match multi-word members of every length, trying the shortest member first, on
+ * generated inputs whose expected match is worked out directly from the set members.
+ */
+public class AIMLSetTest
+    extends TestCase
+{
+    private static final String[] cities = {"new", "new york", "new york city", "york", "city", "san francisco", "san",
+            "los angeles", "paris", "york city"};
+    private static final String[] colors = {"red", "dark red", "dark", "blue", "navy blue", "light", "light navy blue"};
+    private static final String[] fillers = {"big", "the", "francisco", "angeles", "navy"};
+    private static final String none = "NONE";
+
+    private File root;
+    private Bot bot;
+    private Set<String> citySet;
+    private Set<String> colorSet;
+
+    protected void setUp() throws Exception
+    {
+        root = TestBots.createRoot();
+        TestBots.write(new File(TestBots.botDir(root, "sets"), "city.txt"), join(cities, "\n")+"\n");
+        TestBots.write(new File(TestBots.botDir(root, "sets"), "color.txt"), join(colors, "\n")+"\n");
+        TestBots.write(new File(TestBots.botDir(root, "aiml"), "sets.aiml"), TestBots.aiml(
+                TestBots.category("FROM <set>city</set> TO <set>city</set>", "<star/>|<star index=\"2\"/>"),
+                TestBots.category("I LIVE IN <set>city</set>", "<star/>"),
+                TestBots.category("<set>city</set> <set>city</set>", "<star/>|<star index=\"2\"/>"),
+                TestBots.category("<set>color</set> *", "<star/>|<star index=\"2\"/>"),
+                TestBots.category("*", none)));
+        bot = new Bot(TestBots.name, root.getPath()+"/", "aiml2csv");
+        citySet = upper(cities);
+        colorSet = upper(colors);
+    }
+
+    protected void tearDown()
+    {
+        bot.close();
+        TestBots.delete(root);
+    }
+
+    private static String join(String[] words, String separator)
+    {
+        StringBuilder sb = new StringBuilder();
+        for (String word : words) {
+            if (sb.length() > 0) sb.append(separator);
+            sb.append(word);
+        }
+        return sb.toString();
+    }
+
+    private static Set<String> upper(String[] members)
+    {
+        Set<String> set = new HashSet<String>();
+        for (String member : members) set.add(member.toUpperCase());
+        return set;
+    }
+
+    private static String words(String[] words, int from, int to)
+    {
+        return join(Arrays.copyOfRange(words, from, to), " ");
+    }
+
+    /**
+     * the first split of words into a member of first and a member of second, shortest first member first
+     */
+    private static String split(String[] words, Set<String> first, Set<String> second)
+    {
+        for (int k = 1; k < words.length; k++) {
+            String a = words(words, 0, k), b = words(words, k, words.length);
+            if (first.contains(a) && (second == null ? true : second.contains(b))) return a+"|"+b;
+        }
+        return null;
+    }
+
+    private String expected(String prefix, String[] words, String[] second)
+    {
+        if (prefix.equals("FROM")) {
+            String a = words(words, 0, words.length), b = words(second, 0, second.length);
+            return citySet.contains(a) && citySet.contains(b) ? a+"|"+b : none;
+        }
+        if (prefix.equals("I LIVE IN")) {
+            String a = words(words, 0, words.length);
+            return citySet.contains(a) ? a : none;
+        }
+        String cityPair = split(words, citySet, citySet);
+        if (cityPair != null) return cityPair;
+        String colorRest = split(words, colorSet, null);
+        if (colorRest != null) return colorRest;
+        return none;
+    }
+
+    private static String[] phrase(Random random, String[] vocabulary)
+    {
+        String[] words = new String[1 + random.nextInt(4)];
+        for (int i = 0; i < words.length; i++) words[i] = vocabulary[random.nextInt(vocabulary.length)];
+        return words;
+    }
+
+    public void testGeneratedInputs()
+    {
+        Set<String> vocabulary = new HashSet<String>();
+        for (String[] list : new String[][] {cities, colors, fillers}) {
+            for (String member : list) vocabulary.addAll(Arrays.asList(member.toUpperCase().split(" ")));
+        }
+        String[] words = vocabulary.toArray(new String[vocabulary.size()]);
+        Arrays.sort(words);
+        String[] prefixes = {"FROM", "I LIVE IN", ""};
+        Random random = new Random(18);
+        Chat chat = new Chat(bot);
+        boolean trace = MagicBooleans.trace_mode;
+        MagicBooleans.trace_mode = false;
+        int matched = 0;
+        try {
+            for (int n = 0; n < 30000; n++) {
+                String prefix = prefixes[random.nextInt(prefixes.length)];
+                String[] first = phrase(random, words), second = phrase(random, words);
+                String input;
+                if (prefix.equals("FROM")) input = "FROM "+words(first, 0, first.length)+" TO "+words(second, 0, second.length);
+                else if (prefix.equals("I LIVE IN")) input = "I LIVE IN "+words(first, 0, first.length);
+                else input = words(first, 0, first.length);
+                String expected = expected(prefix, first, second);
+                assertEquals(input, expected, AIMLProcessor.respond(input, "unknown", "unknown", chat).toUpperCase());
+                if (!expected.equals(none)) matched++;
+            }
+        } finally {
+            MagicBooleans.trace_mode = trace;
+        }
+        assertTrue("most inputs should reach a set pattern: "+matched, matched > 3000);
+    }
+}
@@ -0,0 +1,166 @@
+package ark.engine.test;
+
+import ark.engine.core.AIMLProcessor;
+import ark.engine.core.Bot;
+import ark.engine.core.Category;
+import ark.engine.core.Chat;
+import ark.engine.core.Graphmaster;
+import ark.engine.core.MagicNumbers;
+import ark.engine.core.MagicStrings;
+import ark.engine.core.RequestContext;
+import junit.framework.TestCase;
+
+import java.io.File;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Reloading changed AIML and set files swaps in a new brain without losing learned categories,
+ * while requests already running keep the brain and sets they started with.
+ */
+public class AIMLWatcherTest
+    extends TestCase
+{
+    private static final Set<String> none = Collections.emptySet();
+
+    private File root;
+    private Bot bot;
+
+    protected void setUp() throws Exception
+    {
+        root = TestBots.createRoot();
+        TestBots.write(aimlFile("a.aiml"), TestBots.aiml(TestBots.category("HELLO", "Hi."),
+                TestBots.category("ASK", "<srai>HELLO</srai>"),
+                TestBots.category("I LIKE <set>colors</set>", "Nice color.")));
+        TestBots.write(aimlFile("b.aiml"), TestBots.aiml(TestBots.category("BYE", "Bye.")));
+        TestBots.write(setFile(), "red\ngreen\n");
+        bot = new Bot(TestBots.name, root.getPath()+"/", "aiml2csv");
+    }
+
+    protected void tearDown()
+    {
+        bot.close();
+        TestBots.delete(root);
+    }
+
+    private File aimlFile(String name)
+    {
+        return new File(TestBots.botDir(root, "aiml"), name);
+    }
+
+    private File setFile()
+    {
+        return new File(TestBots.botDir(root, "sets"), "colors.txt");
+    }
+
+    private static Set<String> files(String... names)
+    {
+        Set<String> files = new HashSet<String>();
+        Collections.addAll(files, names);
+        return files;
+    }
+
+    private String respond(String input)
+    {
+        return new Chat(bot).multisentenceRespond(input);
+    }
+
+    public void testChangedFilesAreReloaded() throws Exception
+    {
+        assertEquals(4, bot.brain.categoryCnt);
+        TestBots.write(aimlFile("a.aiml"), TestBots.aiml(TestBots.category("HELLO", "Hello again."),
+                TestBots.category("ASK", "<srai>HELLO</srai>"),
+                TestBots.category("I LIKE <set>colors</set>", "Nice color."),
+                TestBots.category("NEW", "New.")));
+        TestBots.write(aimlFile("c.aiml"), TestBots.aiml(TestBots.category("SEE YOU", "Later.")));
+        bot.aimlWatcher.reload(files("a.aiml", "c.aiml"), none, none);
+        assertEquals(6, bot.brain.categoryCnt);
+        assertEquals("Hello again.", respond("Hello"));
+        assertEquals("Hello again.", respond("Ask"));
+        assertEquals("New.", respond("New"));
+        assertEquals("Later.", respond("See you"));
+        assertEquals("Bye.", respond("Bye"));
+        assertEquals(1, bot.aimlWatcher.reloadCnt);
+    }
+
+    public void testDeletedFilesAreRemoved() throws Exception
+    {
+        aimlFile("b.aiml").delete();
+        setFile().delete();
+        bot.aimlWatcher.reload(files("b.aiml"), files("colors.txt"), none);
+        assertEquals(3, bot.brain.categoryCnt);
+        assertNull(bot.brain.findCategory("BYE", "*", "*"));
+        assertFalse("Bye.".equals(respond("Bye")));
+        assertFalse(bot.setMap.containsKey("colors"));
+        assertFalse("Nice color.".equals(respond("I like red")));
+        assertEquals("Hi.", respond("Hello"));
+    }
+
+    public void testChangedSetIsReloaded() throws Exception
+    {
+        TestBots.write(setFile(), "blue\n");
+        bot.aimlWatcher.reload(none, files("colors.txt"), none);
+        assertEquals("Nice color.", respond("I like blue"));
+        assertFalse("Nice color.".equals(respond("I like red")));
+    }
+
+    public void testRunningRequestKeepsOldBrain() throws Exception
+    {
+        Chat chat = new Chat(bot);
+        RequestContext running = new RequestContext(bot.brain);
+        TestBots.write(aimlFile("a.aiml"), TestBots.aiml(TestBots.category("HELLO", "Hello again."),
+                TestBots.category("ASK", "<srai>HELLO</srai>")));
+        setFile().delete();
+        bot.aimlWatcher.reload(files("a.aiml"), files("colors.txt"), none);
+        assertNotSame(running.brain, bot.brain);
+        assertEquals("Hi.", AIMLProcessor.respond("ASK", "unknown", "unknown", chat, running));
+        assertEquals("the old brain still matches with the old sets",
+                "Nice color.", AIMLProcessor.respond("I LIKE RED", "unknown", "unknown", chat, running));
+        assertEquals("Hello again.", respond("Ask"));
+        assertFalse("Nice color.".equals(respond("I like red")));
+    }
+
+    public void testLearnedCategoriesSurviveReload() throws Exception
+    {
+        bot.addToBrain(new Category(0, "BEFORE", "*", "*", "Learned before.", MagicStrings.null_aiml_file));
+        final Graphmaster old = bot.brain;
+        Thread reload = new Thread() {
+            public void run() {
+                bot.aimlWatcher.reload(files("b.aiml"), none, none);
+            }
+        };
+        // the rebuild interns the pattern words, so holding the symbol table stops it after it
+        // has copied the old brain's categories and before it swaps in the new brain
+        synchronized (bot.symbols) {
+            reload.start();
+            for (int i = 0; i < 1000 && reload.getState() != Thread.State.BLOCKED; i++) Thread.sleep(5);
+            assertEquals(Thread.State.BLOCKED, reload.getState());
+            assertSame(old, bot.brain);
+            bot.addToBrain(new Category(0, "DURING", "*", "*", "Learned during.", MagicStrings.null_aiml_file));
+        }
+        reload.join();
+        assertNotSame(old, bot.brain);
+        bot.addToBrain(new Category(0, "AFTER", "*", "*", "Learned after.", MagicStrings.null_aiml_file));
+        assertEquals("Learned before.", respond("Before"));
+        assertEquals("Learned during.", respond("During"));
+        assertEquals("Learned after.", respond("After"));
+        assertEquals("Bye.", respond("Bye"));
+    }
+
+    public void testWatcherReloadsChangedFile() throws Exception
+    {
+        int settle = MagicNumbers.reload_settle_ms;
+        MagicNumbers.reload_settle_ms = 50;
+        try {
+            bot.aimlWatcher.start();
+            TestBots.write(aimlFile("b.aiml"), TestBots.aiml(TestBots.category("BYE", "Goodbye.")));
+            for (int i = 0; i < 1000 && bot.aimlWatcher.reloadCnt == 0; i++) Thread.sleep(10);
+            assertEquals(1, bot.aimlWatcher.reloadCnt);
+            assertEquals("Goodbye.", respond("Bye"));
+        } finally {
+            bot.aimlWatcher.stop();
+            MagicNumbers.reload_settle_ms = settle;
+        }
+    }
+}
@@ -0,0 +1,160 @@
+package ark.engine.test;
+
+import ark.engine.core.Bot;
+import ark.engine.core.Chat;
+import ark.engine.core.SymbolTable;
+import junit.framework.TestCase;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+
+/**
+ * A brain snapshot is used only while it matches the source files and is undamaged; otherwise the
+ * bot is loaded from source and the snapshot is written again.
+ */
+public class BrainSnapshotTest
+    extends TestCase
+{
+    private static final int header = 28;       // magic, version, source checksum, payload CRC, payload length
+
+    private File root;
+    private File aimlFile;
+    private File snapshot;
+
+    protected void setUp() throws Exception
+    {
+        root = TestBots.createRoot();
+        aimlFile = new File(TestBots.botDir(root, "aiml"), "base.aiml");
+        TestBots.write(aimlFile, TestBots.aiml(TestBots.category("HELLO", "Hi."),
+                TestBots.category("WHAT IS YOUR NAME", "Tiny."),
+                TestBots.category("MY DOG IS *", "Nice dog.")));
+        snapshot = new File(root, "bots/"+TestBots.name+"/brain.snapshot");
+        load().close();
+        assertTrue(snapshot.exists());
+    }
+
+    protected void tearDown()
+    {
+        TestBots.delete(root);
+    }
+
+    private Bot load()
+    {
+        return new Bot(TestBots.name, root.getPath()+"/", "auto");
+    }
+
+    private static String respond(Bot bot, String input)
+    {
+        return new Chat(bot).multisentenceRespond(input);
+    }
+
+    private void assertRewritten(byte[] before) throws Exception
+    {
+        byte[] after = Files.readAllBytes(snapshot.toPath());
+        assertFalse("the snapshot is written again", Arrays.equals(before, after));
+    }
+
+    public void testCurrentSnapshotIsUsed() throws Exception
+    {
+        snapshot.setLastModified(1000000000L);
+        Bot bot = load();
+        assertEquals("Tiny.", respond(bot, "What is your name"));
+        assertEquals("Nice dog.", respond(bot, "My dog is Rex"));
+        assertEquals(1000000000L, snapshot.lastModified());
+        bot.close();
+    }
+
+    public void testStaleSnapshotIsRejected() throws Exception
+    {
+        byte[] before = Files.readAllBytes(snapshot.toPath());
+        TestBots.write(aimlFile, TestBots.aiml(TestBots.category("HELLO", "Hello again."),
+                TestBots.category("WHAT IS YOUR NAME", "Tiny.")));
+        TestBots.botDir(root, "aiml").setLastModified(System.currentTimeMillis() + 60000);     // newer than the AIMLIF files
+        Bot bot = load();
+        assertEquals("Hello again.", respond(bot, "Hello"));
+        assertFalse("Nice dog.".equals(respond(bot, "My dog is Rex")));
+        bot.close();
+        assertRewritten(before);
+    }
+
+    public void testDamagedSnapshotIsRejected() throws Exception
+    {
+        byte[] bytes = Files.readAllBytes(snapshot.toPath());
+        bytes[bytes.length - 3] ^= 0x55;
+        write(bytes);
+        Bot bot = load();
+        assertEquals("Hi.", respond(bot, "Hello"));
+        assertEquals("Nice dog.", respond(bot, "My dog is Rex"));
+        bot.close();
+        assertRewritten(bytes);
+    }
+
+    public void testTruncatedSnapshotIsRejected() throws Exception
+    {
+        byte[] bytes = Arrays.copyOf(Files.readAllBytes(snapshot.toPath()), header + 10);
+        write(bytes);
+        Bot bot = load();
+        assertEquals("Tiny.", respond(bot, "What is your name"));
+        bot.close();
+        assertRewritten(bytes);
+    }
+
+    /**
+     * a snapshot with a valid CRC whose word table disagrees with its own ids: the words read before
+     * the mismatch must not be left in the bot's symbol table
+     */
+    public void testMismatchedSymbolsLeaveTableUnchanged() throws Exception
+    {
+        ByteBuffer in = ByteBuffer.wrap(Files.readAllBytes(snapshot.toPath()));
+        byte[] head = new byte[header - 12];
+        in.get(head);
+        in.position(header);
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        int words = in.getInt();
+        out.writeInt(words);
+        for (int id = 0; id < words; id++) {
+            byte[] word = new byte[in.getInt()];
+            in.get(word);
+            if (id == 6) word = "QQQQ".getBytes("UTF-8");
+            else if (id == 7) word = "*".getBytes("UTF-8");
+            out.writeInt(word.length);
+            out.write(word);
+        }
+        byte[] rest = new byte[in.remaining()];
+        in.get(rest);
+        out.write(rest);
+        byte[] payload = bytes.toByteArray();
+        CRC32 crc = new CRC32();
+        crc.update(payload);
+        ByteArrayOutputStream file = new ByteArrayOutputStream();
+        DataOutputStream fileOut = new DataOutputStream(file);
+        fileOut.write(head);
+        fileOut.writeLong(crc.getValue());
+        fileOut.writeInt(payload.length);
+        fileOut.write(payload);
+        write(file.toByteArray());
+
+        Bot bot = load();
+        assertEquals(SymbolTable.unknown, bot.symbols.id("QQQQ"));
+        assertEquals("Tiny.", respond(bot, "What is your name"));
+        assertEquals("Nice dog.", respond(bot, "My dog is Rex"));
+        bot.close();
+    }
+
+    private void write(byte[] bytes) throws Exception
+    {
+        FileOutputStream out = new FileOutputStream(snapshot);
+        try {
+            out.write(bytes);
+        } finally {
+            out.close();
+        }
+    }
+}
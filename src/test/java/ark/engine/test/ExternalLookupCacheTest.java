@@ -0,0 +1,105 @@
+package ark.engine.test;
+
+import ark.engine.core.ExternalLookupCache;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import junit.framework.TestCase;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * External set lookups against a local stub of the Pandorabots talk-xml service.
+ * The stub answers true for queries containing RED, and takes 1.5 s for queries containing SLOW.
+ */
+public class ExternalLookupCacheTest
+    extends TestCase
+{
+    private HttpServer server;
+    private String host;
+    private final AtomicInteger requests = new AtomicInteger();
+
+    protected void setUp() throws Exception
+    {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/pandora/talk-xml", new HttpHandler() {
+            public void handle(HttpExchange exchange) throws IOException {
+                requests.incrementAndGet();
+                String query = exchange.getRequestURI().getRawQuery();
+                if (query.contains("SLOW")) {
+                    try {
+                        Thread.sleep(1500);
+                    } catch (InterruptedException ex) {
+                        // answer now
+                    }
+                }
+                String answer = query.contains("RED") ? "true" : "false";
+                byte[] body = ("<result status=\"0\"><that>"+answer+"</that></result>").getBytes("UTF-8");
+                exchange.sendResponseHeaders(200, body.length);
+                OutputStream out = exchange.getResponseBody();
+                out.write(body);
+                out.close();
+            }
+        });
+        server.start();
+        host = "127.0.0.1:"+server.getAddress().getPort();
+    }
+
+    protected void tearDown()
+    {
+        server.stop(0);
+    }
+
+    public void testAnswerIsCached()
+    {
+        ExternalLookupCache cache = new ExternalLookupCache(100, 60000, 60000, 5000);
+        assertEquals("true", cache.lookup(host, "stub", "ISACOLOR RED", "false"));
+        assertEquals("true", cache.lookup(host, "stub", "ISACOLOR RED", "false"));
+        assertEquals(1, requests.get());
+        assertEquals(1, cache.hitCount.get());
+    }
+
+    public void testNegativeAnswerExpires() throws Exception
+    {
+        ExternalLookupCache cache = new ExternalLookupCache(100, 60000, 100, 5000);
+        assertEquals("false", cache.lookup(host, "stub", "ISACOLOR PLAID", "false"));
+        assertEquals("false", cache.lookup(host, "stub", "ISACOLOR PLAID", "false"));
+        assertEquals(1, requests.get());
+        Thread.sleep(300);
+        assertEquals("false", cache.lookup(host, "stub", "ISACOLOR PLAID", "false"));
+        assertEquals(2, requests.get());
+    }
+
+    public void testTimeoutIsNotAMember() throws Exception
+    {
+        ExternalLookupCache cache = new ExternalLookupCache(100, 60000, 60000, 200);
+        long start = System.currentTimeMillis();
+        assertEquals("false", cache.lookup(host, "stub", "ISACOLOR SLOW RED", "false"));
+        assertTrue(System.currentTimeMillis() - start < 1000);
+        assertEquals(1, cache.timeoutCount.get());
+        // the query finishes in the background and its answer is cached
+        Thread.sleep(2000);
+        assertEquals("true", cache.lookup(host, "stub", "ISACOLOR SLOW RED", "false"));
+        assertEquals(1, requests.get());
+    }
+
+    public void testUnreachableHost()
+    {
+        ExternalLookupCache cache = new ExternalLookupCache(100, 60000, 60000, 5000);
+        assertEquals("false", cache.lookup("127.0.0.1:1", "stub", "ISACOLOR RED", "false"));
+    }
+
+    public void testSizeIsBounded()
+    {
+        ExternalLookupCache cache = new ExternalLookupCache(2, 60000, 60000, 5000);
+        cache.lookup(host, "stub", "ISACOLOR RED", "false");
+        cache.lookup(host, "stub", "ISACOLOR BLUE", "false");
+        cache.lookup(host, "stub", "ISACOLOR GREEN", "false");
+        assertEquals(2, cache.size());
+        cache.lookup(host, "stub", "ISACOLOR RED", "false");
+        assertEquals(4, requests.get());
+    }
+}
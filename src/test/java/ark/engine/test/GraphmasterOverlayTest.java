@@ -0,0 +1,93 @@
+package ark.engine.test;
+
+import ark.engine.core.Bot;
+import ark.engine.core.Category;
+import ark.engine.core.Chat;
+import ark.engine.core.MagicStrings;
+import ark.engine.core.Nodemapper;
+import ark.engine.core.NodemapperOperator;
+import junit.framework.TestCase;
+
+import java.io.File;
+
+/**
+ * Categories added after the brain is frozen are matched together with the frozen graph, in the
+ * same priority order a single graph would give, and never change a root a request is matching.
+ */
+public class GraphmasterOverlayTest
+    extends TestCase
+{
+    private File root;
+    private Bot bot;
+
+    protected void setUp() throws Exception
+    {
+        root = TestBots.createRoot();
+        TestBots.write(new File(TestBots.botDir(root, "aiml"), "base.aiml"),
+                TestBots.aiml(TestBots.category("WHAT IS *", "Loaded."),
+                        TestBots.category("HELLO", "Hi."),
+                        TestBots.category("_ FRIEND", "Friendly."),
+                        TestBots.category("I LIKE <set>color</set>", "Loaded <star/>.")));
+        TestBots.write(new File(TestBots.botDir(root, "sets"), "color.txt"), "red\ndark blue\n");
+        TestBots.write(new File(TestBots.botDir(root, "sets"), "animal.txt"), "cat\nsea lion\n");
+        bot = new Bot(TestBots.name, root.getPath()+"/", "aiml2csv");
+    }
+
+    protected void tearDown()
+    {
+        bot.close();
+        TestBots.delete(root);
+    }
+
+    private void add(String pattern, String template)
+    {
+        bot.brain.addCategory(new Category(0, pattern, "*", "*", template, MagicStrings.null_aiml_file));
+    }
+
+    private String respond(String input)
+    {
+        return new Chat(bot).multisentenceRespond(input);
+    }
+
+    public void testAddedWildcardDoesNotBeatLoadedWord()
+    {
+        add("* IS *", "Learned.");
+        assertEquals("Loaded.", respond("What is love"));
+        assertEquals("Learned.", respond("Love is blind"));
+    }
+
+    public void testAddedCategoriesTakePriorityByNode()
+    {
+        add("WHAT IS LOVE", "Exact.");
+        add("_ IS *", "Underscore.");
+        add("MY FRIEND", "Mine.");
+        assertEquals("Underscore.", respond("What is love"));
+        assertEquals("Underscore.", respond("Love is blind"));
+        assertEquals("Friendly.", respond("My friend"));
+        assertEquals("Hi.", respond("Hello"));
+    }
+
+    public void testAddedSetBranches()
+    {
+        add("I LIKE <SET>COLOR</SET> CARS", "Cars <star/>.");
+        add("I LIKE <SET>ANIMAL</SET>", "Animal <star/>.");
+        add("I LIKE <SET>ANIMAL</SET>", "Animal again <star/>.");
+        assertEquals("Loaded red.", respond("I like red"));
+        assertEquals("Cars dark blue.", respond("I like dark blue cars"));
+        assertEquals("Animal again sea lion.", respond("I like sea lion"));
+        assertEquals("Loaded dark blue.", respond("I like dark blue"));
+    }
+
+    public void testReplacedCategoryAndUnchangedRoot()
+    {
+        Nodemapper before = bot.brain.root;
+        int size = NodemapperOperator.size(before);
+        add("HELLO", "Hello again.");
+        add("GOODBYE", "Bye.");
+        assertNotSame(before, bot.brain.root);
+        assertEquals(size, NodemapperOperator.size(before));
+        assertEquals("Hello again.", respond("Hello"));
+        assertEquals("Bye.", respond("Goodbye"));
+        assertEquals("Loaded.", respond("What is that"));
+    }
+}
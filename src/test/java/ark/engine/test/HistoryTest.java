@@ -0,0 +1,126 @@
+package ark.engine.test;
+
+import ark.engine.core.History;
+import ark.engine.core.MagicNumbers;
+import ark.engine.core.MagicStrings;
+import ark.engine.core.ThatHistory;
+import junit.framework.TestCase;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+
+/**
+ * The ring buffers behind the request, response, input and that histories.
+ */
+public class HistoryTest
+    extends TestCase
+{
+    private static final int capacity = MagicNumbers.max_history;
+
+    private static void respond(ThatHistory history, String... sentences)
+    {
+        history.begin();
+        for (String sentence : sentences) history.add(sentence);
+        history.commit();
+    }
+
+    public void testHistoryKeepsLastItems()
+    {
+        History<String> history = new History<String>("test");
+        assertNull(history.get(0));
+        assertEquals(MagicStrings.unknown_history_item, history.getString(0));
+        for (int i = 0; i < capacity + 5; i++) history.add("item "+i);
+        assertEquals(capacity, history.size());
+        assertEquals("item "+(capacity + 4), history.get(0));
+        assertEquals("item 5", history.get(capacity - 1));
+        assertNull(history.get(capacity));
+        assertNull(history.get(-1));
+        assertNull(history.getString(capacity));
+    }
+
+    public void testHistoryRoundTrip() throws Exception
+    {
+        History<String> history = new History<String>("test");
+        for (int i = 0; i < capacity + 3; i++) history.add("item "+i);
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        history.write(new DataOutputStream(bytes));
+        History<String> copy = new History<String>();
+        copy.add("replaced");
+        copy.read(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+        assertEquals(capacity, copy.size());
+        for (int i = 0; i < capacity; i++) assertEquals(history.get(i), copy.get(i));
+    }
+
+    public void testThatHistoryIndexes()
+    {
+        ThatHistory history = new ThatHistory();
+        assertNull(history.get(0, 0));
+        assertEquals(MagicStrings.unknown_history_item, history.getString(0, 0));
+        respond(history, "Hello.", "How are you?");
+        respond(history, "Fine.");
+        assertEquals(2, history.size());
+        assertEquals("Fine.", history.get(0, 0));
+        assertNull(history.get(0, 1));
+        assertEquals("How are you?", history.get(1, 0));
+        assertEquals("Hello.", history.get(1, 1));
+        assertNull(history.get(2, 0));
+    }
+
+    public void testThatHistoryKeepsLastSentences()
+    {
+        ThatHistory history = new ThatHistory();
+        history.begin();
+        for (int j = 0; j < capacity + 3; j++) history.add("sentence "+j);
+        history.commit();
+        assertEquals("sentence "+(capacity + 2), history.get(0, 0));
+        assertEquals("sentence 3", history.get(0, capacity - 1));
+        assertNull(history.get(0, capacity));
+    }
+
+    /**
+     * while a response is in progress, every stored response, including the oldest, is still readable
+     */
+    public void testResponseInProgressIsNotVisible()
+    {
+        ThatHistory history = new ThatHistory();
+        for (int i = 0; i < capacity + 2; i++) respond(history, "response "+i);
+        assertEquals(capacity, history.size());
+        assertEquals("response 2", history.get(capacity - 1, 0));
+
+        history.begin();
+        history.add("partial");
+        assertEquals(capacity, history.size());
+        assertEquals("response "+(capacity + 1), history.get(0, 0));
+        assertEquals("response 2", history.get(capacity - 1, 0));
+        for (int i = 0; i < capacity; i++) assertFalse("partial".equals(history.get(i, 0)));
+
+        history.add("done");
+        history.commit();
+        assertEquals(capacity, history.size());
+        assertEquals("done", history.get(0, 0));
+        assertEquals("partial", history.get(0, 1));
+        assertEquals("response "+(capacity + 1), history.get(1, 0));
+        assertEquals("response 3", history.get(capacity - 1, 0));
+    }
+
+    public void testThatHistoryRoundTrip() throws Exception
+    {
+        ThatHistory history = new ThatHistory();
+        for (int i = 0; i < capacity + 4; i++) respond(history, "first "+i, "second "+i);
+        history.begin();
+        history.add("in progress");
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        history.write(new DataOutputStream(bytes));
+        ThatHistory copy = new ThatHistory();
+        respond(copy, "replaced");
+        copy.read(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+        assertEquals(capacity, copy.size());
+        for (int i = 0; i < capacity; i++) {
+            assertEquals(history.get(i, 0), copy.get(i, 0));
+            assertEquals(history.get(i, 1), copy.get(i, 1));
+        }
+        assertEquals("second "+(capacity + 3), copy.get(0, 0));
+    }
+}
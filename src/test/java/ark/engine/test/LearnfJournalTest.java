@@ -0,0 +1,82 @@
+package ark.engine.test;
+
+import ark.engine.core.Bot;
+import ark.engine.core.Category;
+import ark.engine.core.Chat;
+import ark.engine.core.MagicStrings;
+import junit.framework.TestCase;
+
+import java.io.File;
+import java.util.List;
+
+/**
+ * Learned categories are journaled, replayed on load with the last version winning, and compacted.
+ */
+public class LearnfJournalTest
+    extends TestCase
+{
+    private File root;
+
+    protected void setUp() throws Exception
+    {
+        root = TestBots.createRoot();
+        TestBots.write(new File(TestBots.botDir(root, "aiml"), "base.aiml"),
+                TestBots.aiml(TestBots.category("HELLO", "Hi there.")));
+    }
+
+    protected void tearDown()
+    {
+        TestBots.delete(root);
+    }
+
+    private File journalFile()
+    {
+        return new File(TestBots.botDir(root, "aimlif"), MagicStrings.learnf_aiml_file+MagicStrings.aimlif_file_suffix);
+    }
+
+    private void learn(Bot bot, String pattern, String template)
+    {
+        Category c = new Category(0, pattern, "*", "*", template, MagicStrings.learnf_aiml_file);
+        synchronized (bot.learnfGraph) {
+            bot.learnfGraph.addCategory(c);
+        }
+        bot.learnfJournal.append(c);
+        bot.brain.addCategory(c);
+    }
+
+    private void waitForJournal(Bot bot) throws InterruptedException
+    {
+        for (int i = 0; i < 500 && bot.learnfJournal.pendingCount.get() > 0; i++) Thread.sleep(10);
+        assertEquals(0, bot.learnfJournal.pendingCount.get());
+    }
+
+    public void testReplayKeepsLastVersion() throws Exception
+    {
+        Bot bot = new Bot(TestBots.name, root.getPath()+"/", "aiml2csv");
+        learn(bot, "MY COLOR", "Blue.");
+        learn(bot, "MY COLOR", "Green.");
+        learn(bot, "MY PET", "A cat.");
+        waitForJournal(bot);
+        List<String> lines = java.nio.file.Files.readAllLines(journalFile().toPath(), java.nio.charset.Charset.forName("UTF-8"));
+        assertEquals("every learn is appended", 3, lines.size());
+
+        Bot replayed = new Bot(TestBots.name, root.getPath()+"/", "csv2aiml");
+        Chat chat = new Chat(replayed);
+        assertEquals("Green.", chat.multisentenceRespond("My color"));
+        assertEquals("A cat.", chat.multisentenceRespond("My pet"));
+        bot.close();
+        replayed.close();
+    }
+
+    public void testCloseCompacts() throws Exception
+    {
+        Bot bot = new Bot(TestBots.name, root.getPath()+"/", "aiml2csv");
+        learn(bot, "MY COLOR", "Blue.");
+        learn(bot, "MY COLOR", "Green.");
+        bot.close();
+        List<String> lines = java.nio.file.Files.readAllLines(journalFile().toPath(), java.nio.charset.Charset.forName("UTF-8"));
+        assertEquals(1, lines.size());
+        assertTrue(lines.get(0).contains("Green."));
+        assertEquals(0, bot.learnfJournal.pendingCount.get());
+    }
+}
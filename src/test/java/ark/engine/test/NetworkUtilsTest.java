@@ -0,0 +1,98 @@
+package ark.engine.test;
+
+import ark.engine.utils.HostStats;
+import ark.engine.utils.NetworkUtils;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import junit.framework.TestCase;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.Executors;
+
+/**
+ * The pooled HTTP client of NetworkUtils against a local server.
+ * /hello answers at once, /slow after one second.
+ */
+public class NetworkUtilsTest
+    extends TestCase
+{
+    private HttpServer server;
+    private String base;
+    private int readTimeoutMs;
+    private final Set<Integer> clientPorts = Collections.synchronizedSet(new HashSet<Integer>());
+
+    protected void setUp() throws Exception
+    {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/", new HttpHandler() {
+            public void handle(HttpExchange exchange) throws IOException {
+                clientPorts.add(exchange.getRemoteAddress().getPort());
+                if (exchange.getRequestURI().getPath().equals("/slow")) {
+                    try {
+                        Thread.sleep(1000);
+                    } catch (InterruptedException ex) {
+                        // answer now
+                    }
+                }
+                byte[] body = "hello\nworld".getBytes("UTF-8");
+                exchange.sendResponseHeaders(200, body.length);
+                OutputStream out = exchange.getResponseBody();
+                out.write(body);
+                out.close();
+            }
+        });
+        server.setExecutor(Executors.newCachedThreadPool());
+        server.start();
+        base = "http://127.0.0.1:"+server.getAddress().getPort();
+        readTimeoutMs = NetworkUtils.readTimeoutMs;
+        NetworkUtils.shutdown();
+    }
+
+    protected void tearDown()
+    {
+        server.stop(0);
+        NetworkUtils.readTimeoutMs = readTimeoutMs;
+        NetworkUtils.shutdown();
+    }
+
+    public void testConnectionIsReused() throws Exception
+    {
+        for (int i = 0; i < 5; i++) assertEquals("hello\nworld", NetworkUtils.responseContent(base+"/hello"));
+        assertEquals(1, clientPorts.size());
+        assertEquals(0, NetworkUtils.activeRequests.get());
+        assertEquals(1, NetworkUtils.connectionsInPool());
+    }
+
+    public void testHostStats() throws Exception
+    {
+        NetworkUtils.responseContent(base+"/hello");
+        NetworkUtils.responseContent(base+"/hello");
+        HostStats stats = NetworkUtils.hostStats.get("127.0.0.1:"+server.getAddress().getPort());
+        assertNotNull(stats);
+        assertEquals(2, stats.requests.get());
+        assertEquals(0, stats.errors.get());
+        assertTrue(NetworkUtils.stats().contains(stats.toString()));
+    }
+
+    public void testReadTimeout() throws Exception
+    {
+        NetworkUtils.readTimeoutMs = 200;
+        long start = System.currentTimeMillis();
+        try {
+            NetworkUtils.responseContent(base+"/slow");
+            fail("expected a read timeout");
+        } catch (Exception ex) {
+            // expected
+        }
+        assertTrue(System.currentTimeMillis() - start < 900);
+        assertEquals(1, NetworkUtils.hostStats.get("127.0.0.1:"+server.getAddress().getPort()).errors.get());
+        assertEquals(0, NetworkUtils.activeRequests.get());
+        assertEquals("hello\nworld", NetworkUtils.responseContent(base+"/hello"));
+    }
+}
@@ -0,0 +1,54 @@
+package ark.engine.test;
+
+import ark.engine.core.MagicNumbers;
+import ark.engine.core.MagicStrings;
+import ark.engine.core.Predicates;
+import junit.framework.TestCase;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Predicates as an overlay of changed values on shared defaults.
+ */
+public class PredicatesTest
+    extends TestCase
+{
+    private Map<String, String> defaults()
+    {
+        Map<String, String> defaults = new HashMap<String, String>();
+        defaults.put("name", "Friend");
+        defaults.put("topic", "unknown");
+        return defaults;
+    }
+
+    public void testOverlayHidesDefaults()
+    {
+        Map<String, String> defaults = defaults();
+        Predicates predicates = new Predicates(defaults);
+        assertEquals("Friend", predicates.get("name"));
+        assertEquals(MagicStrings.unknown_predicate_value, predicates.get("age"));
+        predicates.put("name", "Ann");
+        predicates.put("topic", "unknown");
+        assertEquals("Ann", predicates.get("name"));
+        assertEquals(1, predicates.overlaySize());
+        assertEquals(2, predicates.size());
+        assertEquals("Friend", defaults.get("name"));
+        predicates.remove("name");
+        assertEquals("Friend", predicates.get("name"));
+    }
+
+    public void testLargeOverlay()
+    {
+        Predicates predicates = new Predicates(defaults());
+        int n = MagicNumbers.max_inline_predicates * 2;
+        for (int i = 0; i < n; i++) predicates.put("p"+i, "v"+i);
+        predicates.put("p3", "changed");
+        assertEquals(n, predicates.overlaySize());
+        assertEquals(n + 2, predicates.size());
+        assertEquals("changed", predicates.get("p3"));
+        assertEquals("v"+(n-1), predicates.get("p"+(n-1)));
+        assertTrue(predicates.containsKey("name"));
+        assertEquals(n + 2, predicates.entrySet().size());
+    }
+}
@@ -0,0 +1,117 @@
+package ark.engine.test;
+
+import ark.engine.core.Bot;
+import ark.engine.core.Category;
+import ark.engine.core.Chat;
+import ark.engine.core.MagicBooleans;
+import ark.engine.core.MagicNumbers;
+import junit.framework.TestCase;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * Requests running at the same time on one bot each have their own srai limit and match trace.
+ */
+public class RequestContextTest
+    extends TestCase
+{
+    private static final int depth = 60;         // the trace of the chain stays under max_trace_length
+
+    private File root;
+    private Bot bot;
+    private int maxRecursion;
+
+    protected void setUp() throws Exception
+    {
+        maxRecursion = MagicNumbers.max_recursion;
+        MagicNumbers.max_recursion = 100;
+        root = TestBots.createRoot();
+        String[] categories = new String[depth + 2];
+        categories[0] = TestBots.category("LOOP", "<srai>LOOP</srai>");
+        categories[1] = TestBots.category("CHAIN", "<srai>STEP 1</srai>");
+        for (int i = 1; i < depth; i++) categories[i+1] = TestBots.category("STEP "+i, "<srai>STEP "+(i+1)+"</srai>");
+        categories[depth+1] = TestBots.category("STEP "+depth, "Done.");
+        TestBots.write(new File(TestBots.botDir(root, "aiml"), "chain.aiml"), TestBots.aiml(categories));
+        bot = new Bot(TestBots.name, root.getPath()+"/", "aiml2csv");
+    }
+
+    protected void tearDown()
+    {
+        bot.close();
+        TestBots.delete(root);
+        MagicNumbers.max_recursion = maxRecursion;
+    }
+
+    private static int lines(String trace)
+    {
+        int n = 0;
+        for (int i = 0; i < trace.length(); i++) if (trace.charAt(i) == '\n') n++;
+        return n;
+    }
+
+    /**
+     * run one input repeatedly in its own chat, checking every response and match trace line
+     */
+    private Thread requests(final String input, final String response, final String traceLine, final int traceLines,
+                            final CountDownLatch start, final List<String> failures)
+    {
+        return new Thread() {
+            public void run() {
+                Chat chat = new Chat(bot);
+                try {
+                    start.await();
+                    for (int i = 0; i < 50; i++) {
+                        String actual = chat.multisentenceRespond(input);
+                        if (!response.equals(actual)) failures.add(input+" responded "+actual);
+                        for (String line : chat.matchTrace.split("\n")) {
+                            if (!line.matches(traceLine)) failures.add(input+" traced "+line);
+                        }
+                        if (lines(chat.matchTrace) != traceLines) failures.add(input+" traced "+lines(chat.matchTrace)+" lines");
+                    }
+                } catch (Exception ex) {
+                    failures.add(input+": "+ex);
+                }
+            }
+        };
+    }
+
+    public void testConcurrentRequestsHaveTheirOwnContext() throws Exception
+    {
+        Chat chat = new Chat(bot);
+        String loopResponse = chat.multisentenceRespond("Loop");
+        int loopTrace = lines(chat.matchTrace);
+        assertTrue(loopTrace > 0);
+        assertEquals("Done.", chat.multisentenceRespond("Chain"));
+        assertEquals(depth + 1, lines(chat.matchTrace));
+
+        List<String> failures = Collections.synchronizedList(new ArrayList<String>());
+        CountDownLatch start = new CountDownLatch(1);
+        Thread loop = requests("Loop", loopResponse, "LOOP .*", loopTrace, start, failures);
+        Thread chain = requests("Chain", "Done.", "(CHAIN|STEP [0-9]+) .*", depth + 1, start, failures);
+        loop.start();
+        chain.start();
+        start.countDown();
+        loop.join();
+        chain.join();
+        assertEquals(Collections.<String>emptyList(), failures);
+    }
+
+    public void testMatchesAreRecordedOnlyForTraining()
+    {
+        Category chain = null;
+        for (Category c : bot.brain.getCategories()) if (c.getPattern().equals("CHAIN")) chain = c;
+        new Chat(bot).multisentenceRespond("Chain");
+        assertEquals(0, chain.getMatches().size());
+        MagicBooleans.record_matches = true;
+        try {
+            new Chat(bot).multisentenceRespond("Chain");
+        } finally {
+            MagicBooleans.record_matches = false;
+        }
+        assertEquals(1, chain.getMatches().size());
+    }
+}
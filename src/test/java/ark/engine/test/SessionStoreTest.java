@@ -0,0 +1,253 @@
+package ark.engine.test;
+
+import ark.engine.core.Bot;
+import ark.engine.core.Chat;
+import ark.engine.core.ChatManager;
+import ark.engine.core.MappedFileSessionStore;
+import ark.engine.core.MemorySessionStore;
+import ark.engine.core.SessionStore;
+import junit.framework.TestCase;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * Session serialization, the session stores and eviction of sessions from the chat manager.
+ */
+public class SessionStoreTest
+    extends TestCase
+{
+    private File file;
+
+    protected void setUp() throws Exception
+    {
+        file = File.createTempFile("sessions", ".db");
+        file.delete();
+    }
+
+    protected void tearDown()
+    {
+        file.delete();
+    }
+
+    private static Chat chat(String customerId, int requests)
+    {
+        Chat chat = new Chat(null, customerId);
+        chat.predicates.put("name", "Ann "+customerId);
+        for (int i = 0; i < requests; i++) {
+            chat.requestHistory.add("request "+i);
+            chat.responseHistory.add("response "+i);
+            chat.inputHistory.add("input "+i);
+            chat.thatHistory.begin();
+            chat.thatHistory.add("first "+i);
+            chat.thatHistory.add("second "+i);
+            chat.thatHistory.commit();
+        }
+        return chat;
+    }
+
+    public void testSessionRoundTrip() throws Exception
+    {
+        Chat chat = chat("u1", 40);
+        Chat copy = Chat.fromSessionBytes(null, chat.toSessionBytes());
+        assertEquals("u1", copy.customerId);
+        assertEquals(chat.predicates, copy.predicates);
+        assertEquals("request 39", copy.requestHistory.get(0));
+        assertEquals("request 8", copy.requestHistory.get(31));
+        assertNull(copy.requestHistory.get(32));
+        assertEquals("second 39", copy.thatHistory.get(0, 0));
+        assertEquals("first 38", copy.thatHistory.get(1, 1));
+        assertTrue(Arrays.equals(chat.toSessionBytes(), copy.toSessionBytes()));
+    }
+
+    public void testMappedFileStoreSurvivesReopen() throws Exception
+    {
+        MappedFileSessionStore store = new MappedFileSessionStore(file.getPath(), 4096);
+        for (int i = 0; i < 200; i++) store.store("u"+(i % 20), chat("u"+(i % 20), i % 5).toSessionBytes());
+        store.remove("u3");
+        byte[] u7 = store.load("u7");
+        assertEquals(19, store.size());
+        assertTrue("superseded records are compacted", store.usedBytes() < 4 * 20 * u7.length);
+        store.close();
+
+        store = new MappedFileSessionStore(file.getPath(), 4096);
+        assertEquals(19, store.size());
+        assertNull(store.load("u3"));
+        assertTrue(Arrays.equals(u7, store.load("u7")));
+        assertEquals("Ann u7", Chat.fromSessionBytes(null, store.load("u7")).predicates.get("name"));
+        store.close();
+    }
+
+    public void testMemoryStoreDrops() throws Exception
+    {
+        MemorySessionStore byDefault = new MemorySessionStore();
+        MemorySessionStore capped = new MemorySessionStore(3);
+        int length = chat("u0", 1).toSessionBytes().length;
+        MemorySessionStore sized = new MemorySessionStore(Integer.MAX_VALUE, 10L * length);
+        for (int i = 0; i < 1000; i++) {
+            byte[] session = chat("u"+i, 1).toSessionBytes();
+            byDefault.store("u"+i, session);
+            capped.store("u"+i, session);
+            sized.store("u"+i, session);
+        }
+        assertEquals(1000, byDefault.size());
+        assertEquals(0, byDefault.droppedCount());
+        assertNotNull(byDefault.load("u0"));
+        assertTrue(sized.storedBytes() <= 10L * length);
+        assertTrue(sized.size() >= 8);
+        assertEquals(1000 - sized.size(), sized.droppedCount());
+        assertNotNull(sized.load("u999"));
+        sized.remove("u999");
+        assertNull(sized.load("u999"));
+        assertEquals(1000, sized.size() + sized.droppedCount() + 1);
+        assertEquals(3, capped.size());
+        assertEquals(997, capped.droppedCount());
+        assertNull(capped.load("u0"));
+        ChatManager manager = new ChatManager(null, capped);
+        assertTrue(manager.stats().contains(" dropped=997 "));
+        manager.close();
+    }
+
+    public void testEvictedSessionsAreReloaded() throws Exception
+    {
+        MemorySessionStore store = new MemorySessionStore(100);
+        ChatManager manager = new ChatManager(null, store);
+        manager.maxSessions = 2;
+        manager.get("a").predicates.put("color", "red");
+        manager.get("b");
+        manager.get("c");
+        assertEquals(2, manager.activeCount());
+        assertEquals("red", manager.get("a").predicates.get("color"));
+        manager.get("d");
+        manager.get("e");
+        assertEquals(5, manager.createdCount.get());
+        assertEquals(1, manager.reloadedCount.get());
+        assertEquals(4, manager.evictedCount.get());
+        manager.close();
+        assertEquals(5, store.size());
+        assertEquals("red", Chat.fromSessionBytes(null, store.load("a")).predicates.get("color"));
+    }
+
+    public void testHeldSessionsAreNotEvicted() throws Exception
+    {
+        ChatManager manager = new ChatManager(null, new MemorySessionStore());
+        manager.maxSessions = 2;
+        Chat a = manager.acquire("a");
+        for (int i = 0; i < 10; i++) manager.get("u"+i);
+        assertEquals(2, manager.activeCount());
+        assertEquals(9, manager.evictedCount.get());
+        assertSame(a, manager.get("a"));
+        manager.evictIdle(System.currentTimeMillis() + 10 * manager.ttlMs);
+        assertEquals(1, manager.activeCount());
+        assertSame(a, manager.get("a"));
+        a.predicates.put("color", "red");
+        manager.release("a");
+        try {
+            manager.release("a");
+            fail("released twice");
+        } catch (IllegalStateException ex) {
+        }
+        manager.get("b");
+        manager.get("c");
+        Chat reloaded = manager.get("a");
+        assertNotSame(a, reloaded);
+        assertEquals("red", reloaded.predicates.get("color"));
+        assertEquals(1, manager.reloadedCount.get());
+        manager.close();
+    }
+
+    /**
+     * A memory store whose store() waits until the test lets it finish.
+     */
+    private static class SlowStore implements SessionStore
+    {
+        final MemorySessionStore sessions = new MemorySessionStore();
+        final CountDownLatch storing = new CountDownLatch(1);
+        final CountDownLatch finish = new CountDownLatch(1);
+
+        public byte[] load(String customerId) { return sessions.load(customerId); }
+        public void remove(String customerId) { sessions.remove(customerId); }
+        public int size() { return sessions.size(); }
+        public long droppedCount() { return 0; }
+        public void close() { }
+
+        public void store(String customerId, byte[] session) throws IOException
+        {
+            storing.countDown();
+            try {
+                finish.await();
+            } catch (InterruptedException ex) {
+                throw new IOException(ex);
+            }
+            sessions.store(customerId, session);
+        }
+    }
+
+    public void testRemoveWaitsForTheWriter() throws Exception
+    {
+        SlowStore store = new SlowStore();
+        final ChatManager manager = new ChatManager(null, store);
+        manager.maxSessions = 1;
+        manager.get("a");
+        manager.get("b");
+        store.storing.await();
+        Thread remover = new Thread(new Runnable() {
+            public void run() {
+                manager.remove("a");
+            }
+        });
+        remover.start();
+        Thread.sleep(100);
+        store.finish.countDown();
+        remover.join();
+        assertNull("a removed session is not written back", store.load("a"));
+        manager.close();
+        assertNull(store.load("a"));
+        assertNotNull(store.load("b"));
+    }
+
+    public void testBotCloseWritesSessions() throws Exception
+    {
+        File root = TestBots.createRoot();
+        try {
+            TestBots.write(new File(TestBots.botDir(root, "aiml"), "hi.aiml"), TestBots.aiml(TestBots.category("HI", "Hello.")));
+            Bot bot = new Bot(TestBots.name, root.getPath()+"/", "aiml2csv");
+            ChatManager manager = bot.chatManager;
+            manager.maxSessions = 1;
+            for (int i = 0; i < 5; i++) manager.get("u"+i).predicates.put("name", "Ann "+i);
+            bot.close();
+            assertEquals(0, manager.pendingCount());
+            assertTrue(manager.stats(), manager.stats().contains(" stored=5 "));
+        } finally {
+            TestBots.delete(root);
+        }
+    }
+
+    public void testIdleSessionsAreEvicted() throws Exception
+    {
+        ChatManager manager = new ChatManager(null, new MemorySessionStore(100));
+        manager.ttlMs = 1000;
+        Chat a = manager.get("a");
+        manager.get("b");
+        manager.evictIdle(System.currentTimeMillis() + 500);
+        assertEquals(2, manager.activeCount());
+        manager.evictIdle(System.currentTimeMillis() + 5000);
+        assertEquals(0, manager.activeCount());
+        assertNotSame(a, manager.get("a"));
+        assertEquals(1, manager.reloadedCount.get());
+        manager.close();
+    }
+
+    public void testMemoryCap() throws Exception
+    {
+        ChatManager manager = new ChatManager(null, new MemorySessionStore(100));
+        long size = manager.get("a").estimatedSize();
+        manager.maxBytes = 3 * size + size / 2;
+        for (int i = 0; i < 10; i++) manager.get("u"+i);
+        assertEquals(3, manager.activeCount());
+        assertTrue(manager.residentBytes() <= manager.maxBytes);
+        manager.close();
+    }
+}
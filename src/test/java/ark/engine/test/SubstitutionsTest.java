@@ -0,0 +1,142 @@
+package ark.engine.test;
+
+import ark.engine.core.MagicNumbers;
+import ark.engine.core.PreProcessor;
+import ark.engine.core.Substitutions;
+import junit.framework.TestCase;
+
+import java.io.BufferedReader;
+import java.io.FileInputStream;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * The one-scan substitution tables give the same result as applying each pattern's regex in turn.
+ */
+public class SubstitutionsTest
+    extends TestCase
+{
+    private static final String[] tables = {"normal", "denormal", "person", "person2", "gender"};
+    private static final String[] edgeInputs = {
+        "", " ", "   ", "a", "A  B   C", "I'm", "i'M", "IM", "I AM", "you're you are", "dot.com .COM.com",
+        "can't won't don't", "Hello, world!", "  leading and trailing  ", "he she they", "$1 \\ $0 \\\\",
+        "a.b (c) [d] {e} ^f$ *g+ ?h| i", "İstanbul ß été ÉTÉ", "\t tab \n newline \r",
+        "with you with me to you to me", "with youwith me", "i i i i i i i i", "yourself yourselves"
+    };
+
+    private PreProcessor preProcessor;
+
+    protected void setUp()
+    {
+        preProcessor = new PreProcessor(null);
+    }
+
+    /**
+     * apply a sequence of substitutions to an input, one regex at a time, as PreProcessor did.
+     * A replacement that is not valid for replaceAll stops the substitutions where they are.
+     */
+    private static String reference(String request, Pattern[] patterns, String[] subs, int count)
+    {
+        String result = " "+request+" ";
+        try {
+            for (int i = 0; i < count; i++) {
+                Matcher m = patterns[i].matcher(result);
+                if (m.find()) result = m.replaceAll(subs[i]);
+            }
+            while (result.contains("  ")) result = result.replace("  ", " ");
+        } catch (Exception ex) {
+            // as before
+        }
+        return result.trim();
+    }
+
+    private static List<String> keys(String table) throws Exception
+    {
+        List<String> keys = new ArrayList<String>();
+        BufferedReader br = new BufferedReader(new InputStreamReader(new FileInputStream("bots/super/config/"+table+".txt"), "UTF-8"));
+        try {
+            Pattern pattern = Pattern.compile("\"(.*?)\",\"(.*?)\"", Pattern.DOTALL);
+            String line;
+            while ((line = br.readLine()) != null) {
+                Matcher matcher = pattern.matcher(line.trim());
+                if (matcher.find()) keys.add(matcher.group(1));
+            }
+        } finally {
+            br.close();
+        }
+        return keys;
+    }
+
+    private static String randomCase(String s, Random random)
+    {
+        StringBuilder sb = new StringBuilder(s.length());
+        for (char c : s.toCharArray()) sb.append(random.nextBoolean() ? Character.toUpperCase(c) : Character.toLowerCase(c));
+        return sb.toString();
+    }
+
+    private static void assertSame(String table, Pattern[] patterns, String[] subs, int count, List<String> inputs)
+    {
+        Substitutions substitutions = new Substitutions(patterns, subs, count);
+        for (String input : inputs) {
+            assertEquals(table+": \""+input+"\"", reference(input, patterns, subs, count), substitutions.substitute(input));
+        }
+    }
+
+    public void testBundledTables() throws Exception
+    {
+        Random random = new Random(42);
+        String[] noise = {" ", " ", " ", "", ".", ",", "'", "x", "$", "\\", "?", "ß", "I"};
+        for (String table : tables) {
+            Pattern[] patterns = new Pattern[MagicNumbers.max_substitutions];
+            String[] subs = new String[MagicNumbers.max_substitutions];
+            int count = preProcessor.readSubstitutionsFromInputStream(new FileInputStream("bots/super/config/"+table+".txt"), patterns, subs);
+            assertTrue(table, count > 0);
+            List<String> keys = keys(table);
+            List<String> inputs = new ArrayList<String>();
+            for (String edge : edgeInputs) inputs.add(edge);
+            for (String key : keys) {
+                inputs.add(key);
+                inputs.add(key.trim());
+                inputs.add("word"+key+"word");
+            }
+            for (int n = 0; n < 2000; n++) {
+                StringBuilder sb = new StringBuilder();
+                int parts = 1 + random.nextInt(6);
+                for (int p = 0; p < parts; p++) {
+                    sb.append(randomCase(keys.get(random.nextInt(keys.size())), random));
+                    sb.append(noise[random.nextInt(noise.length)]);
+                }
+                inputs.add(sb.toString());
+            }
+            assertSame(table, patterns, subs, count, inputs);
+        }
+    }
+
+    public void testEdgeTable()
+    {
+        int flags = Pattern.CASE_INSENSITIVE;
+        Pattern[] patterns = {
+            Pattern.compile(Pattern.quote(" the "), flags),
+            Pattern.compile(Pattern.quote("he"), flags),
+            Pattern.compile(Pattern.quote("there"), flags),
+            Pattern.compile("colou?r", flags),                  // a regex, not a literal
+            Pattern.compile(Pattern.quote("a\\Eb"), flags),      // \E inside the quoted text
+            Pattern.compile(Pattern.quote("cost"), flags),
+            Pattern.compile(Pattern.quote("HEX"), flags),        // also matches the output of "he"
+            Pattern.compile(Pattern.quote(""), flags),
+            Pattern.compile(Pattern.quote("é"), flags),     // not folded: CASE_INSENSITIVE is ASCII only
+            Pattern.compile(Pattern.quote("x"), 0),              // case sensitive
+        };
+        String[] subs = {" a ", "hex", "where", "hue", "ab", "\\$5", "[$0]", "-", "e", "$"};
+        List<String> inputs = new ArrayList<String>();
+        for (String edge : edgeInputs) inputs.add(edge);
+        String[] extra = {"the there then", "THE THERE", "Hello there", "color colour COLOR", "a\\Eb A\\EB", "cost COST",
+                "é É", "x X", "hex HEX", "whether", "he he he"};
+        for (String e : extra) inputs.add(e);
+        assertSame("edge", patterns, subs, patterns.length, inputs);
+    }
+}
@@ -0,0 +1,64 @@
+package ark.engine.test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Small bots in temporary directories, for tests that load, write or reload a brain.
+ */
+class TestBots
+{
+    static final String name = "tiny";
+
+    /**
+     * create a root directory holding an empty bot named "tiny"
+     *
+     * @return    root directory, to pass to the Bot constructor with a trailing slash
+     */
+    static File createRoot() throws IOException
+    {
+        File root = File.createTempFile("ark", "");
+        root.delete();
+        for (String dir : new String[] {"aiml", "aimlif", "config", "sets", "maps"}) {
+            new File(root, "bots/"+name+"/"+dir).mkdirs();
+        }
+        return root;
+    }
+
+    static File botDir(File root, String dir)
+    {
+        return new File(root, "bots/"+name+"/"+dir);
+    }
+
+    static String aiml(String... categories)
+    {
+        StringBuilder sb = new StringBuilder("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n<aiml version=\"2.0\">\n");
+        for (String category : categories) sb.append(category).append("\n");
+        return sb.append("</aiml>\n").toString();
+    }
+
+    static String category(String pattern, String template)
+    {
+        return "<category><pattern>"+pattern+"</pattern><template>"+template+"</template></category>";
+    }
+
+    static void write(File file, String contents) throws IOException
+    {
+        file.getParentFile().mkdirs();
+        OutputStream out = new FileOutputStream(file);
+        try {
+            out.write(contents.getBytes("UTF-8"));
+        } finally {
+            out.close();
+        }
+    }
+
+    static void delete(File file)
+    {
+        File[] children = file.listFiles();
+        if (children != null) for (File child : children) delete(child);
+        file.delete();
+    }
+}